@@ -0,0 +1,136 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import com.google.gson.JsonObject;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+
+/**
+ * A batch size that adapts to how the db copes with it (additive increase, multiplicative decrease): it grows by a
+ * fixed step after each full batch that completed within the target latency, and is halved after a batch that was
+ * too slow or that failed because of lock contention (deadlock / lock wait timeout). It always stays within
+ * [minSize, maxSize].
+ * <p>
+ * Also keeps a few counters (rows, batches, decreases and an average throughput) so that the current state can be
+ * exposed as metrics. This is thread safe.
+ */
+public class AdaptiveBatchSize {
+
+    // weight of the newest sample in the throughput moving average
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int step;
+    private final long targetLatencyMillis;
+
+    private int size;
+    private long totalRows = 0;
+    private long totalBatches = 0;
+    private long decreases = 0;
+    private double rowsPerSecond = 0;
+
+    public AdaptiveBatchSize(int minSize, int maxSize, int initialSize, int step, long targetLatencyMillis) {
+        if (minSize <= 0 || maxSize < minSize || initialSize < minSize || initialSize > maxSize || step <= 0) {
+            throw new IllegalArgumentException("Invalid adaptive batch size bounds");
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.size = initialSize;
+        this.step = step;
+        this.targetLatencyMillis = targetLatencyMillis;
+    }
+
+    public synchronized int get() {
+        return size;
+    }
+
+    /**
+     * Same as {@link #get()}, but never more than upperBound. The size itself is capped too, so that it keeps
+     * tracking the value that is actually being used when the caller asks for less than the max.
+     */
+    public synchronized int get(int upperBound) {
+        if (size > upperBound) {
+            size = Math.max(minSize, upperBound);
+        }
+        return Math.min(size, upperBound);
+    }
+
+    /**
+     * @param rows          the number of rows (or units of work) in the batch.
+     * @param latencyMillis how long the batch took.
+     * @param full          whether the batch used the whole batch size. Only full batches tell us that the db can
+     *                      cope with the current size, so only those can make it grow.
+     */
+    public synchronized void onSuccess(int rows, long latencyMillis, boolean full) {
+        totalRows += rows;
+        totalBatches++;
+        double sample = rows * 1000.0 / Math.max(latencyMillis, 1);
+        rowsPerSecond = totalBatches == 1 ? sample
+                : (1 - THROUGHPUT_SMOOTHING) * rowsPerSecond + THROUGHPUT_SMOOTHING * sample;
+
+        if (latencyMillis > targetLatencyMillis) {
+            decrease();
+        } else if (full) {
+            size = Math.min(maxSize, size + step);
+        }
+    }
+
+    public synchronized void onContention() {
+        decrease();
+    }
+
+    private void decrease() {
+        size = Math.max(minSize, size / 2);
+        decreases++;
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject result = new JsonObject();
+        result.addProperty("batchSize", size);
+        result.addProperty("minBatchSize", minSize);
+        result.addProperty("maxBatchSize", maxSize);
+        result.addProperty("totalRows", totalRows);
+        result.addProperty("totalBatches", totalBatches);
+        result.addProperty("decreases", decreases);
+        result.addProperty("rowsPerSecond", rowsPerSecond);
+        return result;
+    }
+
+    /**
+     * @return true if the error means that the db gave up on the statement because of other transactions holding
+     * locks, as opposed to an error in the data itself (like a duplicate key).
+     */
+    public static boolean isContentionError(Throwable e) {
+        while (e != null) {
+            if (e instanceof SQLTransactionRollbackException) {
+                return true;
+            }
+            if (e instanceof SQLException) {
+                String message = e.getMessage();
+                if (message != null && (message.toLowerCase().contains("deadlock")
+                        || message.toLowerCase().contains("lock wait timeout"))) {
+                    return true;
+                }
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import com.google.gson.JsonObject;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.pluginInterface.session.SessionInfo;
+import io.supertokens.storage.mysql.config.Config;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CompletableFuture based variants of the hot storage methods of {@link Start}. Each call runs the blocking JDBC
+ * work on a virtual thread when the JVM supports them (and on a fixed pool of platform threads otherwise). The
+ * number of calls that can hold a connection at the same time is capped at the size of the connection pool, so
+ * fanning out does not pile up threads waiting inside Hikari.
+ * <p>
+ * Futures complete exceptionally with the same exception that the blocking method in {@link Start} would have
+ * thrown (for example StorageQueryException or TenantOrAppNotFoundException). Calls made after the storage is
+ * closed, and calls that have not completed CLOSE_TIMEOUT_MILLIS after it started closing, complete exceptionally
+ * with a RejectedExecutionException.
+ */
+public class AsyncStorage extends ResourceDistributor.SingletonResource {
+
+    private static final String RESOURCE_KEY = "io.supertokens.storage.mysql.AsyncStorage";
+
+    static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    public static volatile long closeTimeoutMillis_forTesting = 0;
+
+    private final Start start;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+
+    private AsyncStorage(Start start, int maxConcurrentCalls) {
+        this.start = start;
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+        ExecutorService virtualThreadExecutor = createVirtualThreadPerTaskExecutor();
+        if (virtualThreadExecutor != null) {
+            this.executor = virtualThreadExecutor;
+        } else {
+            // without virtual threads, a blocked task holds on to a platform thread, so there is no point in
+            // having more threads than connections
+            AtomicInteger threadCount = new AtomicInteger(0);
+            this.executor = Executors.newFixedThreadPool(maxConcurrentCalls, r -> {
+                Thread t = new Thread(r, "mysql-plugin-async-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static ExecutorService createVirtualThreadPerTaskExecutor() {
+        // Executors.newVirtualThreadPerTaskExecutor is only available from Java 21 onwards, and this plugin also
+        // has to run on older JVMs, so we look it up at runtime.
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public static AsyncStorage getInstance(Start start) {
+        if (start instanceof BulkImportProxyStorage) {
+            // the proxy storage shares one connection across all its calls, so they cannot run concurrently
+            throw new UnsupportedOperationException("AsyncStorage cannot be used with BulkImportProxyStorage");
+        }
+        // created at most once, since an instance that lost a race would leave its executor running
+        return start.getResourceDistributor().getOrCreateResource(RESOURCE_KEY,
+                () -> new AsyncStorage(start, Config.getConfig(start).getConnectionPoolSize()));
+    }
+
+    /**
+     * Called before the connection pool is closed, so this waits for the calls that are queued or running to be
+     * done, for up to CLOSE_TIMEOUT_MILLIS. Whatever is left after that is interrupted and its future fails.
+     */
+    static void close(Start start) {
+        AsyncStorage instance = (AsyncStorage) start.getResourceDistributor().getResource(RESOURCE_KEY);
+        if (instance == null) {
+            return;
+        }
+        try {
+            instance.executor.shutdown();
+            long timeout = Start.isTesting && closeTimeoutMillis_forTesting > 0 ? closeTimeoutMillis_forTesting
+                    : CLOSE_TIMEOUT_MILLIS;
+            boolean terminated;
+            try {
+                terminated = instance.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                terminated = false;
+            }
+            if (!terminated) {
+                // failed before the interrupt, so that these do not fail with whatever the interrupt causes
+                RejectedExecutionException closed = new RejectedExecutionException(
+                        "The storage was closed before this call completed");
+                for (CompletableFuture<?> future : instance.pending) {
+                    future.completeExceptionally(closed);
+                }
+                instance.executor.shutdownNow();
+            }
+        } finally {
+            start.getResourceDistributor().removeResource(RESOURCE_KEY);
+        }
+    }
+
+    public CompletableFuture<SessionInfo> getSession(TenantIdentifier tenantIdentifier, String sessionHandle) {
+        return submit(() -> start.getSession(tenantIdentifier, sessionHandle));
+    }
+
+    public CompletableFuture<Void> createNewSession(TenantIdentifier tenantIdentifier, String sessionHandle,
+                                                    String userId, String refreshTokenHash2,
+                                                    JsonObject userDataInDatabase, long expiry,
+                                                    JsonObject userDataInJWT, long createdAtTime,
+                                                    boolean useStaticKey) {
+        return submit(() -> {
+            start.createNewSession(tenantIdentifier, sessionHandle, userId, refreshTokenHash2, userDataInDatabase,
+                    expiry, userDataInJWT, createdAtTime, useStaticKey);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Integer> updateSession(TenantIdentifier tenantIdentifier, String sessionHandle,
+                                                    JsonObject sessionData, JsonObject jwtPayload) {
+        return submit(() -> start.updateSession(tenantIdentifier, sessionHandle, sessionData, jwtPayload));
+    }
+
+    public CompletableFuture<JsonObject> getUserMetadata(AppIdentifier appIdentifier, String userId) {
+        return submit(() -> start.getUserMetadata(appIdentifier, userId));
+    }
+
+    public CompletableFuture<String[]> getRolesForUser(TenantIdentifier tenantIdentifier, String userId) {
+        return submit(() -> start.getRolesForUser(tenantIdentifier, userId));
+    }
+
+    /**
+     * Runs the call in the workload class of the calling thread, so for example, work submitted from a
+     * BACKGROUND scope still only uses the background share of the connection pool. Blocking on the future from
+     * inside such a scope holds one slot of the share while the task waits for another, which is why
+     * mysql_background_connection_pool_size must be at least two. Bulk import does not block on these calls, so
+     * the bulk share has no such minimum.
+     */
+    public <T> CompletableFuture<T> submit(StorageCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        pending.add(future);
+        future.whenComplete((result, e) -> pending.remove(future));
+        WorkloadClass workloadClass = WorkloadClass.current();
+        try {
+            executor.execute(() -> {
+                // the workload class' share is taken before a permit, so that a task waiting for its share does not
+                // hold a permit that a REQUEST task could use
+                try (WorkloadClass.Scope ignored = start.enterWorkloadClass(workloadClass)) {
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        future.completeExceptionally(e);
+                        return;
+                    }
+                    try {
+                        future.complete(call.call());
+                    } finally {
+                        permits.release();
+                    }
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // happens if the storage has been closed
+            future.completeExceptionally(new RejectedExecutionException("The storage has been closed", e));
+        }
+        return future;
+    }
+
+    @FunctionalInterface
+    public interface StorageCall<T> {
+        T call() throws Exception;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The adaptive batch sizes used while importing users, one set per user pool (db).
+ * <ul>
+ * <li>claimLimit caps how many users the bulk import cron claims at once. It is driven by how long the proxy storage's
+ * transactions take to commit, and shrinks when a whole batch has to be retried because of a deadlock.</li>
+ * <li>flushSize is the number of rows sent per executeBatch on the proxy storage's connection. It is driven by how
+ * long each flush takes.</li>
+ * </ul>
+ * This is static (and not a {@link ResourceDistributor.SingletonResource}) since core creates a new
+ * {@link BulkImportProxyStorage} for every batch, with its own resources, and what was learnt about the db needs to
+ * outlive them.
+ */
+public class BulkImportBatchSizing {
+
+    private static final Map<String, BulkImportBatchSizing> instances = new ConcurrentHashMap<>();
+
+    public final AdaptiveBatchSize claimLimit = new AdaptiveBatchSize(50, 10000, 10000, 50, 10000);
+
+    public final AdaptiveBatchSize flushSize = new AdaptiveBatchSize(10, 1000, 100, 10, 200);
+
+    private BulkImportBatchSizing() {
+    }
+
+    public static BulkImportBatchSizing getInstance(Start start) {
+        return instances.computeIfAbsent(start.getUserPoolId(), k -> new BulkImportBatchSizing());
+    }
+
+    public JsonObject toJson() {
+        JsonObject result = new JsonObject();
+        result.add("claimLimit", claimLimit.toJson());
+        result.add("flushSize", flushSize.toJson());
+        return result;
+    }
+}
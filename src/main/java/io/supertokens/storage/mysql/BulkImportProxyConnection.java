@@ -33,11 +33,22 @@ import java.util.concurrent.Executor;
 
 public class BulkImportProxyConnection implements Connection {
     private Connection con = null;
+    private AdaptiveBatchSize flushSize = null;
 
     public BulkImportProxyConnection(Connection con) {
         this.con = con;
     }
 
+    public BulkImportProxyConnection(Connection con, AdaptiveBatchSize flushSize) {
+        this.con = con;
+        this.flushSize = flushSize;
+    }
+
+    // the number of rows to send per executeBatch on this connection, or null to use the default
+    public AdaptiveBatchSize getFlushSize() {
+        return this.flushSize;
+    }
+
     @Override
     public void close() throws SQLException {
         // We simply ignore when close is called BulkImportProxyConnection
@@ -16,6 +16,7 @@
 
 package io.supertokens.storage.mysql;
 
+import io.supertokens.pluginInterface.bulkimport.exceptions.BulkImportTransactionRolledBackException;
 import io.supertokens.pluginInterface.exceptions.DbInitException;
 import io.supertokens.pluginInterface.exceptions.StorageQueryException;
 import io.supertokens.pluginInterface.exceptions.StorageTransactionLogicException;
@@ -25,6 +26,7 @@ import io.supertokens.pluginInterface.sqlStorage.TransactionConnection;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.List;
 
 /**
@@ -39,11 +41,15 @@ import java.util.List;
 
 public class BulkImportProxyStorage extends Start {
     private BulkImportProxyConnection connection;
+    // when the first inner transaction since the last commit / rollback started, and how many ran since then. This
+    // feeds the adaptive claim limit.
+    private long transactionStartTime = -1;
+    private int innerTransactionCount = 0;
 
     public synchronized Connection getTransactionConnection() throws SQLException, StorageQueryException {
         if (this.connection == null) {
             Connection con = ConnectionPool.getConnectionForProxyStorage(this);
-            this.connection = new BulkImportProxyConnection(con);
+            this.connection = new BulkImportProxyConnection(con, BulkImportBatchSizing.getInstance(this).flushSize);
             connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
             connection.setAutoCommit(false);
         }
@@ -53,7 +59,35 @@ public class BulkImportProxyStorage extends Start {
     @Override
     protected <T> T startTransactionHelper(TransactionLogic<T> logic, TransactionIsolationLevel isolationLevel)
             throws StorageQueryException, StorageTransactionLogicException, SQLException, TenantOrAppNotFoundException {
-        return logic.mainLogicAndCommit(new TransactionConnection(getTransactionConnection()));
+        Connection con = getTransactionConnection();
+        // Each inner transaction runs after a savepoint, so that when it fails with an error that leaves the outer
+        // transaction alive (a failed statement, a lock wait timeout), only its own changes are undone (like a regular
+        // transaction) and it can be retried without replaying the whole batch. A deadlock is not one of those: InnoDB
+        // rolls back the whole transaction of its victim, so the whole batch is still replayed then. The savepoint is
+        // released on success, so that the server does not keep one per user of the batch until the final commit /
+        // rollback.
+        Savepoint savepoint = con.setSavepoint();
+        if (transactionStartTime < 0) {
+            transactionStartTime = System.currentTimeMillis();
+        }
+        innerTransactionCount++;
+        T result;
+        try {
+            result = logic.mainLogicAndCommit(new TransactionConnection(con));
+        } catch (Exception e) {
+            try {
+                con.rollback(savepoint);
+            } catch (SQLException rollbackError) {
+                // The db has already rolled back the whole transaction and dropped its savepoints (InnoDB does this
+                // on every deadlock), so only the whole batch can be retried.
+                // @see BulkImportTransactionRolledBackException for more explanation.
+                BulkImportBatchSizing.getInstance(this).claimLimit.onContention();
+                throw new StorageTransactionLogicException(new BulkImportTransactionRolledBackException(e));
+            }
+            throw e;
+        }
+        con.releaseSavepoint(savepoint);
+        return result;
     }
 
     @Override
@@ -96,7 +130,12 @@ public class BulkImportProxyStorage extends Start {
         try {
             if (this.connection != null) {
                 this.connection.commitForBulkImportProxyStorage();
+                if (innerTransactionCount > 0) {
+                    BulkImportBatchSizing.getInstance(this).claimLimit.onSuccess(innerTransactionCount,
+                            System.currentTimeMillis() - transactionStartTime, true);
+                }
             }
+            resetTransactionStats();
         } catch (SQLException e) {
             throw new StorageQueryException(e);
         }
@@ -105,9 +144,15 @@ public class BulkImportProxyStorage extends Start {
     @Override
     public void rollbackTransactionForBulkImportProxyStorage() throws StorageQueryException {
         try {
+            resetTransactionStats();
             this.connection.rollbackForBulkImportProxyStorage();
         } catch (SQLException e) {
             throw new StorageQueryException(e);
         }
     }
+
+    private void resetTransactionStats() {
+        transactionStartTime = -1;
+        innerTransactionCount = 0;
+    }
 }
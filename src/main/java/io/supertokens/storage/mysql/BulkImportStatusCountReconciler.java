@@ -0,0 +1,117 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.storage.mysql.output.Logging;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconciles the bulk import user counts of every app that the bulk import cron has claimed users from on this
+ * storage, once every RECONCILE_INTERVAL_MILLIS, on a thread of its own. The bulk import cron claims from every app on
+ * each of its runs, so that is how the apps are found, without a query of their own.
+ */
+public class BulkImportStatusCountReconciler extends ResourceDistributor.SingletonResource {
+
+    private static final String RESOURCE_KEY = "io.supertokens.storage.mysql.BulkImportStatusCountReconciler";
+
+    static final long RECONCILE_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    public static volatile long intervalMillis_forTesting = 0;
+
+    private final Start start;
+    // app id -> app
+    private final Map<String, AppIdentifier> apps = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reconciler = null;
+
+    private BulkImportStatusCountReconciler(Start start) {
+        this.start = start;
+    }
+
+    private static BulkImportStatusCountReconciler getInstance(Start start) {
+        return start.getResourceDistributor().getOrCreateResource(RESOURCE_KEY,
+                () -> new BulkImportStatusCountReconciler(start));
+    }
+
+    /**
+     * Adds the app to the ones that are reconciled, and starts reconciling if this is the first one.
+     */
+    public static void addApp(Start start, AppIdentifier appIdentifier) {
+        if (start instanceof BulkImportProxyStorage) {
+            // a proxy storage only lives for one batch, the storage it is a proxy of does this
+            return;
+        }
+        BulkImportStatusCountReconciler instance = getInstance(start);
+        if (instance.apps.putIfAbsent(appIdentifier.getAppId(), appIdentifier) == null) {
+            instance.startIfNeeded();
+        }
+    }
+
+    static void close(Start start) {
+        BulkImportStatusCountReconciler instance = (BulkImportStatusCountReconciler) start.getResourceDistributor()
+                .getResource(RESOURCE_KEY);
+        if (instance == null) {
+            return;
+        }
+        try {
+            synchronized (instance) {
+                if (instance.reconciler != null) {
+                    instance.reconciler.shutdownNow();
+                    instance.reconciler = null;
+                }
+            }
+        } finally {
+            start.getResourceDistributor().removeResource(RESOURCE_KEY);
+        }
+    }
+
+    private synchronized void startIfNeeded() {
+        if (reconciler != null) {
+            return;
+        }
+        long interval = Start.isTesting && intervalMillis_forTesting > 0 ? intervalMillis_forTesting
+                : RECONCILE_INTERVAL_MILLIS;
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mysql-plugin-bulk-import-count-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcileAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconcileAll() {
+        for (AppIdentifier appIdentifier : new ArrayList<>(apps.values())) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            try {
+                start.reconcileBulkImportUsersCount(appIdentifier);
+            } catch (StorageQueryException e) {
+                // the next run tries again
+                Logging.error(start, "Reconciling the bulk import user counts of app " + appIdentifier.getAppId()
+                        + " failed", false, e);
+            }
+        }
+    }
+}
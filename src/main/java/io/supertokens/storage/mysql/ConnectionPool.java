@@ -27,21 +27,30 @@ import io.supertokens.storage.mysql.output.Logging;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class ConnectionPool extends ResourceDistributor.SingletonResource {
 
-    private static final String RESOURCE_KEY = "io.supertokens.storage.mysql.ConnectionPool";
-    private HikariDataSource hikariDataSource = null;
+    static final String RESOURCE_KEY = "io.supertokens.storage.mysql.ConnectionPool";
+    private volatile HikariDataSource hikariDataSource = null;
 
     private final Start start;
     private PostConnectCallback postConnectCallback;
+    // the shares of the pool that background and bulk import work are limited to. Requests are not limited.
+    private final Semaphore backgroundPermits;
+    private final Semaphore bulkPermits;
 
     private ConnectionPool(Start start, PostConnectCallback postConnectCallback) {
         this.start = start;
         this.postConnectCallback = postConnectCallback;
+        MySQLConfig userConfig = Config.getConfig(start);
+        this.backgroundPermits = new Semaphore(userConfig.getBackgroundConnectionPoolSize(), true);
+        this.bulkPermits = new Semaphore(userConfig.getBulkConnectionPoolSize(), true);
     }
 
     private synchronized void initialiseHikariDataSource() throws SQLException, StorageQueryException {
@@ -83,7 +92,7 @@ public class ConnectionPool extends ResourceDistributor.SingletonResource {
             config.setPassword(userConfig.getPassword());
         }
         config.setMaximumPoolSize(userConfig.getConnectionPoolSize());
-        config.setConnectionTimeout(5000);
+        config.setConnectionTimeout(userConfig.getConnectionTimeout());
         if (userConfig.getMinimumIdleConnections() != null) {
             config.setMinimumIdle(userConfig.getMinimumIdleConnections());
             config.setIdleTimeout(userConfig.getIdleConnectionTimeout());
@@ -138,7 +147,7 @@ public class ConnectionPool extends ResourceDistributor.SingletonResource {
     }
 
     private static ConnectionPool getInstance(Start start) {
-        return (ConnectionPool) start.getResourceDistributor().getResource(RESOURCE_KEY);
+        return start.connectionPoolHandle.get();
     }
 
     private static void removeInstance(Start start) {
@@ -146,7 +155,8 @@ public class ConnectionPool extends ResourceDistributor.SingletonResource {
     }
 
     static boolean isAlreadyInitialised(Start start) {
-        return getInstance(start) != null && getInstance(start).hikariDataSource != null;
+        ConnectionPool instance = getInstance(start);
+        return instance != null && instance.hikariDataSource != null;
     }
 
     static void initPool(Start start, boolean shouldWait, PostConnectCallback postConnectCallback)
@@ -204,16 +214,20 @@ public class ConnectionPool extends ResourceDistributor.SingletonResource {
     }
 
     private static Connection getNewConnection(Start start) throws SQLException, StorageQueryException {
-        if (getInstance(start) == null) {
+        ParallelStorageInitializer.awaitInit(start);
+        ConnectionPool instance = getInstance(start);
+        if (instance == null) {
             throw new IllegalStateException("Please call initPool before getConnection");
         }
         if (!start.enabled) {
             throw new SQLException("Storage layer disabled");
         }
-        if (getInstance(start).hikariDataSource == null) {
-            getInstance(start).initialiseHikariDataSource();
+        HikariDataSource dataSource = instance.hikariDataSource;
+        if (dataSource == null) {
+            instance.initialiseHikariDataSource();
+            dataSource = instance.hikariDataSource;
         }
-        return getInstance(start).hikariDataSource.getConnection();
+        return dataSource.getConnection();
     }
 
     public static Connection getConnectionForProxyStorage(Start start) throws SQLException, StorageQueryException {
@@ -227,16 +241,44 @@ public class ConnectionPool extends ResourceDistributor.SingletonResource {
         return getNewConnection(start);
     }
 
+    static WorkloadClass.Scope enterWorkloadClass(Start start, WorkloadClass workloadClass)
+            throws StorageQueryException {
+        WorkloadClass current = WorkloadClass.current();
+        ConnectionPool instance = getInstance(start);
+        // a nested scope keeps using the slot of the outer one. The proxy storage has a single connection of its own
+        // so it does not take from these shares either.
+        if (current != WorkloadClass.REQUEST || workloadClass == WorkloadClass.REQUEST || instance == null
+                || start instanceof BulkImportProxyStorage) {
+            return WorkloadClass.enter(current == WorkloadClass.REQUEST ? workloadClass : current, null);
+        }
+        MySQLConfig userConfig = Config.getConfig(start);
+        Semaphore permits = workloadClass == WorkloadClass.BULK ? instance.bulkPermits : instance.backgroundPermits;
+        long timeout = workloadClass == WorkloadClass.BULK ? userConfig.getBulkConnectionTimeout()
+                : userConfig.getBackgroundConnectionTimeout();
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new StorageQueryException(new SQLTransientConnectionException(
+                        "Timed out after " + timeout + " ms waiting for a " + workloadClass.name().toLowerCase()
+                                + " connection"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageQueryException(e);
+        }
+        return WorkloadClass.enter(workloadClass, permits);
+    }
+
     static void close(Start start) {
-        if (getInstance(start) == null) {
+        ConnectionPool instance = getInstance(start);
+        if (instance == null) {
             return;
         }
-        if (getInstance(start).hikariDataSource != null) {
+        if (instance.hikariDataSource != null) {
             try {
-                getInstance(start).hikariDataSource.close();
+                instance.hikariDataSource.close();
             } finally {
                 // we mark it as null so that next time it's being initialised, it will be initialised again
-                getInstance(start).hikariDataSource = null;
+                instance.hikariDataSource = null;
                 removeInstance(start);
             }
         }
@@ -0,0 +1,192 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import com.google.gson.JsonObject;
+import io.supertokens.pluginInterface.exceptions.DbInitException;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.output.Logging;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * When mysql_init_in_background is set, the core's call to initStorage for a storage other than the base one only
+ * queues the set up of its connection pool, tables and tenants here, and returns. The core makes these calls one
+ * after the other, so with many user pools, it would otherwise wait for each database in turn. Up to
+ * MAX_PARALLEL_INITS storages are set up at the same time, across all the cores in this JVM.
+ * <p>
+ * Getting a connection from a storage that is still being set up waits for it, for up to
+ * mysql_init_in_background_timeout milliseconds. If the set up fails, the error is logged and the next connection
+ * sets up the pool again, the same as when a non base storage fails in initStorage.
+ */
+public final class ParallelStorageInitializer {
+
+    static final int MAX_PARALLEL_INITS = 8;
+
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_INITS,
+            MAX_PARALLEL_INITS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread t = new Thread(r, "mysql-plugin-storage-init-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Map<Start, PendingInit> inits = new ConcurrentHashMap<>();
+
+    public static volatile long simulatedInitTimeMillis_forTesting = 0;
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCESS, FAILED
+    }
+
+    @FunctionalInterface
+    interface InitLogic {
+        void init() throws DbInitException;
+    }
+
+    private static class PendingInit {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final long queuedAt = System.currentTimeMillis();
+        private volatile long startedAt = 0;
+        private volatile long finishedAt = 0;
+        private volatile Status status = Status.QUEUED;
+        private volatile Thread thread = null;
+        private volatile Throwable error = null;
+        // guarded by this
+        private boolean closed = false;
+    }
+
+    private ParallelStorageInitializer() {
+    }
+
+    static boolean isInProgress(Start start) {
+        PendingInit init = inits.get(start);
+        return init != null && !init.done.isDone();
+    }
+
+    static void initInBackground(Start start, InitLogic logic) {
+        PendingInit init = new PendingInit();
+        PendingInit current = inits.compute(start,
+                (k, previous) -> previous != null && !previous.done.isDone() ? previous : init);
+        if (current != init) {
+            // initStorage was called again while the first one is still queued or running
+            return;
+        }
+        executor.execute(() -> run(start, init, logic));
+    }
+
+    private static void run(Start start, PendingInit init, InitLogic logic) {
+        synchronized (init) {
+            if (init.closed) {
+                init.done.complete(null);
+                return;
+            }
+            init.thread = Thread.currentThread();
+            init.startedAt = System.currentTimeMillis();
+            init.status = Status.RUNNING;
+        }
+        try {
+            if (Start.isTesting && simulatedInitTimeMillis_forTesting > 0) {
+                Thread.sleep(simulatedInitTimeMillis_forTesting);
+            }
+            logic.init();
+            init.status = Status.SUCCESS;
+        } catch (Throwable e) {
+            init.error = e;
+            init.status = Status.FAILED;
+        } finally {
+            init.finishedAt = System.currentTimeMillis();
+            init.thread = null;
+            synchronized (init) {
+                if (init.closed) {
+                    // the storage was closed while this was running, so nothing else closes what it opened
+                    ConnectionPool.close(start);
+                }
+            }
+            init.done.complete(null);
+        }
+        String timing = (init.finishedAt - init.startedAt) + " ms, after " + (init.startedAt - init.queuedAt)
+                + " ms in the queue";
+        if (init.status == Status.SUCCESS) {
+            Logging.info(start, "Set up the MySQL connection pool in the background in " + timing, false);
+        } else {
+            Logging.error(start, "Failed to set up the MySQL connection pool in the background in " + timing + ": "
+                    + init.error.getMessage(), false);
+        }
+    }
+
+    /**
+     * Waits for the set up of this storage if it is still queued or running on another thread.
+     */
+    static void awaitInit(Start start) throws SQLException {
+        PendingInit init = inits.get(start);
+        if (init == null || init.done.isDone() || init.thread == Thread.currentThread()) {
+            return;
+        }
+        long timeout = Config.getConfig(start).getInitInBackgroundTimeout();
+        try {
+            init.done.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new SQLTransientConnectionException(
+                    "Timed out after " + timeout + " ms waiting for the connection pool to be set up");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(e);
+        } catch (ExecutionException ignored) {
+            // done is only ever completed normally
+        }
+    }
+
+    static void close(Start start) {
+        PendingInit init = inits.remove(start);
+        if (init != null) {
+            synchronized (init) {
+                init.closed = true;
+            }
+        }
+    }
+
+    static JsonObject getMetrics(Start start) {
+        PendingInit init = inits.get(start);
+        JsonObject metrics = new JsonObject();
+        if (init == null) {
+            return metrics;
+        }
+        metrics.addProperty("status", init.status.name());
+        metrics.addProperty("queuedAt", init.queuedAt);
+        metrics.addProperty("startedAt", init.startedAt);
+        metrics.addProperty("finishedAt", init.finishedAt);
+        if (init.error != null) {
+            metrics.addProperty("error", String.valueOf(init.error.getMessage()));
+        }
+        return metrics;
+    }
+}
@@ -22,7 +22,7 @@ import java.util.List;
 
 public class ProcessState extends ResourceDistributor.SingletonResource {
 
-    private static final String RESOURCE_KEY = "io.supertokens.storage.mysql.ProcessState";
+    static final String RESOURCE_KEY = "io.supertokens.storage.mysql.ProcessState";
     private final List<EventAndException> history = new ArrayList<>();
 
     private ProcessState() {
@@ -30,11 +30,11 @@ public class ProcessState extends ResourceDistributor.SingletonResource {
     }
 
     public static ProcessState getInstance(Start main) {
-        ResourceDistributor.SingletonResource instance = main.getResourceDistributor().getResource(RESOURCE_KEY);
+        ProcessState instance = main.processStateHandle.get();
         if (instance == null) {
-            instance = main.getResourceDistributor().setResource(RESOURCE_KEY, new ProcessState());
+            instance = (ProcessState) main.getResourceDistributor().setResource(RESOURCE_KEY, new ProcessState());
         }
-        return (ProcessState) instance;
+        return instance;
     }
 
     public synchronized EventAndException getLastEventByName(PROCESS_STATE processState) {
@@ -61,7 +61,7 @@ public class ProcessState extends ResourceDistributor.SingletonResource {
      * DEADLOCK_FOUND: In case of a deadlock situation, we put this event
      */
     public enum PROCESS_STATE {
-        CREATING_NEW_TABLE, DEADLOCK_FOUND, DEADLOCK_NOT_RESOLVED
+        CREATING_NEW_TABLE, CHANGING_INDEXES, DEADLOCK_FOUND, DEADLOCK_NOT_RESOLVED
     }
 
     public static class EventAndException {
@@ -17,11 +17,14 @@
 package io.supertokens.storage.mysql;
 
 import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import org.mariadb.jdbc.MariaDbStatement;
 
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.List;
 
 public interface QueryExecutorTemplate {
@@ -50,18 +53,86 @@ public interface QueryExecutorTemplate {
         if(setters == null || setters.isEmpty()) {
             return;
         }
+        // during bulk import, the number of rows per flush adapts to how long each flush takes
+        AdaptiveBatchSize flushSize = connection instanceof BulkImportProxyConnection
+                ? ((BulkImportProxyConnection) connection).getFlushSize() : null;
         try (PreparedStatement pst = connection.prepareStatement(QUERY)) {
+            int limit = flushSize == null ? 100 : flushSize.get();
             int counter = 0;
             for(PreparedStatementValueSetter setter: setters) {
                 setter.setValues(pst);
                 pst.addBatch();
                 counter++;
 
-                if(counter % 100 == 0) {
-                    pst.executeBatch();
+                if(counter == limit) {
+                    flushBatch(pst, counter, true, flushSize);
+                    counter = 0;
+                    limit = flushSize == null ? 100 : flushSize.get();
                 }
             }
-            pst.executeBatch(); //for the possible remaining ones
+            if (counter > 0) {
+                flushBatch(pst, counter, false, flushSize); //for the possible remaining ones
+            }
+        }
+    }
+
+    static void flushBatch(PreparedStatement pst, int rows, boolean full, AdaptiveBatchSize flushSize)
+            throws SQLException {
+        if (flushSize == null) {
+            pst.executeBatch();
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            pst.executeBatch();
+        } catch (SQLException e) {
+            if (AdaptiveBatchSize.isContentionError(e)) {
+                flushSize.onContention();
+            }
+            throw e;
+        }
+        flushSize.onSuccess(rows, System.currentTimeMillis() - startTime, full);
+    }
+
+    // runs a list of static statements (for example DDL) as one batch. The mariadb driver pipelines batches, so this
+    // costs one round trip instead of one per statement. Statements run in order.
+    static void executeStatementsInBatch(Connection connection, List<String> queries) throws SQLException {
+        if (queries == null || queries.isEmpty()) {
+            return;
+        }
+        try (Statement stmt = connection.createStatement()) {
+            for (String query : queries) {
+                stmt.addBatch(query);
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    // opens a forward only result set that the driver streams from the server, fetchSize rows at a time, instead of
+    // reading it into memory in full. Closing the result set also closes its statement. The connection cannot be used
+    // for other queries until then.
+    static ResultSet executeStreaming(Connection con, String QUERY, PreparedStatementValueSetter setter, int fetchSize)
+            throws SQLException, StorageQueryException {
+        if (setter == null)
+            setter = PreparedStatementValueSetter.NO_OP_SETTER;
+        PreparedStatement pst = con.prepareStatement(QUERY, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            setter.setValues(pst);
+            pst.setFetchSize(fetchSize);
+            pst.closeOnCompletion();
+            return pst.executeQuery();
+        } catch (SQLException | StorageQueryException | RuntimeException e) {
+            pst.close();
+            throw e;
+        }
+    }
+
+    // runs a LOAD DATA LOCAL INFILE query with the file contents read from the given stream, so nothing has to be
+    // written to disk. Returns the number of rows that were inserted.
+    static int loadDataLocalInfile(Connection con, String QUERY, InputStream data) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            stmt.unwrap(MariaDbStatement.class).setLocalInfileInputStream(data);
+            return stmt.executeUpdate(QUERY);
         }
     }
 
@@ -17,36 +17,101 @@
 
 package io.supertokens.storage.mysql;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 // the purpose of this class is to tie singleton classes to s specific main instance. So that 
 // when the main instance dies, those singleton classes die too.
 
 public class ResourceDistributor {
 
-    private final Object lock = new Object();
-    private Map<String, SingletonResource> resources = new HashMap<String, SingletonResource>();
+    // one handle per key. Handles are never removed from this map - removing a resource only clears the handle -
+    // so a handle that has been resolved once stays valid for the lifetime of this distributor.
+    private final ConcurrentHashMap<String, Handle<SingletonResource>> handles = new ConcurrentHashMap<>();
 
     public SingletonResource getResource(String key) {
-        return resources.get(key);
+        Handle<SingletonResource> handle = handles.get(key);
+        return handle == null ? null : handle.get();
     }
 
+    // returns the resource that is stored against this key after the call, which is the existing one if the
+    // key was already set.
     public SingletonResource setResource(String key, SingletonResource resource) {
-        synchronized (lock) {
-            resources.putIfAbsent(key, resource);
-            return resource;
-        }
+        return getHandle(key).setIfAbsent(resource);
+    }
+
+    /**
+     * Returns the resource stored against this key, creating it if there is none. Unlike
+     * {@link #setResource(String, SingletonResource)}, at most one resource is ever created, which matters for
+     * resources that start threads or hold other things that would have to be closed if they were thrown away.
+     */
+    public <T extends SingletonResource> T getOrCreateResource(String key, Supplier<T> supplier) {
+        return this.<T>getHandle(key).getOrCreate(supplier);
     }
 
     public void removeResource(String resourceKey) {
-        synchronized (lock) {
-            resources.remove(resourceKey);
+        Handle<SingletonResource> handle = handles.get(resourceKey);
+        if (handle != null) {
+            handle.clear();
         }
     }
 
+    /**
+     * Returns a typed handle for the given key. Reading a resource via its handle is a single volatile read, so
+     * classes that need a resource on every query should resolve the handle once and keep it in a field instead of
+     * calling {@link #getResource(String)} each time.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends SingletonResource> Handle<T> getHandle(String key) {
+        return (Handle<T>) handles.computeIfAbsent(key, k -> new Handle<>());
+    }
+
     public static class SingletonResource {
 
     }
 
+    public static final class Handle<T extends SingletonResource> {
+        private final AtomicReference<T> resource = new AtomicReference<>(null);
+
+        private Handle() {
+        }
+
+        public T get() {
+            return resource.get();
+        }
+
+        T setIfAbsent(T newResource) {
+            while (true) {
+                if (resource.compareAndSet(null, newResource)) {
+                    return newResource;
+                }
+                T existing = resource.get();
+                if (existing != null) {
+                    return existing;
+                }
+                // the existing resource was removed in between, so we try again
+            }
+        }
+
+        T getOrCreate(Supplier<T> supplier) {
+            T existing = resource.get();
+            if (existing != null) {
+                return existing;
+            }
+            synchronized (this) {
+                existing = resource.get();
+                if (existing == null) {
+                    existing = supplier.get();
+                    resource.set(existing);
+                }
+                return existing;
+            }
+        }
+
+        void clear() {
+            resource.set(null);
+        }
+    }
+
 }
@@ -0,0 +1,294 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.pluginInterface.session.SessionInfo;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.queries.utils.JsonUtils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When mysql_session_cache_ttl is set, an LRU cache of the results of {@link Start#getSession}, each kept for at most
+ * that long. Parallel misses for the same session share one db read, so a hot session costs at most one read per ttl.
+ * <p>
+ * This core's writes to a session (or to all sessions of a user) remove it from the cache. Writes made in a transaction
+ * also keep it from being cached again until the transaction ends, since until then the db still returns the old row.
+ * A read that raced with a write is not cached either: every write bumps a version (per stripe of sessions, or for
+ * all sessions in case of a per user write) that a read checks before caching its result. Writes from other cores
+ * are only seen once the ttl runs out.
+ */
+public class SessionInfoCache extends ResourceDistributor.SingletonResource {
+
+    private static final String RESOURCE_KEY = "io.supertokens.storage.mysql.SessionInfoCache";
+
+    private static final int STRIPES = 1024;
+
+    private final Start start;
+    private final Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<SessionInfo>> loads = new ConcurrentHashMap<>();
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    private final AtomicIntegerArray writers = new AtomicIntegerArray(STRIPES);
+    private final AtomicLong userVersion = new AtomicLong(0);
+    private final AtomicInteger userWriters = new AtomicInteger(0);
+    // what the transaction running on this thread has invalidated, to be released when it ends
+    private final ThreadLocal<List<String>> transactionKeys = ThreadLocal.withInitial(ArrayList::new);
+    private final ThreadLocal<int[]> transactionUserWrites = ThreadLocal.withInitial(() -> new int[1]);
+
+    private SessionInfoCache(Start start) {
+        this.start = start;
+        int maxEntries = Config.getConfig(start).getSessionCacheSize();
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static SessionInfoCache getInstance(Start start) {
+        ResourceDistributor.SingletonResource instance = start.getResourceDistributor().getResource(RESOURCE_KEY);
+        if (instance == null) {
+            instance = start.getResourceDistributor().setResource(RESOURCE_KEY, new SessionInfoCache(start));
+        }
+        return (SessionInfoCache) instance;
+    }
+
+    // called by Start once a transaction has been committed or rolled back
+    static void onTransactionEnd(Start start) {
+        SessionInfoCache instance = (SessionInfoCache) start.getResourceDistributor().getResource(RESOURCE_KEY);
+        if (instance != null) {
+            instance.endTransaction();
+        }
+    }
+
+    private boolean isEnabled() {
+        // the bulk import proxy storage never reads sessions, and its transactions do not end via Start
+        return !(start instanceof BulkImportProxyStorage) && Config.getConfig(start).getSessionCacheTtl() > 0;
+    }
+
+    private static String getKey(TenantIdentifier tenantIdentifier, String sessionHandle) {
+        return tenantIdentifier.getAppId() + "\n" + tenantIdentifier.getTenantId() + "\n" + sessionHandle;
+    }
+
+    private static int getStripe(String key) {
+        return Math.floorMod(key.hashCode(), STRIPES);
+    }
+
+    public SessionInfo get(TenantIdentifier tenantIdentifier, String sessionHandle, Loader loader)
+            throws SQLException, StorageQueryException {
+        if (!isEnabled()) {
+            return loader.load();
+        }
+        String key = getKey(tenantIdentifier, sessionHandle);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.cachedAt + Config.getConfig(start).getSessionCacheTtl() > now) {
+                return copy(entry.sessionInfo);
+            }
+        }
+
+        CompletableFuture<SessionInfo> load = new CompletableFuture<>();
+        CompletableFuture<SessionInfo> otherLoad = loads.putIfAbsent(key, load);
+        if (otherLoad != null) {
+            return copy(waitFor(otherLoad));
+        }
+
+        int stripe = getStripe(key);
+        long version = versions.get(stripe);
+        long currentUserVersion = userVersion.get();
+        boolean cacheable = writers.get(stripe) == 0 && userWriters.get() == 0;
+        try {
+            SessionInfo sessionInfo = loader.load();
+            // the callers may modify what they get, so what is shared is a copy of its own
+            SessionInfo shared = copy(sessionInfo);
+            if (cacheable && shared != null) {
+                synchronized (this) {
+                    if (versions.get(stripe) == version && userVersion.get() == currentUserVersion) {
+                        entries.put(key, new Entry(tenantIdentifier.getAppId(), shared, now));
+                    }
+                }
+            }
+            load.complete(shared);
+            return sessionInfo;
+        } catch (SQLException | StorageQueryException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    /**
+     * To be called after a write to the session that was not part of a transaction.
+     */
+    public void invalidate(TenantIdentifier tenantIdentifier, String sessionHandle) {
+        if (!isEnabled()) {
+            return;
+        }
+        invalidate(getKey(tenantIdentifier, sessionHandle));
+    }
+
+    /**
+     * To be called on a write to the session that is part of a transaction. The session is not cached until the
+     * transaction ends.
+     */
+    public void invalidate_Transaction(TenantIdentifier tenantIdentifier, String sessionHandle) {
+        if (!isEnabled()) {
+            return;
+        }
+        String key = getKey(tenantIdentifier, sessionHandle);
+        writers.incrementAndGet(getStripe(key));
+        transactionKeys.get().add(key);
+        invalidate(key);
+    }
+
+    /**
+     * To be called after a write to the sessions of a user (or to what their user id resolves to) that was not part
+     * of a transaction.
+     */
+    public void invalidateUser(AppIdentifier appIdentifier, String userId) {
+        invalidateUsers(appIdentifier, Collections.singletonList(userId));
+    }
+
+    /**
+     * Same as {@link #invalidateUser(AppIdentifier, String)} for many users at once, in one pass over the cache.
+     */
+    public void invalidateUsers(AppIdentifier appIdentifier, Collection<String> userIds) {
+        if (!isEnabled()) {
+            return;
+        }
+        Set<String> userIdSet = new HashSet<>(userIds);
+        userVersion.incrementAndGet();
+        synchronized (this) {
+            entries.values().removeIf(entry -> entry.appId.equals(appIdentifier.getAppId())
+                    && (userIdSet.contains(entry.sessionInfo.recipeUserId)
+                    || userIdSet.contains(entry.sessionInfo.userId)));
+        }
+        // so that new readers do not wait for a read that may have started before the write
+        loads.clear();
+    }
+
+    /**
+     * To be called on a write to the sessions of a user (or to what their user id resolves to) that is part of a
+     * transaction. No session is cached until the transaction ends.
+     */
+    public void invalidateUser_Transaction(AppIdentifier appIdentifier, String userId) {
+        if (!isEnabled()) {
+            return;
+        }
+        userWriters.incrementAndGet();
+        transactionUserWrites.get()[0]++;
+        invalidateUser(appIdentifier, userId);
+    }
+
+    private void invalidate(String key) {
+        versions.incrementAndGet(getStripe(key));
+        synchronized (this) {
+            entries.remove(key);
+        }
+        loads.remove(key);
+    }
+
+    private void endTransaction() {
+        List<String> keys = transactionKeys.get();
+        int[] userWrites = transactionUserWrites.get();
+        if (keys.isEmpty() && userWrites[0] == 0) {
+            return;
+        }
+        for (String key : keys) {
+            writers.decrementAndGet(getStripe(key));
+            // a read between the write and the commit could not have cached anything, but this keeps readers that
+            // are waiting on such a read from getting its result
+            invalidate(key);
+        }
+        keys.clear();
+        if (userWrites[0] > 0) {
+            userWriters.addAndGet(-userWrites[0]);
+            userWrites[0] = 0;
+            userVersion.incrementAndGet();
+            loads.clear();
+        }
+    }
+
+    private static SessionInfo waitFor(CompletableFuture<SessionInfo> load) throws SQLException,
+            StorageQueryException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageQueryException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof StorageQueryException) {
+                throw (StorageQueryException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new StorageQueryException(cause);
+        }
+    }
+
+    private static SessionInfo copy(SessionInfo sessionInfo) {
+        if (sessionInfo == null) {
+            return null;
+        }
+        return new SessionInfo(sessionInfo.sessionHandle, sessionInfo.userId, sessionInfo.recipeUserId,
+                sessionInfo.refreshTokenHash2, JsonUtils.deepCopy(sessionInfo.userDataInDatabase), sessionInfo.expiry,
+                JsonUtils.deepCopy(sessionInfo.userDataInJWT), sessionInfo.timeCreated, sessionInfo.useStaticKey);
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        SessionInfo load() throws SQLException, StorageQueryException;
+    }
+
+    private static final class Entry {
+        private final String appId;
+        private final SessionInfo sessionInfo;
+        private final long cachedAt;
+
+        private Entry(String appId, SessionInfo sessionInfo, long cachedAt) {
+            this.appId = appId;
+            this.sessionInfo = sessionInfo;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -132,11 +132,21 @@ public class Start
     // SaaS. If the core is not running in SuperTokens SaaS, this array has no effect.
     private static final String[] PROTECTED_DB_CONFIG = new String[]{"mysql_connection_pool_size",
             "mysql_connection_uri", "mysql_host", "mysql_port", "mysql_user", "mysql_password",
-            "mysql_database_name", "mysql_idle_connection_timeout", "mysql_minimum_idle_connections"};
+            "mysql_database_name", "mysql_idle_connection_timeout", "mysql_minimum_idle_connections",
+            "mysql_connection_timeout", "mysql_background_connection_pool_size", "mysql_background_connection_timeout",
+            "mysql_bulk_connection_pool_size", "mysql_bulk_connection_timeout", "mysql_verified_email_filter_enabled"};
 
     private static final Object appenderLock = new Object();
     public static boolean silent = false;
-    private ResourceDistributor resourceDistributor = new ResourceDistributor();
+    private final ResourceDistributor resourceDistributor = new ResourceDistributor();
+    // handles to the singletons that are needed on every query. They are resolved once here so that the hot path
+    // is a volatile read instead of a map lookup.
+    final ResourceDistributor.Handle<ConnectionPool> connectionPoolHandle = resourceDistributor.getHandle(
+            ConnectionPool.RESOURCE_KEY);
+    final ResourceDistributor.Handle<ProcessState> processStateHandle = resourceDistributor.getHandle(
+            ProcessState.RESOURCE_KEY);
+    private final ResourceDistributor.Handle<Config> configHandle = resourceDistributor.getHandle(
+            Config.RESOURCE_KEY);
     private String processId;
     private HikariLoggingAppender appender = new HikariLoggingAppender(this);
     private static final String APP_ID_KEY_NAME = "app_id";
@@ -154,6 +164,10 @@ public class Start
         return resourceDistributor;
     }
 
+    public ResourceDistributor.Handle<Config> getConfigHandle() {
+        return configHandle;
+    }
+
     public String getProcessId() {
         return this.processId;
     }
@@ -259,14 +273,21 @@ public class Start
 
     @Override
     public void initStorage(boolean shouldWait, List<TenantIdentifier> tenantIdentifiers) throws DbInitException {
-        if (ConnectionPool.isAlreadyInitialised(this)) {
+        if (ConnectionPool.isAlreadyInitialised(this) || ParallelStorageInitializer.isInProgress(this)) {
             return;
         }
         this.isBaseTenant = shouldWait;
         if (isBaseTenant) {
             // We are doing this so that the tests don't hang on to the first main thread
             mainThread = Thread.currentThread();
+        } else if (Config.getConfig(this).isInitInBackground()) {
+            ParallelStorageInitializer.initInBackground(this, () -> initPool(false, tenantIdentifiers));
+            return;
         }
+        initPool(shouldWait, tenantIdentifiers);
+    }
+
+    private void initPool(boolean shouldWait, List<TenantIdentifier> tenantIdentifiers) throws DbInitException {
         try {
             ConnectionPool.initPool(this, shouldWait, (con) -> {
                 try {
@@ -297,27 +318,42 @@ public class Start
     public <T> T startTransaction(TransactionLogic<T> logic, TransactionIsolationLevel isolationLevel)
             throws StorageTransactionLogicException, StorageQueryException {
         final int NUM_TRIES = 50;
+        // a lock wait timeout has already waited for innodb_lock_wait_timeout (50 seconds by default)
+        final int NUM_LOCK_WAIT_TIMEOUT_TRIES_FOR_BULK_IMPORT = 3;
         int tries = 0;
+        int lockWaitTimeoutTries = 0;
         while (true) {
             tries++;
             try {
                 return startTransactionHelper(logic, isolationLevel);
             } catch (SQLException | StorageQueryException | StorageTransactionLogicException |
                      TenantOrAppNotFoundException e) {
+                if (e instanceof StorageTransactionLogicException &&
+                        ((StorageTransactionLogicException) e).actualException instanceof
+                                BulkImportTransactionRolledBackException) {
+                    // the whole bulk import batch has to be retried, see BulkImportProxyStorage.startTransactionHelper
+                    throw (StorageTransactionLogicException) e;
+                }
                 // check according to:
                 // https://github.com/supertokens/supertokens-mysql-plugin/pull/2
-                if ((e instanceof SQLTransactionRollbackException
-                        || (e.getMessage() != null && e.getMessage().toLowerCase().contains("deadlock")))
-                        && tries < NUM_TRIES) {
+                // For BulkImportProxyStorage, reaching here means that the inner transaction was rolled back to its
+                // savepoint and the outer transaction is still alive, so it is retried just like a regular one. A
+                // deadlock never gets here for it, since InnoDB rolls back the whole transaction (see above). A lock
+                // wait timeout only fails the statement, so in that case the inner transaction can be retried as well,
+                // but only a couple of times, since each one has already held the batch's locks for the whole wait.
+                boolean isBulkImportLockWaitTimeout = this instanceof BulkImportProxyStorage
+                        && e.getMessage() != null && e.getMessage().toLowerCase().contains("lock wait timeout");
+                boolean shouldRetry;
+                if (isBulkImportLockWaitTimeout) {
+                    lockWaitTimeoutTries++;
+                    shouldRetry = lockWaitTimeoutTries < NUM_LOCK_WAIT_TIMEOUT_TRIES_FOR_BULK_IMPORT;
+                } else {
+                    shouldRetry = e instanceof SQLTransactionRollbackException
+                            || (e.getMessage() != null && e.getMessage().toLowerCase().contains("deadlock"));
+                }
+                if (shouldRetry && tries < NUM_TRIES) {
 
                     try {
-                        if(this instanceof BulkImportProxyStorage){
-                            throw new StorageTransactionLogicException(new BulkImportTransactionRolledBackException(e));
-                            // if the current instance is of BulkImportProxyStorage, that means we are doing a bulk import
-                            // which uses nested transactions. With MySQL this retry logic doesn't going to work, we have
-                            // to retry the whole "big" transaction, not just the innermost, current one.
-                            // @see BulkImportTransactionRolledBackException for more explanation.
-                        }
                         Thread.sleep((long) (10 + (250 + Math.min(Math.pow(2, tries), 3000)) * Math.random()));
                     } catch (InterruptedException ignored) {
                     }
@@ -376,6 +412,7 @@ public class Start
             }
             throw e;
         } finally {
+            SessionInfoCache.onTransactionEnd(this);
             if (con != null) {
                 con.setAutoCommit(true);
                 if (defaultTransactionIsolation != null) {
@@ -521,9 +558,64 @@ public class Start
 
     @Override
     public void close() {
+        AsyncStorage.close(this);
+        BulkImportStatusCountReconciler.close(this);
+        WebAuthNCredentialCache.close(this);
+        VerifiedEmailFilter.close(this);
+        ParallelStorageInitializer.close(this);
         ConnectionPool.close(this);
     }
 
+    /**
+     * Status and timings of this storage's set up, when it was done in the background (see mysql_init_in_background).
+     */
+    public JsonObject getInitInBackgroundMetrics() {
+        return ParallelStorageInitializer.getMetrics(this);
+    }
+
+    public AsyncStorage getAsyncStorage() {
+        return AsyncStorage.getInstance(this);
+    }
+
+    /**
+     * Opens a cursor over all the users of the app. The cursor holds on to one connection until it is closed.
+     */
+    public UserCursor openUserCursor(AppIdentifier appIdentifier, int batchSize) throws StorageQueryException {
+        return UserCursor.open(this, appIdentifier, null, batchSize);
+    }
+
+    /**
+     * Opens a cursor over all the users of the tenant. The cursor holds on to one connection until it is closed.
+     */
+    public UserCursor openUserCursor(TenantIdentifier tenantIdentifier, int batchSize) throws StorageQueryException {
+        return UserCursor.open(this, tenantIdentifier.toAppIdentifier(), tenantIdentifier, batchSize);
+    }
+
+    /**
+     * Fills the identity_index table for all the existing users of the app. Writes to the app only start keeping the
+     * index in sync, and account linking lookups only start using it, once this was run for the app. It waits 20
+     * seconds before the scan, so that all cores keep the index in sync by then. Safe to re-run.
+     */
+    public void backfillIdentityIndex(AppIdentifier appIdentifier) throws StorageQueryException {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
+            IdentityIndexQueries.backfill(this, appIdentifier, 1000);
+        } catch (SQLException | StorageTransactionLogicException e) {
+            throw new StorageQueryException(e);
+        }
+    }
+
+    /**
+     * Rebuilds the identity_index rows that no longer match the recipe tables, and returns for how many users. This
+     * has to be run after a rolling upgrade, once no older core (which does not update the index) is running.
+     */
+    public int reconcileIdentityIndex(AppIdentifier appIdentifier) throws StorageQueryException {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
+            return IdentityIndexQueries.reconcile(this, appIdentifier, 1000);
+        } catch (SQLException | StorageTransactionLogicException e) {
+            throw new StorageQueryException(e);
+        }
+    }
+
     @Override
     public void createNewSession(TenantIdentifier tenantIdentifier, String sessionHandle, String userId,
                                  String refreshTokenHash2,
@@ -566,6 +658,41 @@ public class Start
         }
     }
 
+    /**
+     * Creates many sessions of a tenant with a few multi row inserts on one connection, instead of one insert (and
+     * connection checkout) per session. The user id of each session is its recipeUserId. Not atomic: if it fails,
+     * some of the sessions may have been created.
+     */
+    public void createNewSessions(TenantIdentifier tenantIdentifier, List<SessionInfo> sessions)
+            throws StorageQueryException, TenantOrAppNotFoundException {
+        try {
+            SessionQueries.createNewSessions(this, tenantIdentifier, sessions);
+        } catch (SQLException e) {
+            if (e instanceof SQLIntegrityConstraintViolationException) {
+                MySQLConfig config = Config.getConfig(this);
+                String serverMessage = e.getMessage();
+
+                if (isForeignKeyConstraintError(serverMessage, config.getSessionInfoTable(), "tenant_id")) {
+                    throw new TenantOrAppNotFoundException(tenantIdentifier);
+                }
+            }
+            throw new StorageQueryException(e);
+        }
+    }
+
+    /**
+     * Deletes the sessions of many users, across all tenants of the app, with one delete per 1000 users on one
+     * connection. Returns the number of sessions deleted.
+     */
+    public int deleteSessionsOfUsers(AppIdentifier appIdentifier, List<String> userIds)
+            throws StorageQueryException {
+        try {
+            return SessionQueries.deleteSessionsOfUsers(this, appIdentifier, userIds);
+        } catch (SQLException e) {
+            throw new StorageQueryException(e);
+        }
+    }
+
     @Override
     public int getNumberOfSessions(TenantIdentifier tenantIdentifier) throws StorageQueryException {
         try {
@@ -605,7 +732,7 @@ public class Start
 
     @Override
     public void deleteAllExpiredSessions() throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             SessionQueries.deleteAllExpiredSessions(this);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -1182,7 +1309,7 @@ public class Start
 
     @Override
     public void deleteExpiredEmailVerificationTokens() throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             EmailVerificationQueries.deleteExpiredEmailVerificationTokens(this);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -1392,7 +1519,7 @@ public class Start
 
     @Override
     public void deleteExpiredPasswordResetTokens() throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             EmailPasswordQueries.deleteExpiredPasswordResetTokens(this);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -1568,7 +1695,7 @@ public class Start
 
     @Override
     public int countUsersActiveSince(AppIdentifier appIdentifier, long time) throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             return ActiveUsersQueries.countUsersActiveSince(this, appIdentifier, time);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -2134,6 +2261,23 @@ public class Start
         }
     }
 
+    /**
+     * Deletes the passwordless codes of the tenant that were created before the given time, and the devices that
+     * have no codes left, in bounded batches. Unlike {@link #getCodesBefore}, this never holds more than one batch of
+     * codes in memory.
+     *
+     * @return the number of codes deleted
+     */
+    public long deleteCodesBefore(TenantIdentifier tenantIdentifier, long time) throws StorageQueryException {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
+            return PasswordlessQueries.deleteCodesBefore(this, tenantIdentifier, time);
+        } catch (SQLException e) {
+            throw new StorageQueryException(e);
+        } catch (StorageTransactionLogicException e) {
+            throw new StorageQueryException(e.actualException);
+        }
+    }
+
     @Override
     public PasswordlessCode getCode(TenantIdentifier tenantIdentifier, String codeId) throws
             StorageQueryException {
@@ -2986,7 +3130,7 @@ public class Start
 
     @Override
     public void revokeExpiredSessions() throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             DashboardQueries.deleteExpiredSessions(this);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -3198,7 +3342,7 @@ public class Start
     @Override
     public int removeExpiredCodes(TenantIdentifier tenantIdentifier, long expiredBefore)
             throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             return TOTPQueries.removeExpiredCodes(this, tenantIdentifier, expiredBefore);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -3438,7 +3582,7 @@ public class Start
     @Override
     public int countUsersThatHaveMoreThanOneLoginMethodAndActiveSince(AppIdentifier appIdentifier, long sinceTime)
             throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             return ActiveUsersQueries.countUsersActiveSinceAndHasMoreThanOneLoginMethod(this, appIdentifier, sinceTime);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -3527,7 +3671,7 @@ public class Start
     public int countUsersThatHaveMoreThanOneLoginMethodOrTOTPEnabledAndActiveSince(AppIdentifier appIdentifier,
                                                                                    long sinceTime)
             throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             return ActiveUsersQueries.countUsersThatHaveMoreThanOneLoginMethodOrTOTPEnabledAndActiveSince(this,
                     appIdentifier, sinceTime);
         } catch (SQLException e) {
@@ -3644,7 +3788,7 @@ public class Start
 
     @Override
     public void deleteExpiredOAuthM2MTokens(long exp) throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             OAuthQueries.deleteExpiredOAuthM2MTokens(this, exp);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -3735,7 +3879,7 @@ public class Start
 
     @Override
     public void deleteExpiredOAuthSessions(long exp) throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             OAuthQueries.deleteExpiredOAuthSessions(this, exp);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -3962,7 +4106,7 @@ public class Start
     @Override
     public void addBulkImportUsers(AppIdentifier appIdentifier, List<BulkImportUser> users)
             throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BULK)) {
             this.startTransaction(con -> {
                 try {
                     BulkImportQueries.insertBulkImportUsers_Transaction(this, (Connection) con.getConnection(), appIdentifier, users);
@@ -3993,7 +4137,7 @@ public class Start
     @Override
     public List<BulkImportUser> getBulkImportUsers(AppIdentifier appIdentifier, @Nonnull Integer limit, @Nullable BULK_IMPORT_USER_STATUS status,
             @Nullable String bulkImportUserId, @Nullable Long createdAt) throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BULK)) {
             return BulkImportQueries.getBulkImportUsers(this, appIdentifier, limit, status, bulkImportUserId, createdAt);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -4207,7 +4351,7 @@ public class Start
 
     @Override
     public void deleteExpiredAccountRecoveryTokens() throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             WebAuthNQueries.deleteExpiredAccountRecoveryTokens(this);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -4216,17 +4360,16 @@ public class Start
 
     @Override
     public List<String> deleteBulkImportUsers(AppIdentifier appIdentifier, @Nonnull String[] bulkImportUserIds) throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BULK)) {
             return BulkImportQueries.deleteBulkImportUsers(this, appIdentifier, bulkImportUserIds);
-
-        } catch (SQLException e) {
-            throw new StorageQueryException(e);
+        } catch (StorageTransactionLogicException e) {
+            throw new StorageQueryException(e.actualException);
         }
     }
 
     @Override
     public void deleteExpiredGeneratedOptions() throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
             WebAuthNQueries.deleteExpiredGeneratedOptions(this);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -4235,7 +4378,7 @@ public class Start
 
     @Override
     public List<BulkImportUser> getBulkImportUsersAndChangeStatusToProcessing(AppIdentifier appIdentifier, @Nonnull Integer limit) throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BULK)) {
             return BulkImportQueries.getBulkImportUsersAndChangeStatusToProcessing(this, appIdentifier, limit);
         } catch (StorageTransactionLogicException e) {
             throw new StorageQueryException(e.actualException);
@@ -4244,7 +4387,7 @@ public class Start
 
     @Override
     public void updateBulkImportUserPrimaryUserId(AppIdentifier appIdentifier, @Nonnull String bulkImportUserId, @Nonnull String primaryUserId) throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BULK)) {
             BulkImportQueries.updateBulkImportUserPrimaryUserId(this, appIdentifier, bulkImportUserId, primaryUserId);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
@@ -4253,10 +4396,62 @@ public class Start
 
     @Override
     public long getBulkImportUsersCount(AppIdentifier appIdentifier, @Nullable BULK_IMPORT_USER_STATUS status) throws StorageQueryException {
-        try {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BULK)) {
             return BulkImportQueries.getBulkImportUsersCount(this, appIdentifier, status);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
         }
     }
+
+    /**
+     * Recomputes the bulk import user counts (per status) of the app from the bulk_import_users table, since the
+     * counts are otherwise only maintained by this plugin's writes. This also runs on its own, once an hour, for
+     * every app that the bulk import cron has claimed users from (see BulkImportStatusCountReconciler). It takes no
+     * locks on bulk_import_users, so imports go on while it runs.
+     */
+    public void reconcileBulkImportUsersCount(AppIdentifier appIdentifier) throws StorageQueryException {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BULK)) {
+            BulkImportQueries.reconcileBulkImportUsersStatusCount(this, appIdentifier);
+        } catch (StorageTransactionLogicException e) {
+            throw new StorageQueryException(e.actualException);
+        }
+    }
+
+    /**
+     * The current adaptive claim limit and flush size used by the bulk import of this user pool, along with their
+     * throughput, for monitoring.
+     */
+    public JsonObject getBulkImportBatchSizeMetrics() {
+        return BulkImportBatchSizing.getInstance(this).toJson();
+    }
+
+    /**
+     * The size, estimated false positive rate and hit counts of the verified email filter of each app of this user
+     * pool, for monitoring. Empty unless mysql_verified_email_filter_enabled is set.
+     */
+    public JsonObject getVerifiedEmailFilterMetrics() {
+        return VerifiedEmailFilter.getInstance(this).toJson();
+    }
+
+    /**
+     * For each user id / session handle column, how many of its values are UUIDs that could be stored as BINARY(16),
+     * and roughly how many bytes of its table's indexes that would save. This scans those tables in full, so it is
+     * only meant to be run by hand.
+     */
+    public JsonObject getCompactIdReport() throws StorageQueryException {
+        try (WorkloadClass.Scope ignored = enterWorkloadClass(WorkloadClass.BACKGROUND)) {
+            return CompactIdQueries.getReport(this);
+        } catch (SQLException e) {
+            throw new StorageQueryException(e);
+        }
+    }
+
+    /**
+     * Tags the calling thread's db work with the given workload class until the returned scope is closed. For
+     * BACKGROUND and BULK, this waits for a slot in that class' share of the connection pool (see
+     * {@link WorkloadClass}).
+     */
+    public WorkloadClass.Scope enterWorkloadClass(WorkloadClass workloadClass) throws StorageQueryException {
+        return ConnectionPool.enterWorkloadClass(this, workloadClass);
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import io.supertokens.pluginInterface.authRecipe.AuthRecipeUserInfo;
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.storage.mysql.queries.GeneralQueries;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Walks over all the users of an app (or of one tenant) without paginating. The user ids are read from a single
+ * query that the driver streams from the server, on a connection that is held by this cursor until it is closed.
+ * Each call to {@link #nextBatch()} hydrates the next batchSize users (login methods included) using a separate
+ * pooled connection, so memory use only depends on the batch size and not on the number of users.
+ * <p>
+ * Users are returned in primary key order when iterating an app, and in the default getUsers order (newest first)
+ * when iterating a tenant. Users created after the cursor was opened may or may not be returned, and users
+ * deleted in the meantime are skipped. This is not thread safe.
+ */
+public class UserCursor implements AutoCloseable {
+
+    // the server aborts a streaming query if the client does not read from it for net_write_timeout seconds, and
+    // the caller may take a while to process a batch (for example when writing an export).
+    private static final int NET_WRITE_TIMEOUT_SECONDS = 3600;
+
+    private final Start start;
+    private final AppIdentifier appIdentifier;
+    private final int batchSize;
+    private final Connection con;
+    private final ResultSet primaryUserIds;
+    private String lastPrimaryUserId = null;
+    private boolean exhausted = false;
+    private boolean closed = false;
+
+    private UserCursor(Start start, AppIdentifier appIdentifier, int batchSize, Connection con,
+                       ResultSet primaryUserIds) {
+        this.start = start;
+        this.appIdentifier = appIdentifier;
+        this.batchSize = batchSize;
+        this.con = con;
+        this.primaryUserIds = primaryUserIds;
+    }
+
+    static UserCursor open(Start start, AppIdentifier appIdentifier, TenantIdentifier tenantIdentifier,
+                           int batchSize) throws StorageQueryException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        }
+        if (start instanceof BulkImportProxyStorage) {
+            // the proxy storage has only one connection, and the stream would block it
+            throw new UnsupportedOperationException("UserCursor cannot be used with BulkImportProxyStorage");
+        }
+        Connection con = null;
+        try {
+            con = ConnectionPool.getConnection(start);
+            QueryExecutorTemplate.executeStatementsInBatch(con,
+                    Collections.singletonList("SET SESSION net_write_timeout = " + NET_WRITE_TIMEOUT_SECONDS));
+            ResultSet primaryUserIds = tenantIdentifier == null
+                    ? GeneralQueries.streamPrimaryUserIds(start, con, appIdentifier, batchSize)
+                    : GeneralQueries.streamPrimaryUserIds(start, con, tenantIdentifier, batchSize);
+            return new UserCursor(start, appIdentifier, batchSize, con, primaryUserIds);
+        } catch (SQLException | StorageQueryException e) {
+            if (con != null) {
+                closeConnection(con);
+            }
+            if (e instanceof StorageQueryException) {
+                throw (StorageQueryException) e;
+            }
+            throw new StorageQueryException(e);
+        }
+    }
+
+    /**
+     * @return the next batch of users, or an empty list once all users have been returned.
+     */
+    public List<AuthRecipeUserInfo> nextBatch() throws StorageQueryException {
+        if (closed) {
+            throw new IllegalStateException("UserCursor is closed");
+        }
+        try {
+            while (true) {
+                List<String> ids = new ArrayList<>(batchSize);
+                while (!exhausted && ids.size() < batchSize) {
+                    if (!primaryUserIds.next()) {
+                        exhausted = true;
+                        break;
+                    }
+                    String primaryUserId = primaryUserIds.getString("primary_or_recipe_user_id");
+                    if (primaryUserId.equals(lastPrimaryUserId)) {
+                        continue;
+                    }
+                    lastPrimaryUserId = primaryUserId;
+                    ids.add(primaryUserId);
+                }
+                if (ids.isEmpty()) {
+                    return new ArrayList<>();
+                }
+                List<AuthRecipeUserInfo> users = GeneralQueries.getPrimaryUserInfosForUserIds(start, appIdentifier,
+                        ids);
+                // the batch can only come back empty if all its users were deleted after the cursor was opened
+                if (!users.isEmpty() || exhausted) {
+                    return users;
+                }
+            }
+        } catch (SQLException e) {
+            throw new StorageQueryException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!exhausted) {
+                // otherwise closing the result set makes the driver read (and discard) all the remaining rows
+                primaryUserIds.getStatement().cancel();
+            }
+        } catch (SQLException ignored) {
+        }
+        try {
+            primaryUserIds.close();
+        } catch (SQLException ignored) {
+        }
+        closeConnection(con);
+    }
+
+    private static void closeConnection(Connection con) {
+        try {
+            // the connection goes back to the pool, so we do not want the longer timeout to stick to it
+            QueryExecutorTemplate.executeStatementsInBatch(con,
+                    Collections.singletonList("SET SESSION net_write_timeout = DEFAULT"));
+        } catch (SQLException ignored) {
+        }
+        try {
+            con.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
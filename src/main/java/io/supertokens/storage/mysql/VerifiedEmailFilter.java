@@ -0,0 +1,284 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import com.google.gson.JsonObject;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.output.Logging;
+import io.supertokens.storage.mysql.queries.EmailVerificationQueries;
+import io.supertokens.storage.mysql.utils.CountingBloomFilter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When mysql_verified_email_filter_enabled is set, keeps a counting bloom filter per app of the emails that are in
+ * the verified emails table, so that checking an email that was never verified (the common case) does not need a
+ * query. A negative answer from the filter is definite, a positive one still goes to the db.
+ * <p>
+ * The filter is over emails only, not (user id, email) pairs, since the table stores the external user id for
+ * users that have an id mapping. It is built the first time an app is checked, by streaming the app's verified
+ * emails, and answers "maybe" until then. After that it is kept up to date by this plugin's writes, which is why
+ * this must only be enabled when all the cores that write to the db have it enabled, and is shared by all the
+ * storages (including the bulk import proxy storage) of a user pool. Rows removed inside a transaction are not
+ * removed from the filter, since the transaction may still roll back; that only costs a query. The filter is dropped
+ * when a storage of the user pool is closed, and built again by the next check.
+ * <p>
+ * Only emails made of printable ASCII characters can get a negative answer, since for those, the case insensitive
+ * collation of the email column is the same as comparing lower cased strings (ignoring trailing spaces). Stored emails
+ * with other characters can be equal to an ASCII one in that collation (for example "&eacute;" and "e", or "&szlig;" and "ss"), so
+ * once an app has one of those, its filter stops giving negative answers.
+ */
+public class VerifiedEmailFilter {
+
+    private static final Map<String, VerifiedEmailFilter> instances = new ConcurrentHashMap<>();
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MIN_CAPACITY = 1024;
+    // a write that was not committed yet when the filter's scan read the table is replayed from here, so this must be
+    // longer than any transaction that verifies an email
+    private static final long RECENT_WRITES_WINDOW_MILLIS = 120000;
+    private static final long BUILD_RETRY_DELAY_MILLIS = 60000;
+
+    private final Map<String, AppFilter> apps = new ConcurrentHashMap<>();
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mysql-plugin-verified-email-filter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private VerifiedEmailFilter() {
+    }
+
+    public static VerifiedEmailFilter getInstance(Start start) {
+        return instances.computeIfAbsent(start.getUserPoolId(), k -> new VerifiedEmailFilter());
+    }
+
+    static void close(Start start) {
+        if (start instanceof BulkImportProxyStorage) {
+            // it shares the filter of the storage it was created from, which stays open
+            return;
+        }
+        VerifiedEmailFilter instance = instances.remove(start.getUserPoolId());
+        if (instance != null) {
+            instance.builder.shutdownNow();
+        }
+    }
+
+    private static class AppFilter {
+        private volatile CountingBloomFilter ready = null;
+        private CountingBloomFilter building = null;
+        private boolean buildInProgress = false;
+        private long nextBuildAttempt = 0;
+        // set once any email of the app that cannot be filtered out was added, see canBeFilteredOut
+        private volatile boolean hasUnfilterableEmails = false;
+        private final Deque<Object[]> recentWrites = new ArrayDeque<>();
+        private final AtomicLong checks = new AtomicLong(0);
+        private final AtomicLong negatives = new AtomicLong(0);
+    }
+
+    private static boolean isEnabled(Start start) {
+        return Config.getConfig(start).isVerifiedEmailFilterEnabled();
+    }
+
+    private static String getKey(String email) {
+        int end = email.length();
+        while (end > 0 && email.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return email.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean canBeFilteredOut(String email) {
+        for (int i = 0; i < email.length(); i++) {
+            char c = email.charAt(i);
+            if (c < 0x20 || c > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if no user of the app has this email verified, true if one may have.
+     */
+    public boolean mightBeVerified(Start start, AppIdentifier appIdentifier, String email) {
+        if (!isEnabled(start) || email == null || !canBeFilteredOut(email)) {
+            return true;
+        }
+        AppFilter appFilter = apps.computeIfAbsent(appIdentifier.getAppId(), k -> new AppFilter());
+        CountingBloomFilter filter = appFilter.ready;
+        if (filter == null || filter.getItemCount() > filter.getCapacity()) {
+            // not built yet, or so full that it has to be rebuilt with a bigger size
+            startBuild(start, appIdentifier, appFilter);
+        }
+        if (filter == null || appFilter.hasUnfilterableEmails) {
+            return true;
+        }
+        appFilter.checks.incrementAndGet();
+        if (filter.mightContain(getKey(email))) {
+            return true;
+        }
+        appFilter.negatives.incrementAndGet();
+        return false;
+    }
+
+    public List<EmailVerificationQueries.UserIdAndEmail> filterMightBeVerified(Start start,
+            AppIdentifier appIdentifier, List<EmailVerificationQueries.UserIdAndEmail> userIdAndEmail) {
+        if (!isEnabled(start)) {
+            return userIdAndEmail;
+        }
+        List<EmailVerificationQueries.UserIdAndEmail> result = new ArrayList<>();
+        for (EmailVerificationQueries.UserIdAndEmail ue : userIdAndEmail) {
+            if (mightBeVerified(start, appIdentifier, ue.email)) {
+                result.add(ue);
+            }
+        }
+        return result;
+    }
+
+    // to be called for every row added to the verified emails table, committed or not
+    public void onVerified(Start start, AppIdentifier appIdentifier, String email) {
+        if (!isEnabled(start)) {
+            return;
+        }
+        AppFilter appFilter = apps.computeIfAbsent(appIdentifier.getAppId(), k -> new AppFilter());
+        if (!canBeFilteredOut(email)) {
+            appFilter.hasUnfilterableEmails = true;
+        }
+        String key = getKey(email);
+        synchronized (appFilter) {
+            long now = System.currentTimeMillis();
+            appFilter.recentWrites.addLast(new Object[]{now, key});
+            while (!appFilter.buildInProgress && !appFilter.recentWrites.isEmpty()
+                    && (long) appFilter.recentWrites.peekFirst()[0] < now - RECENT_WRITES_WINDOW_MILLIS) {
+                appFilter.recentWrites.removeFirst();
+            }
+            if (appFilter.ready != null) {
+                appFilter.ready.add(key);
+            }
+            if (appFilter.building != null) {
+                appFilter.building.add(key);
+            }
+        }
+    }
+
+    // to be called for a row that was removed from the verified emails table and committed
+    public void onUnverified(Start start, AppIdentifier appIdentifier, String email) {
+        if (!isEnabled(start)) {
+            return;
+        }
+        AppFilter appFilter = apps.get(appIdentifier.getAppId());
+        if (appFilter == null) {
+            return;
+        }
+        synchronized (appFilter) {
+            // a filter being built may or may not have seen this row yet, so it is left as is
+            if (appFilter.ready != null) {
+                appFilter.ready.remove(getKey(email));
+            }
+        }
+    }
+
+    private void startBuild(Start start, AppIdentifier appIdentifier, AppFilter appFilter) {
+        if (start instanceof BulkImportProxyStorage) {
+            // the scan needs a connection of its own
+            return;
+        }
+        synchronized (appFilter) {
+            if (appFilter.buildInProgress || System.currentTimeMillis() < appFilter.nextBuildAttempt) {
+                return;
+            }
+            appFilter.buildInProgress = true;
+        }
+        try {
+            builder.execute(() -> build(start, appIdentifier, appFilter));
+        } catch (RejectedExecutionException e) {
+            // the filter was closed meanwhile
+            synchronized (appFilter) {
+                appFilter.buildInProgress = false;
+            }
+        }
+    }
+
+    private void build(Start start, AppIdentifier appIdentifier, AppFilter appFilter) {
+        try (WorkloadClass.Scope ignored = start.enterWorkloadClass(WorkloadClass.BACKGROUND)) {
+            long count = EmailVerificationQueries.getVerifiedEmailsCount(start, appIdentifier);
+            CountingBloomFilter filter = new CountingBloomFilter(
+                    (int) Math.min(Math.max(MIN_CAPACITY, count * 2), Integer.MAX_VALUE / 16),
+                    FALSE_POSITIVE_RATE);
+            synchronized (appFilter) {
+                appFilter.building = filter;
+            }
+            EmailVerificationQueries.forEachVerifiedEmail(start, appIdentifier, email -> {
+                if (!canBeFilteredOut(email)) {
+                    appFilter.hasUnfilterableEmails = true;
+                }
+                filter.add(getKey(email));
+            });
+            synchronized (appFilter) {
+                for (Object[] write : appFilter.recentWrites) {
+                    filter.add((String) write[1]);
+                }
+                appFilter.ready = filter;
+                appFilter.building = null;
+            }
+        } catch (Exception e) {
+            synchronized (appFilter) {
+                appFilter.building = null;
+                appFilter.nextBuildAttempt = System.currentTimeMillis() + BUILD_RETRY_DELAY_MILLIS;
+            }
+            Logging.error(start, "Failed to build the verified email filter of app "
+                    + appIdentifier.getAppId() + ": " + e.getMessage(), false);
+        } finally {
+            synchronized (appFilter) {
+                appFilter.buildInProgress = false;
+            }
+        }
+    }
+
+    public JsonObject toJson() {
+        JsonObject result = new JsonObject();
+        for (Map.Entry<String, AppFilter> entry : apps.entrySet()) {
+            AppFilter appFilter = entry.getValue();
+            CountingBloomFilter filter = appFilter.ready;
+            JsonObject app = new JsonObject();
+            app.addProperty("ready", filter != null);
+            app.addProperty("hasUnfilterableEmails", appFilter.hasUnfilterableEmails);
+            if (filter != null) {
+                app.addProperty("emails", filter.getItemCount());
+                app.addProperty("capacity", filter.getCapacity());
+                app.addProperty("memoryBytes", filter.getMemoryBytes());
+                app.addProperty("estimatedFalsePositiveRate", filter.getEstimatedFalsePositiveRate());
+            }
+            app.addProperty("checks", appFilter.checks.get());
+            app.addProperty("definiteNegatives", appFilter.negatives.get());
+            result.add(entry.getKey(), app);
+        }
+        return result;
+    }
+}
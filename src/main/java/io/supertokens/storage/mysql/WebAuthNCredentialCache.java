@@ -0,0 +1,206 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import io.supertokens.pluginInterface.webauthn.WebAuthNStoredCredential;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.output.Logging;
+import io.supertokens.storage.mysql.queries.WebAuthNQueries;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In memory state for the WebAuthN credential lookups done on every passkey sign in:
+ * <ul>
+ * <li>An LRU cache of credentials by id. Only the parts that never change for a credential (public key,
+ * transports, rp id, user id, created at) are served from it, the counter is always read from the db. That read
+ * also tells us if the credential still exists.</li>
+ * <li>When mysql_webauthn_counter_write_interval is set, the counter updates that are waiting to be written. Only
+ * the highest counter per credential is kept, and they are all written in one batch every interval.</li>
+ * </ul>
+ */
+public class WebAuthNCredentialCache extends ResourceDistributor.SingletonResource {
+
+    private static final String RESOURCE_KEY = "io.supertokens.storage.mysql.WebAuthNCredentialCache";
+
+    private static final int MAX_CACHED_CREDENTIALS = 10000;
+
+    private final Start start;
+    private final Map<String, WebAuthNStoredCredential> credentials = new LinkedHashMap<String,
+            WebAuthNStoredCredential>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, WebAuthNStoredCredential> eldest) {
+            return size() > MAX_CACHED_CREDENTIALS;
+        }
+    };
+    private final Map<String, PendingCounter> pendingCounters = new ConcurrentHashMap<>();
+    private ScheduledExecutorService counterWriter = null;
+
+    private WebAuthNCredentialCache(Start start) {
+        this.start = start;
+    }
+
+    public static WebAuthNCredentialCache getInstance(Start start) {
+        ResourceDistributor.SingletonResource instance = start.getResourceDistributor().getResource(RESOURCE_KEY);
+        if (instance == null) {
+            instance = start.getResourceDistributor().setResource(RESOURCE_KEY, new WebAuthNCredentialCache(start));
+        }
+        return (WebAuthNCredentialCache) instance;
+    }
+
+    static void close(Start start) {
+        WebAuthNCredentialCache instance = (WebAuthNCredentialCache) start.getResourceDistributor()
+                .getResource(RESOURCE_KEY);
+        if (instance == null) {
+            return;
+        }
+        try {
+            synchronized (instance) {
+                if (instance.counterWriter != null) {
+                    instance.counterWriter.shutdown();
+                    instance.counterWriter = null;
+                }
+            }
+            // so that the last counter updates are not lost
+            instance.writePendingCounters();
+        } finally {
+            start.getResourceDistributor().removeResource(RESOURCE_KEY);
+        }
+    }
+
+    private static String getKey(String appId, String credentialId) {
+        return appId + "\n" + credentialId;
+    }
+
+    public synchronized WebAuthNStoredCredential get(String appId, String credentialId) {
+        WebAuthNStoredCredential credential = credentials.get(getKey(appId, credentialId));
+        return credential == null ? null : copy(credential);
+    }
+
+    public synchronized void put(WebAuthNStoredCredential credential) {
+        credentials.put(getKey(credential.appId, credential.id), copy(credential));
+    }
+
+    public synchronized void remove(String appId, String credentialId) {
+        credentials.remove(getKey(appId, credentialId));
+        pendingCounters.remove(getKey(appId, credentialId));
+    }
+
+    public boolean isCounterWriteDelayed() {
+        return Config.getConfig(start).getWebAuthNCounterWriteInterval() > 0;
+    }
+
+    /**
+     * Records a counter update to be written later. If there is one already waiting for this credential, the
+     * highest counter wins (the counter of a credential only ever goes up).
+     */
+    public void addPendingCounter(String appId, String credentialId, long counter, long updatedAt) {
+        pendingCounters.merge(getKey(appId, credentialId), new PendingCounter(appId, credentialId, counter,
+                updatedAt), PendingCounter::max);
+        startCounterWriterIfNeeded();
+    }
+
+    /**
+     * @return the credential with its counter raised to the one waiting to be written, if any.
+     */
+    public WebAuthNStoredCredential withPendingCounter(WebAuthNStoredCredential credential) {
+        if (credential == null) {
+            return null;
+        }
+        PendingCounter pending = pendingCounters.get(getKey(credential.appId, credential.id));
+        if (pending != null && pending.counter > credential.counter) {
+            credential.counter = pending.counter;
+            credential.updatedAt = Math.max(credential.updatedAt, pending.updatedAt);
+        }
+        return credential;
+    }
+
+    private synchronized void startCounterWriterIfNeeded() {
+        if (counterWriter != null) {
+            return;
+        }
+        long interval = Config.getConfig(start).getWebAuthNCounterWriteInterval();
+        counterWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mysql-plugin-webauthn-counter-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        counterWriter.scheduleWithFixedDelay(this::writePendingCounters, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void writePendingCounters() {
+        if (pendingCounters.isEmpty()) {
+            return;
+        }
+        List<PendingCounter> toWrite = new ArrayList<>();
+        for (String key : new ArrayList<>(pendingCounters.keySet())) {
+            PendingCounter pending = pendingCounters.remove(key);
+            if (pending != null) {
+                toWrite.add(pending);
+            }
+        }
+        try {
+            WebAuthNQueries.writeCounters(start, toWrite);
+        } catch (Exception e) {
+            // put them back (unless a newer one came in meanwhile) so that the next run retries them
+            for (PendingCounter pending : toWrite) {
+                pendingCounters.merge(getKey(pending.appId, pending.credentialId), pending, PendingCounter::max);
+            }
+            Logging.error(start, "Failed to write WebAuthN counters: " + e.getMessage(), false);
+        }
+    }
+
+    private static WebAuthNStoredCredential copy(WebAuthNStoredCredential credential) {
+        WebAuthNStoredCredential result = new WebAuthNStoredCredential();
+        result.id = credential.id;
+        result.appId = credential.appId;
+        result.rpId = credential.rpId;
+        result.userId = credential.userId;
+        result.counter = credential.counter;
+        result.publicKey = credential.publicKey;
+        result.transports = credential.transports;
+        result.createdAt = credential.createdAt;
+        result.updatedAt = credential.updatedAt;
+        return result;
+    }
+
+    public static final class PendingCounter {
+        public final String appId;
+        public final String credentialId;
+        public final long counter;
+        public final long updatedAt;
+
+        PendingCounter(String appId, String credentialId, long counter, long updatedAt) {
+            this.appId = appId;
+            this.credentialId = credentialId;
+            this.counter = counter;
+            this.updatedAt = updatedAt;
+        }
+
+        private static PendingCounter max(PendingCounter a, PendingCounter b) {
+            return new PendingCounter(a.appId, a.credentialId, Math.max(a.counter, b.counter),
+                    Math.max(a.updatedAt, b.updatedAt));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * The kind of work a thread is doing with the db. REQUEST work (the default) can use the whole connection pool, while
+ * BACKGROUND (crons, usage stats) and BULK (bulk import) work are each capped to their own share of it, so that they
+ * cannot take all the connections away from the requests.
+ * <p>
+ * A thread is tagged with {@link Start#enterWorkloadClass(WorkloadClass)} for as long as the returned scope is open.
+ * The cap is on the number of threads in a scope at the same time (each of which uses one connection at a time), and
+ * nested scopes stay in the class of the outermost one.
+ */
+public enum WorkloadClass {
+    REQUEST, BACKGROUND, BULK;
+
+    private static final ThreadLocal<WorkloadClass> current = ThreadLocal.withInitial(() -> REQUEST);
+
+    public static WorkloadClass current() {
+        return current.get();
+    }
+
+    static Scope enter(WorkloadClass workloadClass, Semaphore permits) {
+        WorkloadClass previous = current.get();
+        current.set(workloadClass);
+        return new Scope(previous, permits);
+    }
+
+    public static final class Scope implements AutoCloseable {
+        private final WorkloadClass previous;
+        // the share of the pool this scope took a slot from, or null if it did not take one
+        private Semaphore permits;
+
+        private Scope(WorkloadClass previous, Semaphore permits) {
+            this.previous = previous;
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() {
+            if (permits != null) {
+                permits.release();
+                permits = null;
+            }
+            current.set(previous);
+        }
+    }
+}
@@ -34,7 +34,7 @@ import java.util.Set;
 
 public class Config extends ResourceDistributor.SingletonResource {
 
-    private static final String RESOURCE_KEY = "io.supertokens.storage.mysql.config.Config";
+    public static final String RESOURCE_KEY = "io.supertokens.storage.mysql.config.Config";
     private final MySQLConfig config;
     private final Start start;
     private Set<LOG_LEVEL> logLevels;
@@ -50,7 +50,7 @@ public class Config extends ResourceDistributor.SingletonResource {
     }
 
     private static Config getInstance(Start start) {
-        return (Config) start.getResourceDistributor().getResource(RESOURCE_KEY);
+        return start.getConfigHandle().get();
     }
 
     public static void loadConfig(Start start, JsonObject configJson, Set<LOG_LEVEL> logLevels,
@@ -85,10 +85,11 @@ public class Config extends ResourceDistributor.SingletonResource {
     }
 
     public static MySQLConfig getConfig(Start start) {
-        if (getInstance(start) == null) {
+        Config instance = getInstance(start);
+        if (instance == null) {
             throw new IllegalStateException("Please call loadConfig() before calling getConfig()");
         }
-        return getInstance(start).config;
+        return instance.config;
     }
 
     public static Set<LOG_LEVEL> getLogLevels(Start start) {
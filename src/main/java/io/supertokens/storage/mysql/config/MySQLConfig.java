@@ -172,6 +172,115 @@ public class MySQLConfig {
             defaultValue = "null", isOptional = true, isEditable = true)
     private Integer mysql_minimum_idle_connections = null;
 
+    @JsonProperty
+    @ConnectionPoolProperty
+    @DashboardInfo(
+            description = "Timeout in milliseconds to wait for a connection from the pool when serving a request.",
+            defaultValue = "5000", isOptional = true, isEditable = true)
+    private long mysql_connection_timeout = 5000;
+
+    @JsonProperty
+    @ConnectionPoolProperty
+    @DashboardInfo(
+            description = "Max number of connections from the pool that background jobs (like removing expired " +
+                    "sessions and tokens, or computing usage stats) can use at the same time. Must be at least 2. If " +
+                    "not set, this is a quarter of the connection pool size, and at least 2.",
+            defaultValue = "null", isOptional = true, isEditable = true)
+    private Integer mysql_background_connection_pool_size = null;
+
+    @JsonProperty
+    @ConnectionPoolProperty
+    @DashboardInfo(
+            description = "Timeout in milliseconds for a background job to get one of its connections.",
+            defaultValue = "60000", isOptional = true, isEditable = true)
+    private long mysql_background_connection_timeout = 60000;
+
+    @JsonProperty
+    @ConnectionPoolProperty
+    @DashboardInfo(
+            description = "Max number of connections from the pool that bulk import can use at the same time. If not" +
+                    " set, this is a quarter of the connection pool size.",
+            defaultValue = "null", isOptional = true, isEditable = true)
+    private Integer mysql_bulk_connection_pool_size = null;
+
+    @JsonProperty
+    @ConnectionPoolProperty
+    @DashboardInfo(
+            description = "Timeout in milliseconds for bulk import to get one of its connections.",
+            defaultValue = "60000", isOptional = true, isEditable = true)
+    private long mysql_bulk_connection_timeout = 60000;
+
+    @JsonProperty
+    @NotConflictingWithinUserPool
+    @DashboardInfo(
+            description = "If set to more than 0, WebAuthN credential counter updates are held in memory and written " +
+                    "in one batch every this many milliseconds, instead of as part of every sign in. Counters that " +
+                    "were not written yet are lost if the core stops abruptly. They are also only seen by reads on " +
+                    "the core that holds them, so other cores see a lower counter until then, which weakens the " +
+                    "detection of cloned authenticators.",
+            defaultValue = "0", isOptional = true)
+    private long mysql_webauthn_counter_write_interval = 0;
+
+    @JsonProperty
+    @NotConflictingWithinUserPool
+    @DashboardInfo(
+            description = "If true, a bloom filter of the verified emails of each app is kept in memory, so that " +
+                    "checking if an unverified email is verified does not need a query. Only enable this if all the " +
+                    "cores using this database have it enabled, since the filter is kept up to date by this core's " +
+                    "writes.",
+            defaultValue = "false", isOptional = true)
+    private boolean mysql_verified_email_filter_enabled = false;
+
+    @JsonProperty
+    @NotConflictingWithinUserPool
+    @DashboardInfo(
+            description = "If set to more than 0, the sessions read for session verification are cached in memory " +
+                    "for up to this many milliseconds. Changes made by this core remove a session from the cache " +
+                    "right away, changes made by other cores are seen after at most this long.",
+            defaultValue = "0", isOptional = true)
+    private long mysql_session_cache_ttl = 0;
+
+    @JsonProperty
+    @NotConflictingWithinUserPool
+    @DashboardInfo(
+            description = "Max number of sessions kept in the session cache, when mysql_session_cache_ttl is set.",
+            defaultValue = "10000", isOptional = true)
+    private int mysql_session_cache_size = 10000;
+
+    @JsonProperty
+    @NotConflictingWithinUserPool
+    @DashboardInfo(
+            description = "Max number of a user's latest used TOTP codes read on each TOTP verification (codes that " +
+                    "can still be reused are always read). Must be at least the core's totp_max_attempts.",
+            defaultValue = "1000", isOptional = true)
+    private int mysql_totp_used_codes_read_limit = 1000;
+
+    @JsonProperty
+    @NotConflictingWithinUserPool
+    @DashboardInfo(
+            description = "If set to more than 0, only this many of a user's latest used TOTP codes (plus the ones " +
+                    "that can still be reused) are kept, and older ones are deleted when a code is used, instead of " +
+                    "only by the expired codes cron. Must be at least the core's totp_max_attempts.",
+            defaultValue = "0", isOptional = true)
+    private int mysql_totp_used_codes_per_user = 0;
+
+    @JsonProperty
+    @NotConflictingWithinUserPool
+    @DashboardInfo(
+            description = "If true, the connection pool, tables and tenants of a user pool's database are set up on " +
+                    "a background thread when the core loads it, so that a core with many user pools does not wait " +
+                    "for each database in turn. Does not apply to the database of the base tenant.",
+            defaultValue = "false", isOptional = true)
+    private boolean mysql_init_in_background = false;
+
+    @JsonProperty
+    @NotConflictingWithinUserPool
+    @DashboardInfo(
+            description = "Timeout in milliseconds for a query to wait for its database to be set up, when " +
+                    "mysql_init_in_background is true.",
+            defaultValue = "60000", isOptional = true)
+    private long mysql_init_in_background_timeout = 60000;
+
     @IgnoreForAnnotationCheck
     boolean isValidAndNormalised = false;
 
@@ -308,6 +417,64 @@ public class MySQLConfig {
         return mysql_minimum_idle_connections;
     }
 
+    public long getConnectionTimeout() {
+        return mysql_connection_timeout;
+    }
+
+    public int getBackgroundConnectionPoolSize() {
+        if (mysql_background_connection_pool_size == null) {
+            return Math.max(2, mysql_connection_pool_size / 4);
+        }
+        return mysql_background_connection_pool_size;
+    }
+
+    public long getBackgroundConnectionTimeout() {
+        return mysql_background_connection_timeout;
+    }
+
+    public int getBulkConnectionPoolSize() {
+        if (mysql_bulk_connection_pool_size == null) {
+            return Math.max(1, mysql_connection_pool_size / 4);
+        }
+        return mysql_bulk_connection_pool_size;
+    }
+
+    public long getBulkConnectionTimeout() {
+        return mysql_bulk_connection_timeout;
+    }
+
+    public long getWebAuthNCounterWriteInterval() {
+        return mysql_webauthn_counter_write_interval;
+    }
+
+    public boolean isVerifiedEmailFilterEnabled() {
+        return mysql_verified_email_filter_enabled;
+    }
+
+    public long getSessionCacheTtl() {
+        return mysql_session_cache_ttl;
+    }
+
+    public int getSessionCacheSize() {
+        return mysql_session_cache_size;
+    }
+
+    public boolean isInitInBackground() {
+        return mysql_init_in_background;
+    }
+
+    public long getInitInBackgroundTimeout() {
+        return mysql_init_in_background_timeout;
+    }
+
+    public int getTotpUsedCodesReadLimit() {
+        return mysql_totp_used_codes_read_limit;
+    }
+
+    public int getTotpUsedCodesPerUser() {
+        return mysql_totp_used_codes_per_user;
+    }
+
     public String getThirdPartyUserToTenantTable() {
         return addPrefixToTableName("thirdparty_user_to_tenant");
     }
@@ -377,6 +544,10 @@ public class MySQLConfig {
         return addPrefixToTableName("bulk_import_users");
     }
 
+    public String getBulkImportUsersStatusCountTable() {
+        return addPrefixToTableName("bulk_import_users_status_count");
+    }
+
     public String getOAuthClientsTable() {
         return addPrefixToTableName("oauth_clients");
     }
@@ -407,6 +578,18 @@ public class MySQLConfig {
 
     public String getWebAuthNAccountRecoveryTokenTable() { return   addPrefixToTableName("webauthn_account_recovery_tokens"); }
 
+    public String getIdentityIndexTable() {
+        return addPrefixToTableName("identity_index");
+    }
+
+    public String getSchemaVersionTable() {
+        return addPrefixToTableName("schema_version");
+    }
+
+    public String getLocksTable() {
+        return addPrefixToTableName("locks");
+    }
+
     public static ArrayList<ConfigFieldInfo> getConfigFieldsInfoForDashboard(Start start) {
         ArrayList<ConfigFieldInfo> result = new ArrayList<ConfigFieldInfo>();
 
@@ -513,6 +696,65 @@ public class MySQLConfig {
                                     + "'mysql_connection_pool_size'");
                 }
             }
+
+            if (mysql_connection_timeout <= 0) {
+                throw new InvalidConfigException("'mysql_connection_timeout' must be > 0");
+            }
+
+            // a background job that blocks on an AsyncStorage call holds one slot while the call waits for another
+            if (mysql_background_connection_pool_size != null && (mysql_background_connection_pool_size < 2
+                    || mysql_background_connection_pool_size > mysql_connection_pool_size)) {
+                throw new InvalidConfigException(
+                        "'mysql_background_connection_pool_size' must be >= 2 and less than or equal to "
+                                + "'mysql_connection_pool_size'");
+            }
+
+            if (mysql_background_connection_timeout <= 0) {
+                throw new InvalidConfigException("'mysql_background_connection_timeout' must be > 0");
+            }
+
+            if (mysql_bulk_connection_pool_size != null && (mysql_bulk_connection_pool_size <= 0
+                    || mysql_bulk_connection_pool_size > mysql_connection_pool_size)) {
+                throw new InvalidConfigException(
+                        "'mysql_bulk_connection_pool_size' must be > 0 and less than or equal to "
+                                + "'mysql_connection_pool_size'");
+            }
+
+            if (mysql_bulk_connection_timeout <= 0) {
+                throw new InvalidConfigException("'mysql_bulk_connection_timeout' must be > 0");
+            }
+
+            // requests have no share of their own, they get what background jobs and bulk import cannot take
+            if ((mysql_background_connection_pool_size != null || mysql_bulk_connection_pool_size != null)
+                    && getBackgroundConnectionPoolSize() + getBulkConnectionPoolSize() >= mysql_connection_pool_size) {
+                throw new InvalidConfigException(
+                        "'mysql_background_connection_pool_size' plus 'mysql_bulk_connection_pool_size' must be less "
+                                + "than 'mysql_connection_pool_size'");
+            }
+
+            if (mysql_webauthn_counter_write_interval < 0) {
+                throw new InvalidConfigException("'mysql_webauthn_counter_write_interval' must be >= 0");
+            }
+
+            if (mysql_session_cache_ttl < 0) {
+                throw new InvalidConfigException("'mysql_session_cache_ttl' must be >= 0");
+            }
+
+            if (mysql_session_cache_size <= 0) {
+                throw new InvalidConfigException("'mysql_session_cache_size' must be > 0");
+            }
+
+            if (mysql_totp_used_codes_read_limit <= 0) {
+                throw new InvalidConfigException("'mysql_totp_used_codes_read_limit' must be > 0");
+            }
+
+            if (mysql_totp_used_codes_per_user < 0) {
+                throw new InvalidConfigException("'mysql_totp_used_codes_per_user' must be >= 0");
+            }
+
+            if (mysql_init_in_background_timeout <= 0) {
+                throw new InvalidConfigException("'mysql_init_in_background_timeout' must be > 0");
+            }
         }
 
         // Normalisation
@@ -16,29 +16,70 @@
 
 package io.supertokens.storage.mysql.queries;
 
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
 import io.supertokens.pluginInterface.RowMapper;
 import io.supertokens.pluginInterface.bulkimport.BulkImportStorage.BULK_IMPORT_USER_STATUS;
 import io.supertokens.pluginInterface.bulkimport.BulkImportUser;
 import io.supertokens.pluginInterface.exceptions.StorageQueryException;
 import io.supertokens.pluginInterface.exceptions.StorageTransactionLogicException;
 import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.pluginInterface.sqlStorage.SQLStorage.TransactionIsolationLevel;
+import io.supertokens.storage.mysql.BulkImportBatchSizing;
+import io.supertokens.storage.mysql.BulkImportStatusCountReconciler;
 import io.supertokens.storage.mysql.PreparedStatementValueSetter;
+import io.supertokens.storage.mysql.ResourceDistributor;
 import io.supertokens.storage.mysql.Start;
 import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.output.Logging;
+import io.supertokens.storage.mysql.queries.utils.TabSeparatedRowsInputStream;
 import io.supertokens.storage.mysql.utils.Utils;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static io.supertokens.storage.mysql.QueryExecutorTemplate.*;
 
 public class BulkImportQueries {
+
+    // Gson holds no per call state, so a single instance can be shared across threads
+    private static final Gson GSON = new Gson();
+
+    // below this, LOAD DATA does not save enough over a batch insert to be worth the extra savepoint
+    private static final int MIN_USERS_FOR_LOAD_DATA = 100;
+
+    // keeps the statements (and the error messages in them) well below max_allowed_packet
+    private static final int MAX_USERS_PER_UPDATE = 1000;
+
+    // the count of an (app, status) is spread over this many rows, so that concurrent bulk import transactions do
+    // not all wait on the same counter row
+    private static final int STATUS_COUNT_SLOTS = 16;
+
+    // A random slot per thread, so transactions on different threads are spread over the slots, and a transaction
+    // (which runs on a single thread) updates the same rows every time it changes the counts. Two transactions that
+    // each updated rows of two slots could otherwise lock them in opposite orders and deadlock.
+    private static final ThreadLocal<Integer> STATUS_COUNT_SLOT = ThreadLocal.withInitial(
+            () -> ThreadLocalRandom.current().nextInt(STATUS_COUNT_SLOTS));
+
+    // only written by reconcileBulkImportUsersStatusCount
+    private static final int STATUS_COUNT_RECONCILE_SLOT = STATUS_COUNT_SLOTS;
+
     static String getQueryToCreateBulkImportUsersTable(Start start) {
         String tableName = Config.getConfig(start).getBulkImportUsersTable();
         return "CREATE TABLE IF NOT EXISTS " + tableName + " ("
@@ -56,6 +97,29 @@ public class BulkImportQueries {
                 + " );";
     }
 
+    static String getQueryToCreateBulkImportUsersStatusCountTable(Start start) {
+        String tableName = Config.getConfig(start).getBulkImportUsersStatusCountTable();
+        // @formatter:off
+        return "CREATE TABLE IF NOT EXISTS " + tableName + " ("
+                + "app_id VARCHAR(64) NOT NULL DEFAULT 'public',"
+                + "status VARCHAR(128) NOT NULL,"
+                + "slot SMALLINT NOT NULL,"
+                + "count BIGINT NOT NULL DEFAULT 0,"
+                + "PRIMARY KEY (app_id, status, slot),"
+                + "FOREIGN KEY (app_id)"
+                + " REFERENCES " + Config.getConfig(start).getAppsTable() + " (app_id) ON DELETE CASCADE"
+                + " );";
+        // @formatter:on
+    }
+
+    // runs right after the count table is created, to count the bulk import users that already exist
+    static String getQueryToBackfillBulkImportUsersStatusCount(Start start) {
+        return "INSERT INTO " + Config.getConfig(start).getBulkImportUsersStatusCountTable()
+                + " (app_id, status, slot, count) SELECT app_id, status, 0, COUNT(*) FROM "
+                + Config.getConfig(start).getBulkImportUsersTable()
+                + " WHERE status IS NOT NULL GROUP BY app_id, status";
+    }
+
     public static String getQueryToCreateStatusUpdatedAtIndex(Start start) {
         return "CREATE INDEX bulk_import_users_status_updated_at_index ON "
                 + Config.getConfig(start).getBulkImportUsersTable() + " (app_id, status, updated_at)";
@@ -76,6 +140,15 @@ public class BulkImportQueries {
         if(users == null || users.isEmpty()){
             return;
         }
+        long now = System.currentTimeMillis();
+        Map<String, Long> countChanges = new HashMap<>();
+        countChanges.put(BULK_IMPORT_USER_STATUS.NEW.toString(), (long) users.size());
+        if (users.size() >= MIN_USERS_FOR_LOAD_DATA && insertBulkImportUsersUsingLoadData_Transaction(start, con,
+                appIdentifier, users, now)) {
+            updateStatusCounts_Transaction(start, con, appIdentifier, countChanges);
+            return;
+        }
+
         String queryBuilder = "INSERT INTO " + Config.getConfig(start).getBulkImportUsersTable() +
                 " (id, app_id, raw_data, created_at, updated_at) VALUES "
                 + " (?, ?, ?, ?, ?)";
@@ -86,12 +159,96 @@ public class BulkImportQueries {
                     pst.setString(1, user.id);
                     pst.setString(2, appIdentifier.getAppId());
                     pst.setString(3, user.toRawDataForDbStorage());
-                    pst.setLong(4, System.currentTimeMillis());
-                    pst.setLong(5, System.currentTimeMillis());
+                    pst.setLong(4, now);
+                    pst.setLong(5, now);
                 });
             }
 
         executeBatch(con, queryBuilder, valueSetters);
+        updateStatusCounts_Transaction(start, con, appIdentifier, countChanges);
+    }
+
+    // Streams the rows to the server with LOAD DATA LOCAL INFILE, which skips the per row statement handling of a
+    // batch insert. Returns false (having inserted nothing) if the regular insert should be used instead: when the
+    // server has local_infile disabled, or when the load raised any warning. LOAD DATA LOCAL implies IGNORE, so a
+    // duplicate id or an unknown app skips the row and a value that is too long for its column is truncated, with
+    // only a warning in both cases. The regular insert then fails with the error that the caller expects.
+    private static boolean insertBulkImportUsersUsingLoadData_Transaction(Start start, Connection con,
+                                                                          AppIdentifier appIdentifier,
+                                                                          List<BulkImportUser> users, long now)
+            throws SQLException, StorageQueryException {
+        LoadDataState state = LoadDataState.getInstance(start);
+        if (state.disabled) {
+            return false;
+        }
+        String QUERY = "LOAD DATA LOCAL INFILE 'bulk_import_users.tsv' INTO TABLE "
+                + Config.getConfig(start).getBulkImportUsersTable()
+                + " CHARACTER SET utf8mb4 (id, app_id, raw_data, created_at, updated_at)";
+        Iterator<BulkImportUser> userIterator = users.iterator();
+        Iterator<Object[]> rows = new Iterator<Object[]>() {
+            @Override
+            public boolean hasNext() {
+                return userIterator.hasNext();
+            }
+
+            @Override
+            public Object[] next() {
+                BulkImportUser user = userIterator.next();
+                return new Object[]{user.id, appIdentifier.getAppId(), user.toRawDataForDbStorage(), now, now};
+            }
+        };
+
+        Savepoint savepoint = con.setSavepoint();
+        int insertedRows;
+        try {
+            insertedRows = loadDataLocalInfile(con, QUERY, new TabSeparatedRowsInputStream(rows));
+        } catch (SQLException e) {
+            con.rollback(savepoint);
+            if (isLocalInfileDisabledError(e)) {
+                state.disabled = true;
+                Logging.info(start, "LOAD DATA LOCAL INFILE is disabled on the database, so bulk import users " +
+                        "will be inserted using batched inserts", true);
+                return false;
+            }
+            throw e;
+        }
+        if (insertedRows != users.size() || getWarningCount(con) > 0) {
+            con.rollback(savepoint);
+            return false;
+        }
+        con.releaseSavepoint(savepoint);
+        return true;
+    }
+
+    // the warnings of the last statement, which SHOW does not clear
+    private static int getWarningCount(Connection con) throws SQLException, StorageQueryException {
+        return execute(con, "SHOW COUNT(*) WARNINGS", pst -> {
+        }, result -> result.next() ? result.getInt(1) : 0);
+    }
+
+    private static boolean isLocalInfileDisabledError(SQLException e) {
+        // 1148: ER_NOT_ALLOWED_COMMAND, 3948: ER_CLIENT_LOCAL_FILES_DISABLED, and the driver's own error if
+        // allowLocalInfile=false is set in the connection attributes
+        if (e.getErrorCode() == 1148 || e.getErrorCode() == 3948) {
+            return true;
+        }
+        String message = e.getMessage();
+        return message != null && message.toLowerCase().contains("local infile");
+    }
+
+    private static class LoadDataState extends ResourceDistributor.SingletonResource {
+        private static final String RESOURCE_KEY = "io.supertokens.storage.mysql.queries.BulkImportQueries";
+
+        private volatile boolean disabled = false;
+
+        private static LoadDataState getInstance(Start start) {
+            ResourceDistributor.SingletonResource instance = start.getResourceDistributor()
+                    .getResource(RESOURCE_KEY);
+            if (instance == null) {
+                instance = start.getResourceDistributor().setResource(RESOURCE_KEY, new LoadDataState());
+            }
+            return (LoadDataState) instance;
+        }
     }
 
     public static void updateBulkImportUserStatus_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
@@ -108,11 +265,29 @@ public class BulkImportQueries {
         parameters.add(appIdentifier.getAppId());
         parameters.add(bulkImportUserId);
 
+        // the bulk import cron updates users that it has claimed, so the user is almost always processing, and then
+        // the count changes follow from the number of updated rows without reading the row first
+        int updatedRows = update(con, query + " AND status = ?", pst -> {
+            for (int i = 0; i < parameters.size(); i++) {
+                pst.setObject(i + 1, parameters.get(i));
+            }
+            pst.setString(parameters.size() + 1, BULK_IMPORT_USER_STATUS.PROCESSING.toString());
+        });
+        if (updatedRows == 1) {
+            updateStatusCounts_Transaction(start, con, appIdentifier, moveCounts(
+                    Collections.singletonMap(BULK_IMPORT_USER_STATUS.PROCESSING.toString(), 1L), status.toString()));
+            return;
+        }
+
+        Map<String, Long> countChanges = countStatusesForUpdate_Transaction(start, con, appIdentifier,
+                Collections.singletonList(bulkImportUserId));
         update(con, query, pst -> {
             for (int i = 0; i < parameters.size(); i++) {
                 pst.setObject(i + 1, parameters.get(i));
             }
         });
+        updateStatusCounts_Transaction(start, con, appIdentifier,
+                moveCounts(countChanges, status.toString()));
     }
 
     public static List<BulkImportUser> getBulkImportUsersAndChangeStatusToProcessing(Start start,
@@ -120,7 +295,11 @@ public class BulkImportQueries {
             @Nonnull Integer limit)
             throws StorageQueryException, StorageTransactionLogicException {
 
-        return start.startTransaction(con -> {
+        // the batch is processed in one proxy storage transaction, so we claim fewer users when those transactions
+        // get slow or keep deadlocking.
+        int claimLimit = BulkImportBatchSizing.getInstance(start).claimLimit.get(limit);
+
+        List<BulkImportUser> claimedUsers = start.startTransaction(con -> {
             Connection sqlCon = (Connection) con.getConnection();
             try {
                 // NOTE: On average, we take about 66 seconds to process 1000 users. If, for any reason, the bulk import users were marked as processing but couldn't be processed within 10 minutes, we'll attempt to process them again.
@@ -135,13 +314,15 @@ public class BulkImportQueries {
     
 
                 List<BulkImportUser> bulkImportUsers = new ArrayList<>();
+                Map<String, Long> countsByStatus = new HashMap<>();
 
                 execute(sqlCon, selectQuery, pst -> {
                     pst.setString(1, appIdentifier.getAppId());
-                    pst.setInt(2, limit);
+                    pst.setInt(2, claimLimit);
                 }, result -> {
                     while (result.next()) {
                         bulkImportUsers.add(BulkImportUserRowMapper.getInstance().mapOrThrow(result));
+                        countsByStatus.merge(result.getString("status"), 1L, Long::sum);
                     }
                     return null;
                 });
@@ -150,26 +331,22 @@ public class BulkImportQueries {
                     return new ArrayList<>();
                 }
 
-                String updateQuery = "UPDATE " + Config.getConfig(start).getBulkImportUsersTable()
-                        + " SET status = ?, updated_at = ? WHERE app_id = ? AND id = ?";
-
-                List<PreparedStatementValueSetter> updateSetters = new ArrayList<>();
-                for(BulkImportUser user : bulkImportUsers){
-                    updateSetters.add(pst -> {
-                        pst.setString(1, BULK_IMPORT_USER_STATUS.PROCESSING.toString());
-                        pst.setLong(2, System.currentTimeMillis());
-                        pst.setString(3, appIdentifier.getAppId());
-                        pst.setObject(4, user.id);
-                    });
+                List<String> bulkImportUserIds = new ArrayList<>();
+                for (BulkImportUser user : bulkImportUsers) {
+                    bulkImportUserIds.add(user.id);
                 }
-
-                executeBatch(sqlCon, updateQuery, updateSetters);
+                updateBulkImportUsersStatus_Transaction(start, sqlCon, appIdentifier, bulkImportUserIds,
+                        BULK_IMPORT_USER_STATUS.PROCESSING, System.currentTimeMillis());
+                updateStatusCounts_Transaction(start, sqlCon, appIdentifier,
+                        moveCounts(countsByStatus, BULK_IMPORT_USER_STATUS.PROCESSING.toString()));
 
                 return bulkImportUsers;
             } catch (SQLException throwables) {
                 throw new StorageTransactionLogicException(throwables);
             }
         });
+        BulkImportStatusCountReconciler.addApp(start, appIdentifier);
+        return claimedUsers;
     }
 
     public static List<BulkImportUser> getBulkImportUsers(Start start, AppIdentifier appIdentifier,
@@ -217,48 +394,59 @@ public class BulkImportQueries {
     }
 
     public static List<String> deleteBulkImportUsers(Start start, AppIdentifier appIdentifier,
-            @Nonnull String[] bulkImportUserIds) throws SQLException, StorageQueryException {
+            @Nonnull String[] bulkImportUserIds) throws StorageQueryException, StorageTransactionLogicException {
         if (bulkImportUserIds.length == 0) {
             return new ArrayList<>();
         }
 
-        // This function needs to return the IDs of the deleted users. Since the DELETE query doesn't return the IDs of the deleted entries,
-        // we first perform a SELECT query to find all IDs that actually exist in the database. After deletion, we return these IDs.
-        String selectQuery = "SELECT id FROM " + Config.getConfig(start).getBulkImportUsersTable()
-        + " WHERE app_id = ? AND id IN (" + Utils
-                .generateCommaSeperatedQuestionMarks(bulkImportUserIds.length) + ")";
+        // runs in a transaction so that the status counts stay in sync with the deleted rows
+        return start.startTransaction(con -> {
+            Connection sqlCon = (Connection) con.getConnection();
+            try {
+                // This function needs to return the IDs of the deleted users. Since the DELETE query doesn't return the IDs of the deleted entries,
+                // we first perform a SELECT query to find all IDs that actually exist in the database. After deletion, we return these IDs.
+                String selectQuery = "SELECT id, status FROM " + Config.getConfig(start).getBulkImportUsersTable()
+                + " WHERE app_id = ? AND id IN (" + Utils
+                        .generateCommaSeperatedQuestionMarks(bulkImportUserIds.length) + ") FOR UPDATE";
 
-        List<String> deletedIds = new ArrayList<>();
+                List<String> deletedIds = new ArrayList<>();
+                Map<String, Long> countChanges = new HashMap<>();
 
-        execute(start, selectQuery, pst -> {
-            int index = 1;
-            pst.setString(index++, appIdentifier.getAppId());
-            for (String id : bulkImportUserIds) {
-                pst.setObject(index++, id);
-            }
-        }, result -> {
-            while (result.next()) {
-                deletedIds.add(result.getString("id"));
-            }
-            return null;
-        });
+                execute(sqlCon, selectQuery, pst -> {
+                    int index = 1;
+                    pst.setString(index++, appIdentifier.getAppId());
+                    for (String id : bulkImportUserIds) {
+                        pst.setObject(index++, id);
+                    }
+                }, result -> {
+                    while (result.next()) {
+                        deletedIds.add(result.getString("id"));
+                        countChanges.merge(result.getString("status"), -1L, Long::sum);
+                    }
+                    return null;
+                });
 
-        if (deletedIds.isEmpty()) {
-            return new ArrayList<>();
-        }
+                if (deletedIds.isEmpty()) {
+                    return new ArrayList<>();
+                }
 
-        String deleteQuery = "DELETE FROM " + Config.getConfig(start).getBulkImportUsersTable()
-                + " WHERE app_id = ? AND id IN (" + Utils.generateCommaSeperatedQuestionMarks(deletedIds.size()) + ")";
+                String deleteQuery = "DELETE FROM " + Config.getConfig(start).getBulkImportUsersTable()
+                        + " WHERE app_id = ? AND id IN (" + Utils.generateCommaSeperatedQuestionMarks(deletedIds.size()) + ")";
 
-        update(start, deleteQuery, pst -> {
-            int index = 1;
-            pst.setString(index++, appIdentifier.getAppId());
-            for (String id : deletedIds) {
-                pst.setObject(index++, id);
+                update(sqlCon, deleteQuery, pst -> {
+                    int index = 1;
+                    pst.setString(index++, appIdentifier.getAppId());
+                    for (String id : deletedIds) {
+                        pst.setObject(index++, id);
+                    }
+                });
+                updateStatusCounts_Transaction(start, sqlCon, appIdentifier, countChanges);
+
+                return deletedIds;
+            } catch (SQLException throwables) {
+                throw new StorageTransactionLogicException(throwables);
             }
         });
-
-        return deletedIds;
     }
 
     public static void deleteBulkImportUser_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
@@ -266,10 +454,30 @@ public class BulkImportQueries {
         String query = "DELETE FROM " + Config.getConfig(start).getBulkImportUsersTable()
                 + " WHERE app_id = ? AND id = ?";
 
+        // same as in updateBulkImportUserStatus_Transaction, the cron deletes users that it has claimed
+        int deletedRows = update(con, query + " AND status = ?", pst -> {
+            pst.setString(1, appIdentifier.getAppId());
+            pst.setString(2, bulkImportUserId);
+            pst.setString(3, BULK_IMPORT_USER_STATUS.PROCESSING.toString());
+        });
+        if (deletedRows == 1) {
+            updateStatusCounts_Transaction(start, con, appIdentifier,
+                    Collections.singletonMap(BULK_IMPORT_USER_STATUS.PROCESSING.toString(), -1L));
+            return;
+        }
+
+        Map<String, Long> countChanges = countStatusesForUpdate_Transaction(start, con, appIdentifier,
+                Collections.singletonList(bulkImportUserId));
         update(con, query, pst -> {
             pst.setString(1, appIdentifier.getAppId());
             pst.setString(2, bulkImportUserId);
         });
+
+        Map<String, Long> decrements = new HashMap<>();
+        for (Map.Entry<String, Long> entry : countChanges.entrySet()) {
+            decrements.put(entry.getKey(), -entry.getValue());
+        }
+        updateStatusCounts_Transaction(start, con, appIdentifier, decrements);
     }
 
     public static void updateBulkImportUserPrimaryUserId(Start start, AppIdentifier appIdentifier,
@@ -287,7 +495,8 @@ public class BulkImportQueries {
     }
 
     public static long getBulkImportUsersCount(Start start, AppIdentifier appIdentifier, @Nullable BULK_IMPORT_USER_STATUS status) throws SQLException, StorageQueryException {
-        String baseQuery = "SELECT COUNT(*) FROM " + Config.getConfig(start).getBulkImportUsersTable();
+        // reads the maintained counts, so that polling for progress does not scan bulk_import_users
+        String baseQuery = "SELECT COALESCE(SUM(count), 0) FROM " + Config.getConfig(start).getBulkImportUsersStatusCountTable();
         StringBuilder queryBuilder = new StringBuilder(baseQuery);
 
         List<Object> parameters = new ArrayList<>();
@@ -312,34 +521,234 @@ public class BulkImportQueries {
         });
     }
 
+    // Corrects the status counts of the app from bulk_import_users. The counts are kept up to date by every write
+    // in this class, so this only fixes drift (for example from writes by an older core version during an upgrade).
+    //
+    // Nothing is read with a lock, so writers never wait for this. Both tables are read from the same snapshot, in
+    // which every writer's transaction has either updated both or neither, so the difference between the two is the
+    // drift as of that snapshot. That difference is added to the counts, instead of overwriting them, so the changes
+    // that writers made after the snapshot are kept.
+    public static void reconcileBulkImportUsersStatusCount(Start start, AppIdentifier appIdentifier)
+            throws StorageQueryException, StorageTransactionLogicException {
+        start.startTransaction(con -> {
+            Connection sqlCon = (Connection) con.getConnection();
+            try {
+                // a second reconcile of the app waits here, and only takes its snapshot once this one is committed,
+                // so it does not apply the same correction again. This lock is not a read, so the snapshot is only
+                // taken by the first select below.
+                if (!LockQueries.lockKey_Transaction(start, sqlCon, appIdentifier,
+                        LockQueries.NAMESPACE_BULK_IMPORT_USERS_STATUS_COUNT, "")) {
+                    return null;
+                }
+                Map<String, Long> counts = execute(sqlCon, "SELECT status, COUNT(*) AS count FROM "
+                                + Config.getConfig(start).getBulkImportUsersTable()
+                                + " WHERE app_id = ? AND status IS NOT NULL GROUP BY status",
+                        pst -> pst.setString(1, appIdentifier.getAppId()), result -> {
+                            Map<String, Long> res = new HashMap<>();
+                            while (result.next()) {
+                                res.put(result.getString("status"), result.getLong("count"));
+                            }
+                            return res;
+                        });
+                Map<String, Long> counted = execute(sqlCon, "SELECT status, SUM(count) AS count FROM "
+                                + Config.getConfig(start).getBulkImportUsersStatusCountTable()
+                                + " WHERE app_id = ? GROUP BY status",
+                        pst -> pst.setString(1, appIdentifier.getAppId()), result -> {
+                            Map<String, Long> res = new HashMap<>();
+                            while (result.next()) {
+                                res.put(result.getString("status"), result.getLong("count"));
+                            }
+                            return res;
+                        });
+
+                Map<String, Long> drift = new HashMap<>(counts);
+                for (Map.Entry<String, Long> entry : counted.entrySet()) {
+                    drift.merge(entry.getKey(), -entry.getValue(), Long::sum);
+                }
+                // a slot of its own, so this does not wait for the count rows that writers hold either
+                updateStatusCounts_Transaction(start, sqlCon, appIdentifier, drift, STATUS_COUNT_RECONCILE_SLOT);
+                sqlCon.commit();
+            } catch (SQLException throwables) {
+                throw new StorageTransactionLogicException(throwables);
+            }
+            return null;
+        }, TransactionIsolationLevel.REPEATABLE_READ);
+    }
+
+    // locks the given users and returns how many of them are in each status
+    private static Map<String, Long> countStatusesForUpdate_Transaction(Start start, Connection con,
+                                                                        AppIdentifier appIdentifier,
+                                                                        List<String> bulkImportUserIds)
+            throws SQLException, StorageQueryException {
+        Map<String, Long> counts = new HashMap<>();
+        for (int from = 0; from < bulkImportUserIds.size(); from += MAX_USERS_PER_UPDATE) {
+            List<String> ids = bulkImportUserIds.subList(from,
+                    Math.min(from + MAX_USERS_PER_UPDATE, bulkImportUserIds.size()));
+            String query = "SELECT status FROM " + Config.getConfig(start).getBulkImportUsersTable()
+                    + " WHERE app_id = ? AND id IN (" + Utils.generateCommaSeperatedQuestionMarks(ids.size())
+                    + ") FOR UPDATE";
+            execute(con, query, pst -> {
+                int index = 1;
+                pst.setString(index++, appIdentifier.getAppId());
+                for (String id : ids) {
+                    pst.setString(index++, id);
+                }
+            }, result -> {
+                while (result.next()) {
+                    counts.merge(result.getString("status"), 1L, Long::sum);
+                }
+                return null;
+            });
+        }
+        return counts;
+    }
+
+    // the count changes for moving users, counted per current status, to newStatus
+    private static Map<String, Long> moveCounts(Map<String, Long> countsByCurrentStatus, String newStatus) {
+        Map<String, Long> changes = new HashMap<>();
+        long moved = 0;
+        for (Map.Entry<String, Long> entry : countsByCurrentStatus.entrySet()) {
+            changes.merge(entry.getKey(), -entry.getValue(), Long::sum);
+            moved += entry.getValue();
+        }
+        changes.merge(newStatus, moved, Long::sum);
+        return changes;
+    }
+
+    private static void updateStatusCounts_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
+                                                       Map<String, Long> countChanges)
+            throws SQLException, StorageQueryException {
+        updateStatusCounts_Transaction(start, con, appIdentifier, countChanges, STATUS_COUNT_SLOT.get());
+    }
+
+    private static void updateStatusCounts_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
+                                                       Map<String, Long> countChanges, int slot)
+            throws SQLException, StorageQueryException {
+        // sorted, so that all transactions lock the count rows in the same order
+        Map<String, Long> changes = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : countChanges.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != 0) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < changes.size(); i++) {
+            values.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+        }
+        String query = "INSERT INTO " + Config.getConfig(start).getBulkImportUsersStatusCountTable()
+                + " (app_id, status, slot, count) VALUES " + values
+                + " ON DUPLICATE KEY UPDATE count = count + VALUES(count)";
+        update(con, query, pst -> {
+            int index = 1;
+            for (Map.Entry<String, Long> entry : changes.entrySet()) {
+                pst.setString(index++, appIdentifier.getAppId());
+                pst.setString(index++, entry.getKey());
+                pst.setInt(index++, slot);
+                pst.setLong(index++, entry.getValue());
+            }
+        });
+    }
+
     public static void updateMultipleBulkImportUsersStatusToError_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
                                                                               @Nonnull Map<String,String> bulkImportUserIdToErrorMessage)
             throws SQLException, StorageQueryException {
         if(bulkImportUserIdToErrorMessage == null || bulkImportUserIdToErrorMessage.isEmpty()){
             return;
         }
-        BULK_IMPORT_USER_STATUS errorStatus = BULK_IMPORT_USER_STATUS.FAILED;
-        String query = "UPDATE " + Config.getConfig(start).getBulkImportUsersTable()
-                + " SET status = ?, error_msg = ?, updated_at = ? WHERE app_id = ? and id = ?";
-
-        List<PreparedStatementValueSetter> errorSetters = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        List<String> bulkImportUserIds = new ArrayList<>(bulkImportUserIdToErrorMessage.keySet());
+        Map<String, Long> countChanges = countStatusesForUpdate_Transaction(start, con, appIdentifier,
+                bulkImportUserIds);
+        for (int from = 0; from < bulkImportUserIds.size(); from += MAX_USERS_PER_UPDATE) {
+            List<String> ids = bulkImportUserIds.subList(from,
+                    Math.min(from + MAX_USERS_PER_UPDATE, bulkImportUserIds.size()));
+
+            // CASE instead of joining with a VALUES table, since the latter needs MySQL 8.0.19+
+            StringBuilder errorMessageCase = new StringBuilder("CASE id");
+            for (int i = 0; i < ids.size(); i++) {
+                errorMessageCase.append(" WHEN ? THEN ?");
+            }
+            errorMessageCase.append(" END");
+
+            String query = "UPDATE " + Config.getConfig(start).getBulkImportUsersTable()
+                    + " SET status = ?, error_msg = " + errorMessageCase + ", updated_at = ?"
+                    + " WHERE app_id = ? AND id IN (" + Utils.generateCommaSeperatedQuestionMarks(ids.size()) + ")";
+
+            update(con, query, pst -> {
+                int index = 1;
+                pst.setString(index++, BULK_IMPORT_USER_STATUS.FAILED.toString());
+                for (String id : ids) {
+                    pst.setString(index++, id);
+                    pst.setString(index++, bulkImportUserIdToErrorMessage.get(id));
+                }
+                pst.setLong(index++, now);
+                pst.setString(index++, appIdentifier.getAppId());
+                for (String id : ids) {
+                    pst.setString(index++, id);
+                }
+            });
+        }
+        updateStatusCounts_Transaction(start, con, appIdentifier,
+                moveCounts(countChanges, BULK_IMPORT_USER_STATUS.FAILED.toString()));
+    }
 
-        for(String bulkImportUserId : bulkImportUserIdToErrorMessage.keySet()){
-            errorSetters.add(pst -> {
-                pst.setString(1, errorStatus.toString());
-                pst.setString(2, bulkImportUserIdToErrorMessage.get(bulkImportUserId));
-                pst.setLong(3, System.currentTimeMillis());
-                pst.setString(4, appIdentifier.getAppId());
-                pst.setString(5, bulkImportUserId);
+    // moves all the given users to the same status with one UPDATE per MAX_USERS_PER_UPDATE users, and gives all of
+    // them the same updated_at.
+    private static void updateBulkImportUsersStatus_Transaction(Start start, Connection con,
+                                                                AppIdentifier appIdentifier,
+                                                                List<String> bulkImportUserIds,
+                                                                BULK_IMPORT_USER_STATUS status, long updatedAt)
+            throws SQLException, StorageQueryException {
+        for (int from = 0; from < bulkImportUserIds.size(); from += MAX_USERS_PER_UPDATE) {
+            List<String> ids = bulkImportUserIds.subList(from,
+                    Math.min(from + MAX_USERS_PER_UPDATE, bulkImportUserIds.size()));
+            String query = "UPDATE " + Config.getConfig(start).getBulkImportUsersTable()
+                    + " SET status = ?, updated_at = ?"
+                    + " WHERE app_id = ? AND id IN (" + Utils.generateCommaSeperatedQuestionMarks(ids.size()) + ")";
+
+            update(con, query, pst -> {
+                int index = 1;
+                pst.setString(index++, status.toString());
+                pst.setLong(index++, updatedAt);
+                pst.setString(index++, appIdentifier.getAppId());
+                for (String id : ids) {
+                    pst.setString(index++, id);
+                }
             });
         }
+    }
 
-        executeBatch(con, query, errorSetters);
+    // Same as BulkImportUser.fromRawDataFromDbStorage, but decodes the user straight from the UTF-8 bytes of raw_data
+    // instead of from a String of it. For large login method payloads this avoids a String (and its char array) of
+    // the whole column per claimed user.
+    public static BulkImportUser bulkImportUserFromRawDataStream(String id, InputStream rawData,
+                                                                 BULK_IMPORT_USER_STATUS status,
+                                                                 String primaryUserId, String errorMessage,
+                                                                 long createdAt, long updatedAt) throws IOException {
+        BulkImportUser user;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(rawData, StandardCharsets.UTF_8))) {
+            user = GSON.fromJson(reader, BulkImportUser.class);
+        }
+        user.id = id;
+        user.status = status;
+        user.primaryUserId = primaryUserId;
+        user.errorMessage = errorMessage;
+        user.createdAt = createdAt;
+        user.updatedAt = updatedAt;
+        return user;
     }
 
     private static class BulkImportUserRowMapper implements RowMapper<BulkImportUser, ResultSet> {
         private static final BulkImportUserRowMapper INSTANCE = new BulkImportUserRowMapper();
 
+        // raw_data smaller than this is read as a String and parsed in one go. Larger payloads are decoded straight
+        // from the driver's row buffer so that we do not allocate an intermediate String of the whole column.
+        private static final int STREAMING_THRESHOLD_BYTES = 8 * 1024;
+
         private BulkImportUserRowMapper() {
         }
 
@@ -349,10 +758,19 @@ public class BulkImportQueries {
 
         @Override
         public BulkImportUser map(ResultSet result) throws Exception {
-            return BulkImportUser.fromRawDataFromDbStorage(result.getString("id"), result.getString("raw_data"),
+            // the mariadb driver returns a stream over the already fetched row buffer here (getCharacterStream would
+            // build a String of the whole column first), so available() is the exact size of raw_data
+            InputStream rawData = result.getBinaryStream("raw_data");
+            if (rawData == null || rawData.available() < STREAMING_THRESHOLD_BYTES) {
+                return BulkImportUser.fromRawDataFromDbStorage(result.getString("id"), result.getString("raw_data"),
+                        BULK_IMPORT_USER_STATUS.valueOf(result.getString("status")),
+                        result.getString("primary_user_id"), result.getString("error_msg"),
+                        result.getLong("created_at"), result.getLong("updated_at"));
+            }
+            return bulkImportUserFromRawDataStream(result.getString("id"), rawData,
                     BULK_IMPORT_USER_STATUS.valueOf(result.getString("status")),
-                    result.getString("primary_user_id"), result.getString("error_msg"), result.getLong("created_at"),
-                    result.getLong("updated_at"));
+                    result.getString("primary_user_id"), result.getString("error_msg"),
+                    result.getLong("created_at"), result.getLong("updated_at"));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.queries;
+
+import com.google.gson.JsonObject;
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.storage.mysql.ConnectionPool;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.config.MySQLConfig;
+import io.supertokens.storage.mysql.utils.CompactIds;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.executeStreaming;
+import static io.supertokens.storage.mysql.config.Config.getConfig;
+
+/**
+ * Measures how much smaller the user id and session handle columns (and every index they are part of) would be if
+ * they were stored as BINARY(16) instead of as text, and whether the data allows it at all: external user ids from
+ * user id mappings and the session handles of non public tenants are not UUIDs, so a column can only be converted if
+ * every value in it is one (see {@link CompactIds}).
+ */
+public class CompactIdQueries {
+
+    private static final int FETCH_SIZE = 1000;
+
+    private static class IdColumn {
+        final String tableName;
+        final String columnName;
+
+        IdColumn(String tableName, String columnName) {
+            this.tableName = tableName;
+            this.columnName = columnName;
+        }
+    }
+
+    private static List<IdColumn> getIdColumns(Start start) {
+        MySQLConfig config = getConfig(start);
+        List<IdColumn> columns = new ArrayList<>();
+        columns.add(new IdColumn(config.getAppIdToUserIdTable(), "user_id"));
+        columns.add(new IdColumn(config.getAppIdToUserIdTable(), "primary_or_recipe_user_id"));
+        columns.add(new IdColumn(config.getUsersTable(), "user_id"));
+        columns.add(new IdColumn(config.getUsersTable(), "primary_or_recipe_user_id"));
+        columns.add(new IdColumn(config.getSessionInfoTable(), "session_handle"));
+        columns.add(new IdColumn(config.getSessionInfoTable(), "user_id"));
+        columns.add(new IdColumn(config.getUserIdMappingTable(), "supertokens_user_id"));
+        columns.add(new IdColumn(config.getEmailPasswordUsersTable(), "user_id"));
+        columns.add(new IdColumn(config.getPasswordlessUsersTable(), "user_id"));
+        columns.add(new IdColumn(config.getThirdPartyUsersTable(), "user_id"));
+        columns.add(new IdColumn(config.getIdentityIndexTable(), "user_id"));
+        columns.add(new IdColumn(config.getIdentityIndexTable(), "primary_user_id"));
+        return columns;
+    }
+
+    /**
+     * Reads every value of every id column, so this is a full scan of each of those tables, meant to be run by hand
+     * before deciding on a migration. Memory use does not depend on the table sizes.
+     */
+    public static JsonObject getReport(Start start) throws SQLException, StorageQueryException {
+        JsonObject tables = new JsonObject();
+        JsonObject columns = new JsonObject();
+        try (Connection con = ConnectionPool.getConnection(start)) {
+            for (IdColumn column : getIdColumns(start)) {
+                if (!tables.has(column.tableName)) {
+                    tables.add(column.tableName, getTableSizes(con, column.tableName));
+                }
+
+                long rows = 0;
+                long compactableRows = 0;
+                long savedBytesPerIndex = 0;
+                try (ResultSet result = executeStreaming(con,
+                        "SELECT " + column.columnName + " FROM " + column.tableName, null, FETCH_SIZE)) {
+                    while (result.next()) {
+                        String id = result.getString(1);
+                        rows++;
+                        if (CompactIds.isCompactable(id)) {
+                            compactableRows++;
+                            savedBytesPerIndex += id.getBytes(StandardCharsets.UTF_8).length
+                                    - CompactIds.COMPACT_LENGTH;
+                        }
+                    }
+                }
+
+                int indexes = getNumberOfIndexesWithColumn(con, column.tableName, column.columnName);
+                JsonObject info = new JsonObject();
+                info.addProperty("rows", rows);
+                info.addProperty("compactableRows", compactableRows);
+                info.addProperty("canBeConverted", rows == compactableRows);
+                info.addProperty("indexesWithColumn", indexes);
+                // lower bound: ignores page fill factor and the row / page overheads that shrink along with the rows
+                info.addProperty("estimatedSavedBytes", savedBytesPerIndex * indexes);
+                columns.add(column.tableName + "." + column.columnName, info);
+            }
+        }
+
+        JsonObject report = new JsonObject();
+        report.add("tables", tables);
+        report.add("columns", columns);
+        return report;
+    }
+
+    private static JsonObject getTableSizes(Connection con, String tableName)
+            throws SQLException, StorageQueryException {
+        // these are InnoDB's estimates, which may be cached by the server (see information_schema_stats_expiry)
+        String QUERY = "SELECT table_rows, data_length, index_length FROM information_schema.tables"
+                + " WHERE table_schema = DATABASE() AND table_name = ?";
+        return execute(con, QUERY, pst -> pst.setString(1, tableName), result -> {
+            JsonObject sizes = new JsonObject();
+            if (result.next()) {
+                sizes.addProperty("estimatedRows", result.getLong("table_rows"));
+                sizes.addProperty("primaryKeyBytes", result.getLong("data_length"));
+                sizes.addProperty("secondaryIndexBytes", result.getLong("index_length"));
+            }
+            return sizes;
+        });
+    }
+
+    // every column is stored in the primary key's leaf pages, and every secondary index of InnoDB has the primary key
+    // columns appended, so a primary key column is in all of the table's indexes
+    private static int getNumberOfIndexesWithColumn(Connection con, String tableName, String columnName)
+            throws SQLException, StorageQueryException {
+        String QUERY = "SELECT index_name, column_name FROM information_schema.statistics"
+                + " WHERE table_schema = DATABASE() AND table_name = ?";
+        return execute(con, QUERY, pst -> pst.setString(1, tableName), result -> {
+            Set<String> allIndexes = new HashSet<>();
+            Set<String> indexesWithColumn = new HashSet<>();
+            while (result.next()) {
+                String indexName = result.getString("index_name");
+                allIndexes.add(indexName);
+                if (columnName.equalsIgnoreCase(result.getString("column_name"))) {
+                    indexesWithColumn.add(indexName);
+                }
+            }
+            if (indexesWithColumn.contains("PRIMARY")) {
+                return allIndexes.size();
+            }
+            return indexesWithColumn.size() + 1;
+        });
+    }
+}
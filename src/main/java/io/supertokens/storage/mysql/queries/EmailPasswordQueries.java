@@ -144,6 +144,7 @@ public class EmailPasswordQueries {
                 pst.setString(3, userId);
             });
         }
+        IdentityIndexQueries.syncUser_Transaction(start, con, appIdentifier, userId);
     }
 
     public static void deleteAllPasswordResetTokensForUser_Transaction(Start start, Connection con,
@@ -310,6 +311,8 @@ public class EmailPasswordQueries {
                     });
                 }
 
+                IdentityIndexQueries.syncUser_Transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), userId);
+
                 UserInfoPartial userInfo = new UserInfoPartial(userId, email, passwordHash, timeJoined);
                 fillUserInfoWithTenantIds_transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), userInfo);
                 fillUserInfoWithVerified_transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), userInfo);
@@ -386,11 +389,26 @@ public class EmailPasswordQueries {
             executeBatch(sqlCon, emailpassword_users_QUERY, emailPasswordUsersSetters);
             executeBatch(sqlCon, emailpassword_users_to_tenant_QUERY, emailPasswordUsersToTenantSetters);
 
+            syncIdentityIndexForImportedUsers_Transaction(start, sqlCon, usersToSignUp);
+
         } catch (SQLException throwables) {
             throw new StorageTransactionLogicException(throwables);
         }
     }
 
+    private static void syncIdentityIndexForImportedUsers_Transaction(Start start, Connection sqlCon,
+                                                                      List<EmailPasswordImportUser> users)
+            throws SQLException, StorageQueryException {
+        Map<AppIdentifier, List<String>> appIdentifierToUserIds = new HashMap<>();
+        for (EmailPasswordImportUser user : users) {
+            appIdentifierToUserIds.computeIfAbsent(user.tenantIdentifier.toAppIdentifier(), k -> new ArrayList<>())
+                    .add(user.userId);
+        }
+        for (Map.Entry<AppIdentifier, List<String>> entry : appIdentifierToUserIds.entrySet()) {
+            IdentityIndexQueries.syncUsers_Transaction(start, sqlCon, entry.getKey(), entry.getValue());
+        }
+    }
+
     public static void deleteUser_Transaction(Connection sqlCon, Start start, AppIdentifier appIdentifier,
                                               String userId, boolean deleteUserIdMappingToo)
             throws StorageQueryException, SQLException {
@@ -639,6 +657,8 @@ public class EmailPasswordQueries {
                 pst.setString(7, userId);
             });
 
+            IdentityIndexQueries.syncUser_Transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), userId);
+
             return numRows > 0;
         }
     }
@@ -23,8 +23,10 @@ import io.supertokens.pluginInterface.exceptions.StorageTransactionLogicExceptio
 import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
 import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
 import io.supertokens.pluginInterface.sqlStorage.TransactionConnection;
+import io.supertokens.storage.mysql.ConnectionPool;
 import io.supertokens.storage.mysql.PreparedStatementValueSetter;
 import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.VerifiedEmailFilter;
 import io.supertokens.storage.mysql.config.Config;
 import io.supertokens.storage.mysql.utils.Utils;
 
@@ -32,6 +34,7 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static io.supertokens.storage.mysql.QueryExecutorTemplate.*;
 import static io.supertokens.storage.mysql.config.Config.getConfig;
@@ -95,6 +98,7 @@ public class EmailVerificationQueries {
                 pst.setString(2, userId);
                 pst.setString(3, email);
             });
+            VerifiedEmailFilter.getInstance(start).onVerified(start, appIdentifier, email);
         } else {
             String QUERY = "DELETE FROM " + getConfig(start).getEmailVerificationTable()
                     + " WHERE app_id = ? AND user_id = ? AND email = ?";
@@ -216,6 +220,9 @@ public class EmailVerificationQueries {
 
     public static boolean isEmailVerified(Start start, AppIdentifier appIdentifier, String userId, String email)
             throws SQLException, StorageQueryException {
+        if (!VerifiedEmailFilter.getInstance(start).mightBeVerified(start, appIdentifier, email)) {
+            return false;
+        }
         String QUERY = "SELECT * FROM " + getConfig(start).getEmailVerificationTable()
                 + " WHERE app_id = ? AND user_id = ? AND email = ?";
 
@@ -279,70 +286,14 @@ public class EmailVerificationQueries {
         if (userIdAndEmail == null || userIdAndEmail.isEmpty()) {
             return new ArrayList<>();
         }
-        List<String> emails = new ArrayList<>();
-        List<String> supertokensUserIds = new ArrayList<>();
-        for (UserIdAndEmail ue : userIdAndEmail) {
-            emails.add(ue.email);
-            supertokensUserIds.add(ue.userId);
-        }
-
-        // We have external user id stored in the email verification table, so we need to fetch the mapped userids for
-        // calculating the verified emails
-
-        HashMap<String, String> supertokensUserIdToExternalUserIdMap =
-                UserIdMappingQueries.getUserIdMappingWithUserIds_Transaction(
-                        start,
-                        sqlCon, appIdentifier, supertokensUserIds);
-        HashMap<String, String> externalUserIdToSupertokensUserIdMap = new HashMap<>();
-
-        List<String> supertokensOrExternalUserIdsToQuery = new ArrayList<>();
-        for (String userId : supertokensUserIds) {
-            if (supertokensUserIdToExternalUserIdMap.containsKey(userId)) {
-                supertokensOrExternalUserIdsToQuery.add(supertokensUserIdToExternalUserIdMap.get(userId));
-                externalUserIdToSupertokensUserIdMap.put(supertokensUserIdToExternalUserIdMap.get(userId), userId);
-            } else {
-                supertokensOrExternalUserIdsToQuery.add(userId);
-                externalUserIdToSupertokensUserIdMap.put(userId, userId);
-            }
-        }
-
-        Map<String, String> supertokensOrExternalUserIdToEmailMap = new HashMap<>();
-        for (UserIdAndEmail ue : userIdAndEmail) {
-            String supertokensOrExternalUserId = ue.userId;
-            if (supertokensUserIdToExternalUserIdMap.containsKey(supertokensOrExternalUserId)) {
-                supertokensOrExternalUserId = supertokensUserIdToExternalUserIdMap.get(supertokensOrExternalUserId);
-            }
-            if (supertokensOrExternalUserIdToEmailMap.containsKey(supertokensOrExternalUserId)) {
-                throw new RuntimeException("Found a bug!");
-            }
-            supertokensOrExternalUserIdToEmailMap.put(supertokensOrExternalUserId, ue.email);
+        userIdAndEmail = VerifiedEmailFilter.getInstance(start).filterMightBeVerified(start, appIdentifier,
+                userIdAndEmail);
+        if (userIdAndEmail.isEmpty()) {
+            return new ArrayList<>();
         }
-
-        String QUERY = "SELECT * FROM " + getConfig(start).getEmailVerificationTable()
-                + " WHERE app_id = ? AND user_id IN (" +
-                Utils.generateCommaSeperatedQuestionMarks(supertokensOrExternalUserIdsToQuery.size()) +
-                ") AND email IN (" + Utils.generateCommaSeperatedQuestionMarks(emails.size()) + ")";
-
-        return execute(sqlCon, QUERY, pst -> {
-            pst.setString(1, appIdentifier.getAppId());
-            int index = 2;
-            for (String userId : supertokensOrExternalUserIdsToQuery) {
-                pst.setString(index++, userId);
-            }
-            for (String email : emails) {
-                pst.setString(index++, email);
-            }
-        }, result -> {
-            List<String> res = new ArrayList<>();
-            while (result.next()) {
-                String supertokensOrExternalUserId = result.getString("user_id");
-                String email = result.getString("email");
-                if (Objects.equals(supertokensOrExternalUserIdToEmailMap.get(supertokensOrExternalUserId), email)) {
-                    res.add(externalUserIdToSupertokensUserIdMap.get(supertokensOrExternalUserId));
-                }
-            }
-            return res;
-        });
+        return execute(sqlCon, getIsEmailVerifiedQuery(start, userIdAndEmail),
+                getIsEmailVerifiedValueSetter(appIdentifier, userIdAndEmail),
+                EmailVerificationQueries::getVerifiedUserIds);
     }
 
     public static List<String> isEmailVerified(Start start, AppIdentifier appIdentifier,
@@ -351,65 +302,70 @@ public class EmailVerificationQueries {
         if (userIdAndEmail == null || userIdAndEmail.isEmpty()) {
             return new ArrayList<>();
         }
-        List<String> emails = new ArrayList<>();
-        List<String> supertokensUserIds = new ArrayList<>();
-
-        for (UserIdAndEmail ue : userIdAndEmail) {
-            emails.add(ue.email);
-            supertokensUserIds.add(ue.userId);
-        }
-        // We have external user id stored in the email verification table, so we need to fetch the mapped userids for
-        // calculating the verified emails
-        HashMap<String, String> supertokensUserIdToExternalUserIdMap = UserIdMappingQueries.getUserIdMappingWithUserIds(
-                start,
-                appIdentifier, supertokensUserIds);
-        HashMap<String, String> externalUserIdToSupertokensUserIdMap = new HashMap<>();
-        List<String> supertokensOrExternalUserIdsToQuery = new ArrayList<>();
-        for (String userId : supertokensUserIds) {
-            if (supertokensUserIdToExternalUserIdMap.containsKey(userId)) {
-                supertokensOrExternalUserIdsToQuery.add(supertokensUserIdToExternalUserIdMap.get(userId));
-                externalUserIdToSupertokensUserIdMap.put(supertokensUserIdToExternalUserIdMap.get(userId), userId);
-            } else {
-                supertokensOrExternalUserIdsToQuery.add(userId);
-                externalUserIdToSupertokensUserIdMap.put(userId, userId);
-            }
+        userIdAndEmail = VerifiedEmailFilter.getInstance(start).filterMightBeVerified(start, appIdentifier,
+                userIdAndEmail);
+        if (userIdAndEmail.isEmpty()) {
+            return new ArrayList<>();
         }
+        return execute(start, getIsEmailVerifiedQuery(start, userIdAndEmail),
+                getIsEmailVerifiedValueSetter(appIdentifier, userIdAndEmail),
+                EmailVerificationQueries::getVerifiedUserIds);
+    }
 
-        Map<String, String> supertokensOrExternalUserIdToEmailMap = new HashMap<>();
+    // We have external user id stored in the email verification table, so the verified email of a user that has an id
+    // mapping is stored against the external user id. The first part of the UNION finds the pairs of users without a
+    // mapping and the second one the pairs of users with one, so the mapping is resolved in the same round trip. Both
+    // compare exact (user_id, email) pairs, which MySQL turns into one primary key seek per pair (instead of looking
+    // at every combination of the given user ids and emails).
+    private static String getIsEmailVerifiedQuery(Start start, List<UserIdAndEmail> userIdAndEmail) {
+        Set<String> supertokensUserIds = new HashSet<>();
         for (UserIdAndEmail ue : userIdAndEmail) {
-            String supertokensOrExternalUserId = ue.userId;
-            if (supertokensUserIdToExternalUserIdMap.containsKey(supertokensOrExternalUserId)) {
-                supertokensOrExternalUserId = supertokensUserIdToExternalUserIdMap.get(supertokensOrExternalUserId);
-            }
-            if (supertokensOrExternalUserIdToEmailMap.containsKey(supertokensOrExternalUserId)) {
+            if (!supertokensUserIds.add(ue.userId)) {
                 throw new RuntimeException("Found a bug!");
             }
-            supertokensOrExternalUserIdToEmailMap.put(supertokensOrExternalUserId, ue.email);
         }
-        String QUERY = "SELECT * FROM " + getConfig(start).getEmailVerificationTable()
-                + " WHERE app_id = ? AND user_id IN (" +
-                Utils.generateCommaSeperatedQuestionMarks(supertokensOrExternalUserIdsToQuery.size()) +
-                ") AND email IN (" + Utils.generateCommaSeperatedQuestionMarks(emails.size()) + ")";
-        return execute(start, QUERY, pst -> {
-            pst.setString(1, appIdentifier.getAppId());
-            int index = 2;
-            for (String userId : supertokensOrExternalUserIdsToQuery) {
-                pst.setString(index++, userId);
+        String emailVerificationTable = getConfig(start).getEmailVerificationTable();
+        String userIdMappingTable = getConfig(start).getUserIdMappingTable();
+        return "SELECT ev.user_id AS supertokens_user_id FROM " + emailVerificationTable + " ev"
+                + " WHERE (ev.app_id, ev.user_id, ev.email) IN ("
+                + Utils.generateCommaSeperatedQuestionMarkTuples(userIdAndEmail.size(), 3) + ")"
+                + " AND NOT EXISTS (SELECT 1 FROM " + userIdMappingTable + " m"
+                + " WHERE m.app_id = ev.app_id AND m.supertokens_user_id = ev.user_id)"
+                + " UNION ALL"
+                + " SELECT m.supertokens_user_id FROM " + userIdMappingTable + " m"
+                + " JOIN " + emailVerificationTable + " ev ON ev.app_id = m.app_id AND ev.user_id = m.external_user_id"
+                + " WHERE m.app_id = ? AND m.supertokens_user_id IN ("
+                + Utils.generateCommaSeperatedQuestionMarks(userIdAndEmail.size()) + ")"
+                + " AND (m.supertokens_user_id, ev.email) IN ("
+                + Utils.generateCommaSeperatedQuestionMarkTuples(userIdAndEmail.size(), 2) + ")";
+    }
+
+    private static PreparedStatementValueSetter getIsEmailVerifiedValueSetter(AppIdentifier appIdentifier,
+                                                                              List<UserIdAndEmail> userIdAndEmail) {
+        return pst -> {
+            int index = 1;
+            for (UserIdAndEmail ue : userIdAndEmail) {
+                pst.setString(index++, appIdentifier.getAppId());
+                pst.setString(index++, ue.userId);
+                pst.setString(index++, ue.email);
             }
-            for (String email : emails) {
-                pst.setString(index++, email);
+            pst.setString(index++, appIdentifier.getAppId());
+            for (UserIdAndEmail ue : userIdAndEmail) {
+                pst.setString(index++, ue.userId);
             }
-        }, result -> {
-            List<String> res = new ArrayList<>();
-            while (result.next()) {
-                String supertokensOrExternalUserId = result.getString("user_id");
-                String email = result.getString("email");
-                if (Objects.equals(supertokensOrExternalUserIdToEmailMap.get(supertokensOrExternalUserId), email)) {
-                    res.add(externalUserIdToSupertokensUserIdMap.get(supertokensOrExternalUserId));
-                }
+            for (UserIdAndEmail ue : userIdAndEmail) {
+                pst.setString(index++, ue.userId);
+                pst.setString(index++, ue.email);
             }
-            return res;
-        });
+        };
+    }
+
+    private static List<String> getVerifiedUserIds(ResultSet result) throws SQLException {
+        List<String> res = new ArrayList<>();
+        while (result.next()) {
+            res.add(result.getString("supertokens_user_id"));
+        }
+        return res;
     }
 
     public static void deleteUserInfo_Transaction(Connection sqlCon, Start start, AppIdentifier appIdentifier,
@@ -453,11 +409,14 @@ public class EmailVerificationQueries {
         String QUERY = "DELETE FROM " + getConfig(start).getEmailVerificationTable()
                 + " WHERE app_id = ? AND user_id = ? AND email = ?";
 
-        update(start, QUERY, pst -> {
+        int numRows = update(start, QUERY, pst -> {
             pst.setString(1, appIdentifier.getAppId());
             pst.setString(2, userId);
             pst.setString(3, email);
         });
+        if (numRows > 0) {
+            VerifiedEmailFilter.getInstance(start).onUnverified(start, appIdentifier, email);
+        }
     }
 
     public static void revokeAllTokens(Start start, TenantIdentifier tenantIdentifier, String userId, String email)
@@ -523,6 +482,38 @@ public class EmailVerificationQueries {
         }
 
         executeBatch(con, QUERY, setters);
+        if (isEmailVerified) {
+            for (String email : emailToUserIds.values()) {
+                VerifiedEmailFilter.getInstance(start).onVerified(start, appIdentifier, email);
+            }
+        }
+    }
+
+    public static long getVerifiedEmailsCount(Start start, AppIdentifier appIdentifier)
+            throws SQLException, StorageQueryException {
+        String QUERY = "SELECT COUNT(*) as total FROM " + getConfig(start).getEmailVerificationTable()
+                + " WHERE app_id = ?";
+
+        return execute(start, QUERY, pst -> pst.setString(1, appIdentifier.getAppId()), result -> {
+            if (result.next()) {
+                return result.getLong("total");
+            }
+            return 0L;
+        });
+    }
+
+    // streams the verified emails of the app on a connection of its own, so the whole table is never in memory.
+    public static void forEachVerifiedEmail(Start start, AppIdentifier appIdentifier, Consumer<String> consumer)
+            throws SQLException, StorageQueryException {
+        String QUERY = "SELECT email FROM " + getConfig(start).getEmailVerificationTable() + " WHERE app_id = ?";
+
+        try (Connection con = ConnectionPool.getConnection(start);
+             ResultSet result = executeStreaming(con, QUERY, pst -> pst.setString(1, appIdentifier.getAppId()),
+                     1000)) {
+            while (result.next()) {
+                consumer.accept(result.getString("email"));
+            }
+        }
     }
 
     public static Set<String> findUserIdsBeingUsedForEmailVerification(Start start, AppIdentifier appIdentifier, List<String> userIds)
@@ -28,13 +28,19 @@ import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
 import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
 import io.supertokens.storage.mysql.ConnectionPool;
 import io.supertokens.storage.mysql.PreparedStatementValueSetter;
+import io.supertokens.storage.mysql.SessionInfoCache;
 import io.supertokens.storage.mysql.Start;
 import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.config.MySQLConfig;
+import io.supertokens.storage.mysql.output.Logging;
 import io.supertokens.storage.mysql.utils.Utils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
@@ -43,6 +49,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import static io.supertokens.storage.mysql.PreparedStatementValueSetter.NO_OP_SETTER;
+import static io.supertokens.storage.mysql.ProcessState.PROCESS_STATE.CHANGING_INDEXES;
 import static io.supertokens.storage.mysql.ProcessState.PROCESS_STATE.CREATING_NEW_TABLE;
 import static io.supertokens.storage.mysql.ProcessState.getInstance;
 import static io.supertokens.storage.mysql.QueryExecutorTemplate.*;
@@ -56,20 +63,6 @@ import static io.supertokens.storage.mysql.queries.UserMetadataQueries.getQueryT
 
 public class GeneralQueries {
 
-    private static boolean doesTableExists(Start start, Connection con, String tableName)
-            throws SQLException, StorageQueryException {
-        try {
-            String QUERY = "SELECT 1 FROM " + tableName + " LIMIT 1";
-            execute(con, QUERY, NO_OP_SETTER, result -> null);
-            return true;
-        } catch (SQLException | StorageQueryException e) {
-            if (e.getMessage().contains(tableName) && e.getMessage().contains("doesn't exist")) {
-                return false;
-            }
-            throw e;
-        }
-    }
-
     static String getQueryToCreateUsersTable(Start start) {
         // @formatter:off
         return "CREATE TABLE IF NOT EXISTS " + Config.getConfig(start).getUsersTable() + " ("
@@ -201,322 +194,390 @@ public class GeneralQueries {
                 + "(user_id);";
     }
 
-    public static void createTablesIfNotExists(Start start, Connection con) throws SQLException, StorageQueryException {
-        if (!doesTableExists(start, con, Config.getConfig(start).getAppsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateAppsTable(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getTenantsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateTenantsTable(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getKeyValueTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateKeyValueTable(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getAppIdToUserIdTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateAppIdToUserIdTable(start), NO_OP_SETTER);
-
-            update(con, getQueryToCreatePrimaryUserIdIndexForAppIdToUserIdTable(start), NO_OP_SETTER);
-            update(con, getQueryToCreateUserIdIndexForAppIdToUserIdTable(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getUsersTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateUsersTable(start), NO_OP_SETTER);
-
-            // index
-            update(con, getQueryToCreateUserPaginationIndex1(start), NO_OP_SETTER);
-            update(con, getQueryToCreateUserPaginationIndex3(start), NO_OP_SETTER);
-            update(con, getQueryToCreatePrimaryUserId(start), NO_OP_SETTER);
-            update(con, getQueryToCreateRecipeIdIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getUserLastActiveTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, ActiveUsersQueries.getQueryToCreateUserLastActiveTable(start), NO_OP_SETTER);
-
-            // index
-            update(con, ActiveUsersQueries.getQueryToCreateLastActiveTimeIndexForUserLastActiveTable(start),
-                    NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getAccessTokenSigningKeysTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateAccessTokenSigningKeysTable(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getSessionInfoTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateSessionInfoTable(start), NO_OP_SETTER);
-
-            // index
-            update(con, getQueryToCreateSessionExpiryIndex(start), NO_OP_SETTER);
-            update(con, getQueryToCreateSessionAppIdUserIdIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getTenantConfigsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, MultitenancyQueries.getQueryToCreateTenantConfigsTable(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getTenantFirstFactorsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, MultitenancyQueries.getQueryToCreateFirstFactorsTable(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getTenantRequiredSecondaryFactorsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, MultitenancyQueries.getQueryToCreateRequiredSecondaryFactorsTable(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getTenantThirdPartyProvidersTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, MultitenancyQueries.getQueryToCreateTenantThirdPartyProvidersTable(start),
-                    NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getTenantThirdPartyProviderClientsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, MultitenancyQueries.getQueryToCreateTenantThirdPartyProviderClientsTable(start),
-                    NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getEmailPasswordUsersTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, EmailPasswordQueries.getQueryToCreateUsersTable(start), NO_OP_SETTER);
-
-            // index
-            update(con, EmailPasswordQueries.getQueryToCreateEmailPasswordUsersEmailIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getEmailPasswordUserToTenantTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, EmailPasswordQueries.getQueryToCreateEmailPasswordUserToTenantTable(start),
-                    NO_OP_SETTER);
-
-            // index
-            update(con, EmailPasswordQueries.getQueryToCreateEmailPasswordUserToTenantEmailIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getPasswordResetTokensTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreatePasswordResetTokensTable(start), NO_OP_SETTER);
-            // index
-            update(con, getQueryToCreatePasswordResetTokenExpiryIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getEmailVerificationTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateEmailVerificationTable(start), NO_OP_SETTER);
-
-            //index
-            update(con, getQueryToCreateEmailVerificationVerifiedEmailsAppIdIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getEmailVerificationTokensTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateEmailVerificationTokensTable(start), NO_OP_SETTER);
-            // index
-            update(con, getQueryToCreateEmailVerificationTokenExpiryIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getThirdPartyUsersTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, ThirdPartyQueries.getQueryToCreateUsersTable(start), NO_OP_SETTER);
-            // index
-            update(con, ThirdPartyQueries.getQueryToThirdPartyUserEmailIndex(start), NO_OP_SETTER);
-            update(con, ThirdPartyQueries.getQueryToThirdPartyUserIdIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getThirdPartyUserToTenantTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, ThirdPartyQueries.getQueryToCreateThirdPartyUserToTenantTable(start), NO_OP_SETTER);
-
-            // index
-            update(con, ThirdPartyQueries.getQueryToCreateThirdPartyUserToTenantThirdPartyUserIdIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getJWTSigningKeysTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateJWTSigningTable(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getPasswordlessUsersTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, PasswordlessQueries.getQueryToCreateUsersTable(start), NO_OP_SETTER);
-
-            // index
-            update(con, PasswordlessQueries.getQueryToCreatePasswordlessUsersEmailIndex(start), NO_OP_SETTER);
-            update(con, PasswordlessQueries.getQueryToCreatePasswordlessUsersPhoneNumberIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getPasswordlessUserToTenantTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, PasswordlessQueries.getQueryToCreatePasswordlessUserToTenantTable(start),
-                    NO_OP_SETTER);
-
-            // index
-            update(con, PasswordlessQueries.getQueryToCreatePasswordlessUserToTenantEmailIndex(start), NO_OP_SETTER);
-            update(con, PasswordlessQueries.getQueryToCreatePasswordlessUserToTenantPhoneNumberIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getPasswordlessDevicesTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateDevicesTable(start), NO_OP_SETTER);
-            // index
-            update(con, getQueryToCreateDeviceEmailIndex(start), NO_OP_SETTER);
-            update(con, getQueryToCreateDevicePhoneNumberIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getPasswordlessCodesTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateCodesTable(start), NO_OP_SETTER);
-            // index
-            update(con, getQueryToCreateCodeCreatedAtIndex(start), NO_OP_SETTER);
-        }
-
-        if (!doesTableExists(start, con, Config.getConfig(start).getUserMetadataTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, getQueryToCreateUserMetadataTable(start), NO_OP_SETTER);
-        }
+    // bump this whenever a table or index is added or changed. The stored fingerprint also covers the actual DDL
+    // (and so the configured table names), so forgetting to bump this only costs one extra full check.
+    public static final int SCHEMA_VERSION = 6;
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getRolesTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, UserRolesQueries.getQueryToCreateRolesTable(start), NO_OP_SETTER);
-        }
+    // MySQL error codes for when the index to add already exists / the one to drop does not
+    private static final int ER_DUP_KEYNAME = 1061;
+    private static final int ER_CANT_DROP_FIELD_OR_KEY = 1091;
+    // MySQL error code for a query on a table that does not exist
+    private static final int ER_NO_SUCH_TABLE = 1146;
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getUserRolesPermissionsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, UserRolesQueries.getQueryToCreateRolePermissionsTable(start), NO_OP_SETTER);
-            // index
-            update(con, UserRolesQueries.getQueryToCreateRolePermissionsPermissionIndex(start), NO_OP_SETTER);
-        }
+    // how long an ALTER TABLE waits for the table's metadata lock. While it waits, every other query on the table
+    // queues behind it, so this is kept short and the change is retried on the next start instead.
+    private static final int INDEX_CHANGE_LOCK_WAIT_TIMEOUT_SECONDS = 30;
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getUserRolesTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, UserRolesQueries.getQueryToCreateUserRolesTable(start), NO_OP_SETTER);
-            // index
-            update(con, UserRolesQueries.getQueryToCreateUserRolesRoleIndex(start), NO_OP_SETTER);
-            update(con, UserRolesQueries.getQueryToCreateUserRolesUserIdAppIdIndex(start), NO_OP_SETTER);
-        }
+    private static class SchemaTable {
+        final String tableName;
+        final List<String> queries;
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getUserIdMappingTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, UserIdMappingQueries.getQueryToCreateUserIdMappingTable(start), NO_OP_SETTER);
+        SchemaTable(String tableName, String... queries) {
+            this.tableName = tableName;
+            this.queries = Arrays.asList(queries);
         }
+    }
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getDashboardUsersTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, DashboardQueries.getQueryToCreateDashboardUsersTable(start), NO_OP_SETTER);
+    // An index that is added to (or replaces an index of) a table after the table was first shipped. New installs get
+    // it from the table's CREATE INDEX queries, existing ones from an online ALTER TABLE, see changeIndexes.
+    private static class SchemaIndex {
+        final String tableName;
+        final String indexName;
+        final String columns;
+        // the index that this one makes redundant, dropped in the same statement. Can be null
+        final String replacedIndexName;
+
+        SchemaIndex(String tableName, String indexName, String columns, String replacedIndexName) {
+            this.tableName = tableName;
+            this.indexName = indexName;
+            this.columns = columns;
+            this.replacedIndexName = replacedIndexName;
+        }
+
+        // INPLACE with LOCK=NONE builds the index while reads and writes to the table go on. If the server cannot
+        // do that for this change, it fails the statement instead of silently locking the table.
+        String getAlterQuery(boolean add, boolean drop) {
+            List<String> changes = new ArrayList<>();
+            if (add) {
+                changes.add("ADD INDEX " + indexName + " (" + columns + ")");
+            }
+            if (drop) {
+                changes.add("DROP INDEX " + replacedIndexName);
+            }
+            return "ALTER TABLE " + tableName + " " + String.join(", ", changes) + ", ALGORITHM=INPLACE, LOCK=NONE";
         }
+    }
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getDashboardSessionsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, DashboardQueries.getQueryToCreateDashboardUserSessionsTable(start), NO_OP_SETTER);
-            // index
-            update(con, DashboardQueries.getQueryToCreateDashboardUserSessionsExpiryIndex(start),
-                    NO_OP_SETTER);
-        }
+    private static List<SchemaIndex> getSchemaIndexes(Start start) {
+        MySQLConfig config = Config.getConfig(start);
+        List<SchemaIndex> indexes = new ArrayList<>();
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getTotpUsersTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, TOTPQueries.getQueryToCreateUsersTable(start), NO_OP_SETTER);
-        }
+        indexes.add(new SchemaIndex(config.getSessionInfoTable(), SESSION_USER_ID_INDEX_NAME,
+                SESSION_USER_ID_INDEX_COLUMNS, OLD_SESSION_USER_ID_INDEX_NAME));
+        indexes.add(new SchemaIndex(config.getWebAuthNCredentialsTable(),
+                WebAuthNQueries.WEBAUTHN_CREDENTIALS_ID_INDEX_NAME,
+                WebAuthNQueries.WEBAUTHN_CREDENTIALS_ID_INDEX_COLUMNS, null));
+        indexes.add(new SchemaIndex(config.getTotpUsedCodesTable(), TOTPQueries.USED_CODES_VALID_INDEX_NAME,
+                TOTPQueries.USED_CODES_VALID_INDEX_COLUMNS, null));
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getTotpUserDevicesTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, TOTPQueries.getQueryToCreateUserDevicesTable(start), NO_OP_SETTER);
-        }
+        return indexes;
+    }
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getTotpUsedCodesTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, TOTPQueries.getQueryToCreateUsedCodesTable(start), NO_OP_SETTER);
-            // index:
-            update(con, TOTPQueries.getQueryToCreateUsedCodesExpiryTimeIndex(start), NO_OP_SETTER);
-        }
+    // tables in the order in which they need to be created (because of foreign keys), each with its CREATE TABLE
+    // query followed by the queries for its indexes.
+    private static List<SchemaTable> getSchemaTables(Start start) {
+        MySQLConfig config = Config.getConfig(start);
+        List<SchemaTable> tables = new ArrayList<>();
+
+        tables.add(new SchemaTable(config.getAppsTable(), getQueryToCreateAppsTable(start)));
+        tables.add(new SchemaTable(config.getTenantsTable(), getQueryToCreateTenantsTable(start)));
+        tables.add(new SchemaTable(config.getKeyValueTable(), getQueryToCreateKeyValueTable(start)));
+        tables.add(new SchemaTable(config.getAppIdToUserIdTable(),
+                getQueryToCreateAppIdToUserIdTable(start),
+                getQueryToCreatePrimaryUserIdIndexForAppIdToUserIdTable(start),
+                getQueryToCreateUserIdIndexForAppIdToUserIdTable(start)));
+        tables.add(new SchemaTable(config.getUsersTable(),
+                getQueryToCreateUsersTable(start),
+                getQueryToCreateUserPaginationIndex1(start),
+                getQueryToCreateUserPaginationIndex3(start),
+                getQueryToCreatePrimaryUserId(start),
+                getQueryToCreateRecipeIdIndex(start)));
+        tables.add(new SchemaTable(config.getUserLastActiveTable(),
+                ActiveUsersQueries.getQueryToCreateUserLastActiveTable(start),
+                ActiveUsersQueries.getQueryToCreateLastActiveTimeIndexForUserLastActiveTable(start)));
+        tables.add(new SchemaTable(config.getAccessTokenSigningKeysTable(),
+                getQueryToCreateAccessTokenSigningKeysTable(start)));
+        tables.add(new SchemaTable(config.getSessionInfoTable(),
+                getQueryToCreateSessionInfoTable(start),
+                getQueryToCreateSessionExpiryIndex(start),
+                getQueryToCreateSessionAppIdUserIdIndex(start)));
+        tables.add(new SchemaTable(config.getTenantConfigsTable(),
+                MultitenancyQueries.getQueryToCreateTenantConfigsTable(start)));
+        tables.add(new SchemaTable(config.getTenantFirstFactorsTable(),
+                MultitenancyQueries.getQueryToCreateFirstFactorsTable(start)));
+        tables.add(new SchemaTable(config.getTenantRequiredSecondaryFactorsTable(),
+                MultitenancyQueries.getQueryToCreateRequiredSecondaryFactorsTable(start)));
+        tables.add(new SchemaTable(config.getTenantThirdPartyProvidersTable(),
+                MultitenancyQueries.getQueryToCreateTenantThirdPartyProvidersTable(start)));
+        tables.add(new SchemaTable(config.getTenantThirdPartyProviderClientsTable(),
+                MultitenancyQueries.getQueryToCreateTenantThirdPartyProviderClientsTable(start)));
+        tables.add(new SchemaTable(config.getEmailPasswordUsersTable(),
+                EmailPasswordQueries.getQueryToCreateUsersTable(start),
+                EmailPasswordQueries.getQueryToCreateEmailPasswordUsersEmailIndex(start)));
+        tables.add(new SchemaTable(config.getEmailPasswordUserToTenantTable(),
+                EmailPasswordQueries.getQueryToCreateEmailPasswordUserToTenantTable(start),
+                EmailPasswordQueries.getQueryToCreateEmailPasswordUserToTenantEmailIndex(start)));
+        tables.add(new SchemaTable(config.getPasswordResetTokensTable(),
+                getQueryToCreatePasswordResetTokensTable(start),
+                getQueryToCreatePasswordResetTokenExpiryIndex(start)));
+        tables.add(new SchemaTable(config.getEmailVerificationTable(),
+                getQueryToCreateEmailVerificationTable(start),
+                getQueryToCreateEmailVerificationVerifiedEmailsAppIdIndex(start)));
+        tables.add(new SchemaTable(config.getEmailVerificationTokensTable(),
+                getQueryToCreateEmailVerificationTokensTable(start),
+                getQueryToCreateEmailVerificationTokenExpiryIndex(start)));
+        tables.add(new SchemaTable(config.getThirdPartyUsersTable(),
+                ThirdPartyQueries.getQueryToCreateUsersTable(start),
+                ThirdPartyQueries.getQueryToThirdPartyUserEmailIndex(start),
+                ThirdPartyQueries.getQueryToThirdPartyUserIdIndex(start)));
+        tables.add(new SchemaTable(config.getThirdPartyUserToTenantTable(),
+                ThirdPartyQueries.getQueryToCreateThirdPartyUserToTenantTable(start),
+                ThirdPartyQueries.getQueryToCreateThirdPartyUserToTenantThirdPartyUserIdIndex(start)));
+        tables.add(new SchemaTable(config.getJWTSigningKeysTable(), getQueryToCreateJWTSigningTable(start)));
+        tables.add(new SchemaTable(config.getPasswordlessUsersTable(),
+                PasswordlessQueries.getQueryToCreateUsersTable(start),
+                PasswordlessQueries.getQueryToCreatePasswordlessUsersEmailIndex(start),
+                PasswordlessQueries.getQueryToCreatePasswordlessUsersPhoneNumberIndex(start)));
+        tables.add(new SchemaTable(config.getPasswordlessUserToTenantTable(),
+                PasswordlessQueries.getQueryToCreatePasswordlessUserToTenantTable(start),
+                PasswordlessQueries.getQueryToCreatePasswordlessUserToTenantEmailIndex(start),
+                PasswordlessQueries.getQueryToCreatePasswordlessUserToTenantPhoneNumberIndex(start)));
+        tables.add(new SchemaTable(config.getPasswordlessDevicesTable(),
+                getQueryToCreateDevicesTable(start),
+                getQueryToCreateDeviceEmailIndex(start),
+                getQueryToCreateDevicePhoneNumberIndex(start)));
+        tables.add(new SchemaTable(config.getPasswordlessCodesTable(),
+                getQueryToCreateCodesTable(start),
+                getQueryToCreateCodeCreatedAtIndex(start)));
+        tables.add(new SchemaTable(config.getUserMetadataTable(), getQueryToCreateUserMetadataTable(start)));
+        tables.add(new SchemaTable(config.getRolesTable(), UserRolesQueries.getQueryToCreateRolesTable(start)));
+        tables.add(new SchemaTable(config.getUserRolesPermissionsTable(),
+                UserRolesQueries.getQueryToCreateRolePermissionsTable(start),
+                UserRolesQueries.getQueryToCreateRolePermissionsPermissionIndex(start)));
+        tables.add(new SchemaTable(config.getUserRolesTable(),
+                UserRolesQueries.getQueryToCreateUserRolesTable(start),
+                UserRolesQueries.getQueryToCreateUserRolesRoleIndex(start),
+                UserRolesQueries.getQueryToCreateUserRolesUserIdAppIdIndex(start)));
+        tables.add(new SchemaTable(config.getUserIdMappingTable(),
+                UserIdMappingQueries.getQueryToCreateUserIdMappingTable(start)));
+        tables.add(new SchemaTable(config.getDashboardUsersTable(),
+                DashboardQueries.getQueryToCreateDashboardUsersTable(start)));
+        tables.add(new SchemaTable(config.getDashboardSessionsTable(),
+                DashboardQueries.getQueryToCreateDashboardUserSessionsTable(start),
+                DashboardQueries.getQueryToCreateDashboardUserSessionsExpiryIndex(start)));
+        tables.add(new SchemaTable(config.getTotpUsersTable(), TOTPQueries.getQueryToCreateUsersTable(start)));
+        tables.add(new SchemaTable(config.getTotpUserDevicesTable(),
+                TOTPQueries.getQueryToCreateUserDevicesTable(start)));
+        tables.add(new SchemaTable(config.getTotpUsedCodesTable(),
+                TOTPQueries.getQueryToCreateUsedCodesTable(start),
+                TOTPQueries.getQueryToCreateUsedCodesExpiryTimeIndex(start),
+                TOTPQueries.getQueryToCreateUsedCodesValidIndex(start)));
+        tables.add(new SchemaTable(config.getBulkImportUsersTable(),
+                BulkImportQueries.getQueryToCreateBulkImportUsersTable(start),
+                BulkImportQueries.getQueryToCreateStatusUpdatedAtIndex(start),
+                BulkImportQueries.getQueryToCreatePaginationIndex1(start),
+                BulkImportQueries.getQueryToCreatePaginationIndex2(start)));
+        tables.add(new SchemaTable(config.getBulkImportUsersStatusCountTable(),
+                BulkImportQueries.getQueryToCreateBulkImportUsersStatusCountTable(start),
+                BulkImportQueries.getQueryToBackfillBulkImportUsersStatusCount(start)));
+        tables.add(new SchemaTable(config.getOAuthClientsTable(),
+                OAuthQueries.getQueryToCreateOAuthClientTable(start)));
+        tables.add(new SchemaTable(config.getOAuthSessionsTable(),
+                OAuthQueries.getQueryToCreateOAuthSessionsTable(start),
+                OAuthQueries.getQueryToCreateOAuthSessionsExpIndex(start),
+                OAuthQueries.getQueryToCreateOAuthSessionsExternalRefreshTokenIndex(start)));
+        tables.add(new SchemaTable(config.getOAuthM2MTokensTable(),
+                OAuthQueries.getQueryToCreateOAuthM2MTokensTable(start),
+                OAuthQueries.getQueryToCreateOAuthM2MTokenIatIndex(start),
+                OAuthQueries.getQueryToCreateOAuthM2MTokenExpIndex(start)));
+        tables.add(new SchemaTable(config.getOAuthLogoutChallengesTable(),
+                OAuthQueries.getQueryToCreateOAuthLogoutChallengesTable(start),
+                OAuthQueries.getQueryToCreateOAuthLogoutChallengesTimeCreatedIndex(start)));
+        tables.add(new SchemaTable(config.getWebAuthNUsersTable(),
+                WebAuthNQueries.getQueryToCreateWebAuthNUsersTable(start)));
+        tables.add(new SchemaTable(config.getWebAuthNUserToTenantTable(),
+                WebAuthNQueries.getQueryToCreateWebAuthNUsersToTenantTable(start),
+                WebAuthNQueries.getQueryToCreateWebAuthNUserToTenantEmailIndex(start)));
+        tables.add(new SchemaTable(config.getWebAuthNGeneratedOptionsTable(),
+                WebAuthNQueries.getQueryToCreateWebAuthNGeneratedOptionsTable(start),
+                WebAuthNQueries.getQueryToCreateWebAuthNChallengeExpiresIndex(start)));
+        tables.add(new SchemaTable(config.getWebAuthNCredentialsTable(),
+                WebAuthNQueries.getQueryToCreateWebAuthNCredentialsTable(start),
+                WebAuthNQueries.getQueryToCreateWebAuthNCredentialsUserIdIndex(start),
+                WebAuthNQueries.getQueryToCreateWebAuthNCredentialsIdIndex(start)));
+        tables.add(new SchemaTable(config.getWebAuthNAccountRecoveryTokenTable(),
+                WebAuthNQueries.getQueryToCreateWebAuthNAccountRecoveryTokenTable(start),
+                WebAuthNQueries.getQueryToCreateWebAuthNAccountRecoveryTokenTokenIndex(start),
+                WebAuthNQueries.getQueryToCreateWebAuthNAccountRecoveryTokenEmailIndex(start),
+                WebAuthNQueries.getQueryToCreateWebAuthNAccountRecoveryTokenExpiresAtIndex(start)));
+        tables.add(new SchemaTable(config.getIdentityIndexTable(),
+                IdentityIndexQueries.getQueryToCreateIdentityIndexTable(start),
+                IdentityIndexQueries.getQueryToCreateIdentifierIndex(start),
+                IdentityIndexQueries.getQueryToCreateUserIdIndex(start)));
+        tables.add(new SchemaTable(config.getLocksTable(), LockQueries.getQueryToCreateLocksTable(start)));
+        tables.add(new SchemaTable(config.getSchemaVersionTable(), getQueryToCreateSchemaVersionTable(start)));
+
+        return tables;
+    }
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getBulkImportUsersTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(start, BulkImportQueries.getQueryToCreateBulkImportUsersTable(start), NO_OP_SETTER);
-            // index:
-            update(start, BulkImportQueries.getQueryToCreateStatusUpdatedAtIndex(start), NO_OP_SETTER);
-            update(start, BulkImportQueries.getQueryToCreatePaginationIndex1(start), NO_OP_SETTER);
-            update(start, BulkImportQueries.getQueryToCreatePaginationIndex2(start), NO_OP_SETTER);
-        }
+    private static String getQueryToCreateSchemaVersionTable(Start start) {
+        // @formatter:off
+        return "CREATE TABLE IF NOT EXISTS " + Config.getConfig(start).getSchemaVersionTable() + " ("
+                + "id TINYINT UNSIGNED NOT NULL DEFAULT 1,"
+                + "version INT UNSIGNED NOT NULL,"
+                + "fingerprint CHAR(64) NOT NULL,"
+                + "updated_at BIGINT UNSIGNED NOT NULL,"
+                + "PRIMARY KEY (id)"
+                + ");";
+        // @formatter:on
+    }
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getOAuthClientsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, OAuthQueries.getQueryToCreateOAuthClientTable(start), NO_OP_SETTER);
+    private static String getSchemaFingerprint(List<SchemaTable> tables, List<SchemaIndex> indexes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (SchemaTable table : tables) {
+                for (String query : table.queries) {
+                    digest.update(query.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) '\n');
+                }
+            }
+            for (SchemaIndex index : indexes) {
+                digest.update(index.getAlterQuery(true, true).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder fingerprint = new StringBuilder();
+            for (byte b : digest.digest()) {
+                fingerprint.append(String.format("%02x", b));
+            }
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
         }
+    }
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getOAuthSessionsTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, OAuthQueries.getQueryToCreateOAuthSessionsTable(start), NO_OP_SETTER);
-
-            // index
-            update(con, OAuthQueries.getQueryToCreateOAuthSessionsExpIndex(start), NO_OP_SETTER);
-            update(con, OAuthQueries.getQueryToCreateOAuthSessionsExternalRefreshTokenIndex(start), NO_OP_SETTER);
+    private static boolean isSchemaUpToDate(Start start, Connection con, String fingerprint)
+            throws SQLException, StorageQueryException {
+        String schemaVersionTable = Config.getConfig(start).getSchemaVersionTable();
+        String QUERY = "SELECT version, fingerprint FROM " + schemaVersionTable + " WHERE id = 1";
+        try {
+            return execute(con, QUERY, NO_OP_SETTER, result -> {
+                if (result.next()) {
+                    return result.getInt("version") == SCHEMA_VERSION
+                            && fingerprint.equals(result.getString("fingerprint"));
+                }
+                return false;
+            });
+        } catch (SQLException e) {
+            if (e.getErrorCode() == ER_NO_SUCH_TABLE) {
+                return false;
+            }
+            throw e;
         }
+    }
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getOAuthM2MTokensTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, OAuthQueries.getQueryToCreateOAuthM2MTokensTable(start), NO_OP_SETTER);
+    private static Set<String> getExistingTables(Connection con) throws SQLException, StorageQueryException {
+        String QUERY = "SELECT table_name FROM information_schema.tables WHERE table_schema = DATABASE()";
+        return execute(con, QUERY, NO_OP_SETTER, result -> {
+            Set<String> tables = new HashSet<>();
+            while (result.next()) {
+                // table names are case insensitive on some platforms (lower_case_table_names)
+                tables.add(result.getString(1).toLowerCase());
+            }
+            return tables;
+        });
+    }
 
-            // index
-            update(con, OAuthQueries.getQueryToCreateOAuthM2MTokenIatIndex(start), NO_OP_SETTER);
-            update(con, OAuthQueries.getQueryToCreateOAuthM2MTokenExpIndex(start), NO_OP_SETTER);
-        }
+    private static Set<String> getExistingIndexes(Connection con) throws SQLException, StorageQueryException {
+        String QUERY = "SELECT DISTINCT table_name, index_name FROM information_schema.statistics"
+                + " WHERE table_schema = DATABASE()";
+        return execute(con, QUERY, NO_OP_SETTER, result -> {
+            Set<String> indexes = new HashSet<>();
+            while (result.next()) {
+                indexes.add(getIndexKey(result.getString(1), result.getString(2)));
+            }
+            return indexes;
+        });
+    }
 
-        if (!doesTableExists(start, con, Config.getConfig(start).getOAuthLogoutChallengesTable())) {
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, OAuthQueries.getQueryToCreateOAuthLogoutChallengesTable(start), NO_OP_SETTER);
+    private static String getIndexKey(String tableName, String indexName) {
+        return (tableName + "." + indexName).toLowerCase();
+    }
 
-            // index
-            update(con, OAuthQueries.getQueryToCreateOAuthLogoutChallengesTimeCreatedIndex(start), NO_OP_SETTER);
+    // Adds the indexes that are missing on tables that already existed, and drops the ones they replace, without
+    // blocking reads or writes to the tables. Returns false if a change could not be made, in which case it is logged
+    // and the old index (if any) stays in use until the next start tries again.
+    private static boolean changeIndexes(Start start, Connection con, Set<String> existingTables,
+                                         List<SchemaIndex> indexes) throws SQLException, StorageQueryException {
+        Set<String> existingIndexes = null;
+        boolean allChanged = true;
+        for (SchemaIndex index : indexes) {
+            if (!existingTables.contains(index.tableName.toLowerCase())) {
+                continue; // the table was just created along with the index
+            }
+            if (existingIndexes == null) {
+                existingIndexes = getExistingIndexes(con);
+                executeStatementsInBatch(con, Collections.singletonList(
+                        "SET SESSION lock_wait_timeout = " + INDEX_CHANGE_LOCK_WAIT_TIMEOUT_SECONDS));
+            }
+            boolean add = !existingIndexes.contains(getIndexKey(index.tableName, index.indexName));
+            boolean drop = index.replacedIndexName != null
+                    && existingIndexes.contains(getIndexKey(index.tableName, index.replacedIndexName));
+            if (!add && !drop) {
+                continue;
+            }
+            String QUERY = index.getAlterQuery(add, drop);
+            getInstance(start).addState(CHANGING_INDEXES, null);
+            Logging.info(start, "Changing indexes: " + QUERY, true);
+            try {
+                update(con, QUERY, NO_OP_SETTER);
+            } catch (SQLException e) {
+                allChanged = false;
+                if (e.getErrorCode() == ER_DUP_KEYNAME || e.getErrorCode() == ER_CANT_DROP_FIELD_OR_KEY) {
+                    // another core made the same change at the same time. The next start checks that it is all done.
+                    continue;
+                }
+                Logging.error(start, "Could not change indexes online, the old indexes are used until this is done. "
+                        + "This is tried again on the next start, or it can be run by hand: " + QUERY + " ("
+                        + e.getMessage() + ")", true);
+            }
         }
-
-        if(!doesTableExists(start, con, Config.getConfig(start).getWebAuthNUsersTable())){
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, WebAuthNQueries.getQueryToCreateWebAuthNUsersTable(start), NO_OP_SETTER);
+        if (existingIndexes != null) {
+            executeStatementsInBatch(con, Collections.singletonList("SET SESSION lock_wait_timeout = DEFAULT"));
         }
+        return allChanged;
+    }
 
-        if(!doesTableExists(start, con, Config.getConfig(start).getWebAuthNUserToTenantTable())){
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, WebAuthNQueries.getQueryToCreateWebAuthNUsersToTenantTable(start), NO_OP_SETTER);
+    public static void createTablesIfNotExists(Start start, Connection con) throws SQLException, StorageQueryException {
+        List<SchemaTable> tables = getSchemaTables(start);
+        List<SchemaIndex> indexes = getSchemaIndexes(start);
+        String fingerprint = getSchemaFingerprint(tables, indexes);
 
-            //index
-            update(con, WebAuthNQueries.getQueryToCreateWebAuthNUserToTenantEmailIndex(start), NO_OP_SETTER);
+        // in the common case of a core restart against an existing db, this is the only query we run
+        if (isSchemaUpToDate(start, con, fingerprint)) {
+            return;
         }
 
-        if(!doesTableExists(start, con, Config.getConfig(start).getWebAuthNGeneratedOptionsTable())){
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, WebAuthNQueries.getQueryToCreateWebAuthNGeneratedOptionsTable(start), NO_OP_SETTER);
-            //index
-            update(con, WebAuthNQueries.getQueryToCreateWebAuthNChallengeExpiresIndex(start), NO_OP_SETTER);
+        Set<String> existingTables = getExistingTables(con);
+        List<String> queries = new ArrayList<>();
+        for (SchemaTable table : tables) {
+            if (!existingTables.contains(table.tableName.toLowerCase())) {
+                queries.addAll(table.queries);
+            }
         }
 
-        if(!doesTableExists(start, con, Config.getConfig(start).getWebAuthNCredentialsTable())){
+        if (!queries.isEmpty()) {
             getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(con, WebAuthNQueries.getQueryToCreateWebAuthNCredentialsTable(start), NO_OP_SETTER);
-
-            //index
-            update(con, WebAuthNQueries.getQueryToCreateWebAuthNCredentialsUserIdIndex(start), NO_OP_SETTER);
+            // these are sent to the db as one pipelined batch, in order. If this fails midway, the schema version
+            // is not stored, so the next start runs this check again.
+            executeStatementsInBatch(con, queries);
         }
 
-        if(!doesTableExists(start, con, Config.getConfig(start).getWebAuthNAccountRecoveryTokenTable())){
-            getInstance(start).addState(CREATING_NEW_TABLE, null);
-            update(start, WebAuthNQueries.getQueryToCreateWebAuthNAccountRecoveryTokenTable(start), NO_OP_SETTER);
-            //index
-            update(start, WebAuthNQueries.getQueryToCreateWebAuthNAccountRecoveryTokenTokenIndex(start), NO_OP_SETTER);
-            update(start, WebAuthNQueries.getQueryToCreateWebAuthNAccountRecoveryTokenEmailIndex(start), NO_OP_SETTER);
-            update(start, WebAuthNQueries.getQueryToCreateWebAuthNAccountRecoveryTokenExpiresAtIndex(start), NO_OP_SETTER);
+        if (!changeIndexes(start, con, existingTables, indexes)) {
+            return;
         }
 
+        String QUERY = "INSERT INTO " + Config.getConfig(start).getSchemaVersionTable()
+                + " (id, version, fingerprint, updated_at) VALUES (1, ?, ?, ?)"
+                + " ON DUPLICATE KEY UPDATE version = ?, fingerprint = ?, updated_at = ?";
+        long now = System.currentTimeMillis();
+        update(con, QUERY, pst -> {
+            pst.setInt(1, SCHEMA_VERSION);
+            pst.setString(2, fingerprint);
+            pst.setLong(3, now);
+            pst.setInt(4, SCHEMA_VERSION);
+            pst.setString(5, fingerprint);
+            pst.setLong(6, now);
+        });
     }
 
     @TestOnly
@@ -1088,6 +1149,8 @@ public class GeneralQueries {
     public static void linkAccounts_Transaction(Start start, Connection sqlCon, AppIdentifier appIdentifier,
                                                 String recipeUserId, String primaryUserId)
             throws SQLException, StorageQueryException {
+        // the user id of a session is the primary user id of its recipe user
+        SessionInfoCache.getInstance(start).invalidateUser_Transaction(appIdentifier, recipeUserId);
         {
             String QUERY = "UPDATE " + Config.getConfig(start).getUsersTable() +
                     " SET is_linked_or_is_a_primary_user = true, primary_or_recipe_user_id = ? WHERE app_id = ? AND " +
@@ -1113,6 +1176,9 @@ public class GeneralQueries {
                 pst.setString(3, recipeUserId);
             });
         }
+
+        IdentityIndexQueries.updatePrimaryUserId_Transaction(start, sqlCon, appIdentifier, recipeUserId,
+                primaryUserId);
     }
 
     public static void linkMultipleAccounts_Transaction(Start start, Connection sqlCon, AppIdentifier appIdentifier,
@@ -1155,6 +1221,9 @@ public class GeneralQueries {
 
         updateTimeJoinedForPrimaryUsers_Transaction(start, sqlCon, appIdentifier,
                 new ArrayList<>(recipeUserIdToPrimaryUserId.values()));
+
+        IdentityIndexQueries.updatePrimaryUserIds_Transaction(start, sqlCon, appIdentifier,
+                recipeUserIdToPrimaryUserId);
     }
 
     public static void updateTimeJoinedForPrimaryUsers_Transaction(Start start, Connection sqlCon,
@@ -1181,6 +1250,8 @@ public class GeneralQueries {
     public static void unlinkAccounts_Transaction(Start start, Connection sqlCon, AppIdentifier appIdentifier,
                                                   String primaryUserId, String recipeUserId)
             throws SQLException, StorageQueryException {
+        // the user id of a session is the primary user id of its recipe user
+        SessionInfoCache.getInstance(start).invalidateUser_Transaction(appIdentifier, recipeUserId);
         {
             String QUERY = "UPDATE " + Config.getConfig(start).getUsersTable() +
                     " SET is_linked_or_is_a_primary_user = false, primary_or_recipe_user_id = ?, " +
@@ -1207,6 +1278,9 @@ public class GeneralQueries {
                 pst.setString(3, recipeUserId);
             });
         }
+
+        IdentityIndexQueries.updatePrimaryUserId_Transaction(start, sqlCon, appIdentifier, recipeUserId,
+                recipeUserId);
     }
 
     public static AuthRecipeUserInfo[] listPrimaryUsersByPhoneNumber_Transaction(Start start, Connection sqlCon,
@@ -1237,8 +1311,14 @@ public class GeneralQueries {
                                                                         String thirdPartyId,
                                                                         String thirdPartyUserId)
             throws SQLException, StorageQueryException {
-        List<String> userIds = ThirdPartyQueries.listUserIdsByThirdPartyInfo(start, appIdentifier,
-                thirdPartyId, thirdPartyUserId);
+        List<String> userIds;
+        if (IdentityIndexQueries.isBackfilled(start, appIdentifier)) {
+            userIds = IdentityIndexQueries.listPrimaryUserIds(start, appIdentifier, null,
+                    IdentityIndexQueries.getThirdPartyIdentifierType(thirdPartyId), thirdPartyUserId);
+        } else {
+            userIds = ThirdPartyQueries.listUserIdsByThirdPartyInfo(start, appIdentifier,
+                    thirdPartyId, thirdPartyUserId);
+        }
         List<AuthRecipeUserInfo> result = getPrimaryUserInfoForUserIds(start, appIdentifier, userIds);
 
         // this is going to order them based on oldest that joined to newest that joined.
@@ -1278,28 +1358,9 @@ public class GeneralQueries {
             throws SQLException, StorageQueryException {
         // we first lock on the three tables based on email and tenant - this will ensure that any other
         // query happening related to the account linking on this email / tenant will wait for this to finish,
-        // and vice versa.
-
-        EmailPasswordQueries.lockEmail_Transaction(start, sqlCon, appIdentifier, email);
-
-        ThirdPartyQueries.lockEmail_Transaction(start, sqlCon, appIdentifier, email);
-
-        PasswordlessQueries.lockEmail_Transaction(start, sqlCon, appIdentifier, email);
-
-        // now that we have locks on all the relevant tables, we can read from them safely
-        List<String> userIds = new ArrayList<>();
-        userIds.addAll(EmailPasswordQueries.getPrimaryUserIdsUsingEmail_Transaction(start, sqlCon, appIdentifier,
-                email));
-
-        userIds.addAll(PasswordlessQueries.getPrimaryUserIdsUsingEmail_Transaction(start, sqlCon, appIdentifier,
-                email));
-
-        userIds.addAll(ThirdPartyQueries.getPrimaryUserIdUsingEmail_Transaction(start, sqlCon, appIdentifier, email));
-
-        String webauthnUserId = WebAuthNQueries.getPrimaryUserIdUsingEmail_Transaction(start, sqlCon, appIdentifier, email);
-        if(webauthnUserId != null) {
-            userIds.add(webauthnUserId);
-        }
+        // and vice versa. The locks and the lookup of the primary user ids are done in one query so that we
+        // hold the locks for one round trip less per recipe.
+        List<String> userIds = lockEmailAndGetPrimaryUserIds_Transaction(start, sqlCon, appIdentifier, email);
 
         // remove duplicates from userIds
         Set<String> userIdsSet = new HashSet<>(userIds);
@@ -1314,9 +1375,58 @@ public class GeneralQueries {
         return result.toArray(new AuthRecipeUserInfo[0]);
     }
 
+    private static List<String> lockEmailAndGetPrimaryUserIds_Transaction(Start start, Connection sqlCon,
+                                                                       AppIdentifier appIdentifier, String email)
+            throws SQLException, StorageQueryException {
+        // The parts of a UNION ALL are run in order, so the rows are locked in the same order as when calling
+        // lockEmail_Transaction of emailpassword, thirdparty and passwordless one after the other. Since the
+        // lookup is a join, the matching app_id_to_user_id rows are locked for update as well (earlier, the
+        // separate lookup took a shared lock on them, which is then upgraded when linking). WebAuthN users are
+        // not locked, same as before.
+        String QUERY = "(SELECT all_users.primary_or_recipe_user_id AS user_id"
+                + " FROM " + Config.getConfig(start).getEmailPasswordUsersTable() + " AS ep"
+                + " JOIN " + Config.getConfig(start).getAppIdToUserIdTable() + " AS all_users"
+                + " ON ep.app_id = all_users.app_id AND ep.user_id = all_users.user_id"
+                + " WHERE ep.app_id = ? AND ep.email = ? FOR UPDATE)"
+                + " UNION ALL"
+                + " (SELECT all_users.primary_or_recipe_user_id AS user_id"
+                + " FROM " + Config.getConfig(start).getThirdPartyUsersTable() + " AS tp"
+                + " JOIN " + Config.getConfig(start).getAppIdToUserIdTable() + " AS all_users"
+                + " ON tp.app_id = all_users.app_id AND tp.user_id = all_users.user_id"
+                + " WHERE tp.app_id = ? AND tp.email = ? FOR UPDATE)"
+                + " UNION ALL"
+                + " (SELECT all_users.primary_or_recipe_user_id AS user_id"
+                + " FROM " + Config.getConfig(start).getPasswordlessUsersTable() + " AS pless"
+                + " JOIN " + Config.getConfig(start).getAppIdToUserIdTable() + " AS all_users"
+                + " ON pless.app_id = all_users.app_id AND pless.user_id = all_users.user_id"
+                + " WHERE pless.app_id = ? AND pless.email = ? FOR UPDATE)"
+                + " UNION ALL"
+                + " (SELECT all_users.primary_or_recipe_user_id AS user_id"
+                + " FROM " + Config.getConfig(start).getWebAuthNUserToTenantTable() + " AS wa"
+                + " JOIN " + Config.getConfig(start).getUsersTable() + " AS all_users"
+                + " ON wa.app_id = all_users.app_id AND wa.user_id = all_users.user_id"
+                + " WHERE wa.app_id = ? AND wa.email = ?)";
+
+        return execute(sqlCon, QUERY, pst -> {
+            for (int i = 0; i < 4; i++) {
+                pst.setString(2 * i + 1, appIdentifier.getAppId());
+                pst.setString(2 * i + 2, email);
+            }
+        }, result -> {
+            List<String> userIds = new ArrayList<>();
+            while (result.next()) {
+                userIds.add(result.getString("user_id"));
+            }
+            return userIds;
+        });
+    }
+
     public static AuthRecipeUserInfo[] listPrimaryUsersByEmail(Start start, TenantIdentifier tenantIdentifier,
                                                                String email)
             throws StorageQueryException, SQLException {
+        if (IdentityIndexQueries.isBackfilled(start, tenantIdentifier.toAppIdentifier())) {
+            return listPrimaryUsersByEmailUsingIdentityIndex(start, tenantIdentifier, email);
+        }
         List<String> userIds = new ArrayList<>();
         String emailPasswordUserId = EmailPasswordQueries.getPrimaryUserIdUsingEmail(start, tenantIdentifier,
                 email);
@@ -1350,16 +1460,36 @@ public class GeneralQueries {
         return result.toArray(new AuthRecipeUserInfo[0]);
     }
 
+    private static AuthRecipeUserInfo[] listPrimaryUsersByEmailUsingIdentityIndex(Start start,
+                                                                                  TenantIdentifier tenantIdentifier,
+                                                                                  String email)
+            throws StorageQueryException, SQLException {
+        List<String> userIds = IdentityIndexQueries.listPrimaryUserIdsByEmail(start, tenantIdentifier, email);
+
+        List<AuthRecipeUserInfo> result = getPrimaryUserInfoForUserIds(start, tenantIdentifier.toAppIdentifier(),
+                userIds);
+
+        // this is going to order them based on oldest that joined to newest that joined.
+        result.sort(Comparator.comparingLong(o -> o.timeJoined));
+
+        return result.toArray(new AuthRecipeUserInfo[0]);
+    }
+
     public static AuthRecipeUserInfo[] listPrimaryUsersByPhoneNumber(Start start,
                                                                      TenantIdentifier tenantIdentifier,
                                                                      String phoneNumber)
             throws StorageQueryException, SQLException {
         List<String> userIds = new ArrayList<>();
 
-        String passwordlessUserId = PasswordlessQueries.getPrimaryUserByPhoneNumber(start, tenantIdentifier,
-                phoneNumber);
-        if (passwordlessUserId != null) {
-            userIds.add(passwordlessUserId);
+        if (IdentityIndexQueries.isBackfilled(start, tenantIdentifier.toAppIdentifier())) {
+            userIds.addAll(IdentityIndexQueries.listPrimaryUserIds(start, tenantIdentifier.toAppIdentifier(),
+                    tenantIdentifier, IdentityIndexQueries.IDENTIFIER_TYPE_PHONE_NUMBER, phoneNumber));
+        } else {
+            String passwordlessUserId = PasswordlessQueries.getPrimaryUserByPhoneNumber(start, tenantIdentifier,
+                    phoneNumber);
+            if (passwordlessUserId != null) {
+                userIds.add(passwordlessUserId);
+            }
         }
 
         List<AuthRecipeUserInfo> result = getPrimaryUserInfoForUserIds(start, tenantIdentifier.toAppIdentifier(),
@@ -1436,6 +1566,48 @@ public class GeneralQueries {
         return result.get(0);
     }
 
+    public static ResultSet streamPrimaryUserIds(Start start, Connection con, AppIdentifier appIdentifier,
+                                                 int fetchSize) throws SQLException, StorageQueryException {
+        // every primary user, and every recipe user that is not linked, has a row whose user_id is its own
+        // primary_or_recipe_user_id, so this lists each user exactly once, in primary key order.
+        String QUERY = "SELECT user_id AS primary_or_recipe_user_id FROM "
+                + Config.getConfig(start).getAppIdToUserIdTable()
+                + " WHERE app_id = ? AND user_id = primary_or_recipe_user_id ORDER BY user_id";
+        return executeStreaming(con, QUERY, pst -> pst.setString(1, appIdentifier.getAppId()), fetchSize);
+    }
+
+    public static ResultSet streamPrimaryUserIds(Start start, Connection con, TenantIdentifier tenantIdentifier,
+                                                 int fetchSize) throws SQLException, StorageQueryException {
+        // This follows all_auth_recipe_users_pagination_index1, so there is no sort. The linked recipe users of a
+        // primary user share its time joined and id, so they come one after the other and the caller only needs to
+        // skip consecutive duplicates.
+        String QUERY = "SELECT primary_or_recipe_user_id FROM " + Config.getConfig(start).getUsersTable()
+                + " WHERE app_id = ? AND tenant_id = ?"
+                + " ORDER BY primary_or_recipe_user_time_joined DESC, primary_or_recipe_user_id DESC";
+        return executeStreaming(con, QUERY, pst -> {
+            pst.setString(1, tenantIdentifier.getAppId());
+            pst.setString(2, tenantIdentifier.getTenantId());
+        }, fetchSize);
+    }
+
+    // returns the users in the same order as the input ids, skipping ids that no longer exist.
+    public static List<AuthRecipeUserInfo> getPrimaryUserInfosForUserIds(Start start, AppIdentifier appIdentifier,
+                                                                         List<String> primaryUserIds)
+            throws SQLException, StorageQueryException {
+        Map<String, AuthRecipeUserInfo> usersById = new HashMap<>();
+        for (AuthRecipeUserInfo user : getPrimaryUserInfoForUserIds(start, appIdentifier, primaryUserIds)) {
+            usersById.put(user.getSupertokensUserId(), user);
+        }
+        List<AuthRecipeUserInfo> result = new ArrayList<>();
+        for (String userId : primaryUserIds) {
+            AuthRecipeUserInfo user = usersById.get(userId);
+            if (user != null) {
+                result.add(user);
+            }
+        }
+        return result;
+    }
+
     public static AuthRecipeUserInfo getPrimaryUserInfoForUserId_Transaction(Start start, Connection con,
                                                                              AppIdentifier appIdentifier, String id)
             throws SQLException, StorageQueryException {
@@ -1823,6 +1995,9 @@ public class GeneralQueries {
 
         List<String> result = new ArrayList<>();
         for (String tableName : tableNames) {
+            if (tableName.equalsIgnoreCase(Config.getConfig(start).getSchemaVersionTable())) {
+                continue; // this is the only table that is not per app
+            }
             String QUERY = "SELECT 1 FROM " + tableName + " WHERE app_id = ?";
 
             boolean hasRows = execute(start, QUERY, pst -> {
@@ -1970,28 +2145,94 @@ public class GeneralQueries {
                                                                                                         List<String> emails,
                                                                                                         List<String> phones, Map<String, String> thirdpartyIdToThirdpartyUserId)
             throws SQLException, StorageQueryException {
-        Set<String> userIds = new HashSet<>();
+        Set<String> userIds = new HashSet<>(
+                getPrimaryUserIdsUsingMultipleEmailsOrPhonesOrThirdParty_Transaction(start, sqlCon, appIdentifier,
+                        emails, phones, thirdpartyIdToThirdpartyUserId));
+
+        List<AuthRecipeUserInfo> result = getPrimaryUserInfoForUserIds_Transaction(start, sqlCon, appIdentifier,
+                new ArrayList<>(userIds));
 
-        //collect ids by email
-        userIds.addAll(EmailPasswordQueries.getPrimaryUserIdsUsingMultipleEmails_Transaction(start, sqlCon, appIdentifier,
-                emails));
-        userIds.addAll(PasswordlessQueries.getPrimaryUserIdsUsingMultipleEmails_Transaction(start, sqlCon, appIdentifier,
-                emails));
-        userIds.addAll(ThirdPartyQueries.getPrimaryUserIdsUsingMultipleEmails_Transaction(start, sqlCon, appIdentifier, emails));
+        return result.toArray(new AuthRecipeUserInfo[0]);
+    }
 
-        //collect ids by phone
-        userIds.addAll(PasswordlessQueries.listUserIdsByMultiplePhoneNumber_Transaction(start, sqlCon, appIdentifier, phones));
+    // same lookups as the per recipe getPrimaryUserIdsUsingMultipleEmails_Transaction,
+    // listUserIdsByMultiplePhoneNumber_Transaction, listUserIdsByMultipleThirdPartyInfo_Transaction and
+    // getPrimaryUserIdsUsingEmails_Transaction, but as one UNION ALL query.
+    private static List<String> getPrimaryUserIdsUsingMultipleEmailsOrPhonesOrThirdParty_Transaction(
+            Start start, Connection sqlCon, AppIdentifier appIdentifier, List<String> emails, List<String> phones,
+            Map<String, String> thirdpartyIdToThirdpartyUserId)
+            throws SQLException, StorageQueryException {
+        List<String> subQueries = new ArrayList<>();
+        List<String> params = new ArrayList<>();
+
+        if (emails != null && !emails.isEmpty()) {
+            String emailQuestionMarks = Utils.generateCommaSeperatedQuestionMarks(emails.size());
+            subQueries.add("SELECT all_users.primary_or_recipe_user_id AS user_id"
+                    + " FROM " + Config.getConfig(start).getEmailPasswordUsersTable() + " AS ep"
+                    + " JOIN " + Config.getConfig(start).getAppIdToUserIdTable() + " AS all_users"
+                    + " ON ep.app_id = all_users.app_id AND ep.user_id = all_users.user_id"
+                    + " WHERE ep.app_id = ? AND ep.email IN (" + emailQuestionMarks + ")");
+            subQueries.add("SELECT all_users.primary_or_recipe_user_id AS user_id"
+                    + " FROM " + Config.getConfig(start).getPasswordlessUsersTable() + " AS pless"
+                    + " JOIN " + Config.getConfig(start).getAppIdToUserIdTable() + " AS all_users"
+                    + " ON pless.app_id = all_users.app_id AND pless.user_id = all_users.user_id"
+                    + " WHERE pless.app_id = ? AND pless.email IN (" + emailQuestionMarks + ")");
+            subQueries.add("SELECT all_users.primary_or_recipe_user_id AS user_id"
+                    + " FROM " + Config.getConfig(start).getThirdPartyUsersTable() + " AS tp"
+                    + " JOIN " + Config.getConfig(start).getAppIdToUserIdTable() + " AS all_users"
+                    + " ON tp.app_id = all_users.app_id AND tp.user_id = all_users.user_id"
+                    + " WHERE tp.app_id = ? AND tp.email IN (" + emailQuestionMarks + ")");
+            subQueries.add("SELECT all_users.primary_or_recipe_user_id AS user_id"
+                    + " FROM " + Config.getConfig(start).getWebAuthNUserToTenantTable() + " AS wa"
+                    + " JOIN " + Config.getConfig(start).getUsersTable() + " AS all_users"
+                    + " ON wa.app_id = all_users.app_id AND wa.user_id = all_users.user_id"
+                    + " WHERE wa.app_id = ? AND wa.email IN (" + emailQuestionMarks + ")");
+            for (int i = 0; i < 4; i++) {
+                params.add(appIdentifier.getAppId());
+                params.addAll(emails);
+            }
+        }
 
-        //collect ids by thirdparty
-        userIds.addAll(ThirdPartyQueries.listUserIdsByMultipleThirdPartyInfo_Transaction(start, sqlCon, appIdentifier, thirdpartyIdToThirdpartyUserId));
+        if (phones != null && !phones.isEmpty()) {
+            subQueries.add("SELECT all_users.primary_or_recipe_user_id AS user_id"
+                    + " FROM " + Config.getConfig(start).getPasswordlessUsersTable() + " AS pless"
+                    + " JOIN " + Config.getConfig(start).getUsersTable() + " AS all_users"
+                    + " ON pless.app_id = all_users.app_id AND pless.user_id = all_users.user_id"
+                    + " WHERE pless.app_id = ? AND pless.phone_number IN ("
+                    + Utils.generateCommaSeperatedQuestionMarks(phones.size()) + ")");
+            params.add(appIdentifier.getAppId());
+            params.addAll(phones);
+        }
 
-        //collect ids by webauthn
-        userIds.addAll(WebAuthNQueries.getPrimaryUserIdsUsingEmails_Transaction(start, sqlCon, appIdentifier, emails));
+        if (thirdpartyIdToThirdpartyUserId != null && !thirdpartyIdToThirdpartyUserId.isEmpty()) {
+            String questionMarks = Utils.generateCommaSeperatedQuestionMarks(thirdpartyIdToThirdpartyUserId.size());
+            subQueries.add("SELECT all_users.primary_or_recipe_user_id AS user_id"
+                    + " FROM " + Config.getConfig(start).getThirdPartyUsersTable() + " AS tp"
+                    + " JOIN " + Config.getConfig(start).getUsersTable() + " AS all_users"
+                    + " ON tp.app_id = all_users.app_id AND tp.user_id = all_users.user_id"
+                    + " WHERE tp.app_id = ? AND tp.third_party_id IN (" + questionMarks + ")"
+                    + " AND tp.third_party_user_id IN (" + questionMarks + ")");
+            params.add(appIdentifier.getAppId());
+            params.addAll(thirdpartyIdToThirdpartyUserId.values());
+            params.addAll(thirdpartyIdToThirdpartyUserId.keySet());
+        }
 
-        List<AuthRecipeUserInfo> result = getPrimaryUserInfoForUserIds_Transaction(start, sqlCon, appIdentifier,
-                new ArrayList<>(userIds));
+        if (subQueries.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        return result.toArray(new AuthRecipeUserInfo[0]);
+        String QUERY = String.join(" UNION ALL ", subQueries);
+        return execute(sqlCon, QUERY, pst -> {
+            for (int i = 0; i < params.size(); i++) {
+                pst.setString(i + 1, params.get(i));
+            }
+        }, result -> {
+            List<String> userIds = new ArrayList<>();
+            while (result.next()) {
+                userIds.add(result.getString("user_id"));
+            }
+            return userIds;
+        });
     }
 
     private static class AllAuthRecipeUsersResultHolder {
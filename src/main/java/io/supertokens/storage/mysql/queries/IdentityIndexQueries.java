@@ -0,0 +1,502 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.queries;
+
+import io.supertokens.pluginInterface.KeyValueInfo;
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.exceptions.StorageTransactionLogicException;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.storage.mysql.ResourceDistributor;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.utils.Utils;
+
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.supertokens.pluginInterface.RECIPE_ID.WEBAUTHN;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
+import static io.supertokens.storage.mysql.config.Config.getConfig;
+
+/**
+ * The identity_index table has one row per (tenant, identifier, recipe user) for every email, phone number and third
+ * party login of every user, along with the user's current primary user id. It is kept in sync by the recipe write
+ * paths (sign up, email / phone updates, adding a user to a tenant, bulk import and linking / unlinking). Rows are
+ * removed via the foreign key to all_auth_recipe_users when a user is deleted or removed from a tenant.
+ * <p>
+ * Apps that existed before this table was added need to be backfilled (see {@link #backfill}) before lookups are
+ * served from it. Until then, lookups fall back to querying each recipe's tables, and the write paths skip the sync
+ * as well, so that apps that do not read the index do not pay for keeping it. New apps use the index from the start.
+ * The transactional account linking lookups always read (and lock) the recipe tables. Writes from a core that does
+ * not know about this table are repaired by {@link #reconcile}.
+ */
+public class IdentityIndexQueries {
+
+    public static final String IDENTIFIER_TYPE_EMAIL = "email";
+    public static final String IDENTIFIER_TYPE_PHONE_NUMBER = "phone";
+    // the third party id is part of the type so that the identifier is just the third party user id
+    private static final String IDENTIFIER_TYPE_THIRD_PARTY_PREFIX = "thirdparty:";
+
+    static final String BACKFILLED_KEY_NAME = "identity_index_backfilled";
+    // while the value is this, writes keep the index of the app in sync, but lookups do not use it yet
+    private static final String BACKFILL_STARTED_VALUE = "started";
+    private static final String BACKFILLED_VALUE = "true";
+
+    private static final int MAX_USER_IDS_PER_QUERY = 1000;
+
+    // an app that is not backfilled (or not synced) is checked again at most this often
+    private static final long NOT_BACKFILLED_RECHECK_INTERVAL_MS = 10000;
+
+    public static String getThirdPartyIdentifierType(String thirdPartyId) {
+        return IDENTIFIER_TYPE_THIRD_PARTY_PREFIX + thirdPartyId;
+    }
+
+    static String getQueryToCreateIdentityIndexTable(Start start) {
+        String tableName = getConfig(start).getIdentityIndexTable();
+        // @formatter:off
+        return "CREATE TABLE IF NOT EXISTS " + tableName + " ("
+                + "app_id VARCHAR(64) NOT NULL DEFAULT 'public',"
+                + "tenant_id VARCHAR(64) NOT NULL DEFAULT 'public',"
+                + "identifier_type VARCHAR(64) NOT NULL,"
+                + "identifier VARCHAR(256) NOT NULL,"
+                + "user_id CHAR(36) NOT NULL,"
+                + "recipe_id VARCHAR(128) NOT NULL,"
+                + "primary_user_id CHAR(36) NOT NULL,"
+                + "PRIMARY KEY (app_id, tenant_id, identifier_type, identifier, user_id),"
+                + "FOREIGN KEY (app_id, tenant_id, user_id)"
+                + " REFERENCES " + getConfig(start).getUsersTable() + " (app_id, tenant_id, user_id) ON DELETE CASCADE"
+                + ");";
+        // @formatter:on
+    }
+
+    static String getQueryToCreateIdentifierIndex(Start start) {
+        return "CREATE INDEX identity_index_identifier_index ON " + getConfig(start).getIdentityIndexTable()
+                + " (app_id, identifier_type, identifier, primary_user_id);";
+    }
+
+    static String getQueryToCreateUserIdIndex(Start start) {
+        return "CREATE INDEX identity_index_user_id_index ON " + getConfig(start).getIdentityIndexTable()
+                + " (app_id, user_id);";
+    }
+
+    public static void syncUser_Transaction(Start start, Connection sqlCon, AppIdentifier appIdentifier,
+                                            String userId)
+            throws SQLException, StorageQueryException {
+        syncUsers_Transaction(start, sqlCon, appIdentifier, Collections.singletonList(userId));
+    }
+
+    /**
+     * Rebuilds the identity_index rows of the given recipe users from the recipe tables. This has to be called in
+     * the same transaction as any write that adds a user to a tenant or changes a user's email, phone number or third
+     * party info. It does nothing for an app that does not use the index yet.
+     */
+    public static void syncUsers_Transaction(Start start, Connection sqlCon, AppIdentifier appIdentifier,
+                                             List<String> userIds)
+            throws SQLException, StorageQueryException {
+        if (userIds.isEmpty() || !isSynced_Transaction(start, sqlCon, appIdentifier)) {
+            return;
+        }
+        for (int from = 0; from < userIds.size(); from += MAX_USER_IDS_PER_QUERY) {
+            List<String> batch = userIds.subList(from, Math.min(userIds.size(), from + MAX_USER_IDS_PER_QUERY));
+            String userIdQuestionMarks = Utils.generateCommaSeperatedQuestionMarks(batch.size());
+
+            {
+                String QUERY = "DELETE FROM " + getConfig(start).getIdentityIndexTable()
+                        + " WHERE app_id = ? AND user_id IN (" + userIdQuestionMarks + ")";
+                update(sqlCon, QUERY, pst -> {
+                    pst.setString(1, appIdentifier.getAppId());
+                    for (int i = 0; i < batch.size(); i++) {
+                        pst.setString(i + 2, batch.get(i));
+                    }
+                });
+            }
+
+            {
+                String QUERY = "INSERT INTO " + getConfig(start).getIdentityIndexTable()
+                        + " (app_id, tenant_id, identifier_type, identifier, user_id, recipe_id, primary_user_id) "
+                        + getQueryToSelectRowsFromRecipeTables(start, batch.size());
+                update(sqlCon, QUERY, pst -> setRowsFromRecipeTablesParams(pst, appIdentifier, batch));
+            }
+        }
+    }
+
+    // the rows that identity_index should have for the given recipe users, in the column order of the table
+    private static String getQueryToSelectRowsFromRecipeTables(Start start, int numberOfUserIds) {
+        String appIdToUserIdTable = getConfig(start).getAppIdToUserIdTable();
+        String userIdQuestionMarks = Utils.generateCommaSeperatedQuestionMarks(numberOfUserIds);
+        // emailpassword
+        return "SELECT ep.app_id, ep.tenant_id, '" + IDENTIFIER_TYPE_EMAIL + "', ep.email, ep.user_id,"
+                + " all_users.recipe_id, all_users.primary_or_recipe_user_id"
+                + " FROM " + getConfig(start).getEmailPasswordUserToTenantTable() + " AS ep"
+                + " JOIN " + appIdToUserIdTable + " AS all_users"
+                + " ON ep.app_id = all_users.app_id AND ep.user_id = all_users.user_id"
+                + " WHERE ep.app_id = ? AND ep.user_id IN (" + userIdQuestionMarks + ")"
+                // thirdparty email
+                + " UNION ALL"
+                + " SELECT tp_tenant.app_id, tp_tenant.tenant_id, '" + IDENTIFIER_TYPE_EMAIL + "', tp.email,"
+                + " tp_tenant.user_id, all_users.recipe_id, all_users.primary_or_recipe_user_id"
+                + " FROM " + getConfig(start).getThirdPartyUserToTenantTable() + " AS tp_tenant"
+                + " JOIN " + getConfig(start).getThirdPartyUsersTable() + " AS tp"
+                + " ON tp_tenant.app_id = tp.app_id AND tp_tenant.user_id = tp.user_id"
+                + " JOIN " + appIdToUserIdTable + " AS all_users"
+                + " ON tp_tenant.app_id = all_users.app_id AND tp_tenant.user_id = all_users.user_id"
+                + " WHERE tp_tenant.app_id = ? AND tp_tenant.user_id IN (" + userIdQuestionMarks + ")"
+                // thirdparty info
+                + " UNION ALL"
+                + " SELECT tp_tenant.app_id, tp_tenant.tenant_id,"
+                + " CONCAT('" + IDENTIFIER_TYPE_THIRD_PARTY_PREFIX + "', tp_tenant.third_party_id),"
+                + " tp_tenant.third_party_user_id, tp_tenant.user_id, all_users.recipe_id,"
+                + " all_users.primary_or_recipe_user_id"
+                + " FROM " + getConfig(start).getThirdPartyUserToTenantTable() + " AS tp_tenant"
+                + " JOIN " + appIdToUserIdTable + " AS all_users"
+                + " ON tp_tenant.app_id = all_users.app_id AND tp_tenant.user_id = all_users.user_id"
+                + " WHERE tp_tenant.app_id = ? AND tp_tenant.user_id IN (" + userIdQuestionMarks + ")"
+                // passwordless email
+                + " UNION ALL"
+                + " SELECT pless.app_id, pless.tenant_id, '" + IDENTIFIER_TYPE_EMAIL + "', pless.email,"
+                + " pless.user_id, all_users.recipe_id, all_users.primary_or_recipe_user_id"
+                + " FROM " + getConfig(start).getPasswordlessUserToTenantTable() + " AS pless"
+                + " JOIN " + appIdToUserIdTable + " AS all_users"
+                + " ON pless.app_id = all_users.app_id AND pless.user_id = all_users.user_id"
+                + " WHERE pless.app_id = ? AND pless.user_id IN (" + userIdQuestionMarks + ")"
+                + " AND pless.email IS NOT NULL"
+                // passwordless phone number
+                + " UNION ALL"
+                + " SELECT pless.app_id, pless.tenant_id, '" + IDENTIFIER_TYPE_PHONE_NUMBER + "',"
+                + " pless.phone_number, pless.user_id, all_users.recipe_id,"
+                + " all_users.primary_or_recipe_user_id"
+                + " FROM " + getConfig(start).getPasswordlessUserToTenantTable() + " AS pless"
+                + " JOIN " + appIdToUserIdTable + " AS all_users"
+                + " ON pless.app_id = all_users.app_id AND pless.user_id = all_users.user_id"
+                + " WHERE pless.app_id = ? AND pless.user_id IN (" + userIdQuestionMarks + ")"
+                + " AND pless.phone_number IS NOT NULL"
+                // webauthn
+                + " UNION ALL"
+                + " SELECT wa.app_id, wa.tenant_id, '" + IDENTIFIER_TYPE_EMAIL + "', wa.email, wa.user_id,"
+                + " all_users.recipe_id, all_users.primary_or_recipe_user_id"
+                + " FROM " + getConfig(start).getWebAuthNUserToTenantTable() + " AS wa"
+                + " JOIN " + appIdToUserIdTable + " AS all_users"
+                + " ON wa.app_id = all_users.app_id AND wa.user_id = all_users.user_id"
+                + " WHERE wa.app_id = ? AND wa.user_id IN (" + userIdQuestionMarks + ")";
+    }
+
+    private static void setRowsFromRecipeTablesParams(PreparedStatement pst, AppIdentifier appIdentifier,
+                                                      List<String> userIds)
+            throws SQLException {
+        int index = 1;
+        for (int part = 0; part < 6; part++) {
+            pst.setString(index++, appIdentifier.getAppId());
+            for (String userId : userIds) {
+                pst.setString(index++, userId);
+            }
+        }
+    }
+
+    public static void updatePrimaryUserId_Transaction(Start start, Connection sqlCon, AppIdentifier appIdentifier,
+                                                       String recipeUserId, String primaryUserId)
+            throws SQLException, StorageQueryException {
+        if (!isSynced_Transaction(start, sqlCon, appIdentifier)) {
+            return;
+        }
+        String QUERY = "UPDATE " + getConfig(start).getIdentityIndexTable()
+                + " SET primary_user_id = ? WHERE app_id = ? AND user_id = ?";
+        update(sqlCon, QUERY, pst -> {
+            pst.setString(1, primaryUserId);
+            pst.setString(2, appIdentifier.getAppId());
+            pst.setString(3, recipeUserId);
+        });
+    }
+
+    public static void updatePrimaryUserIds_Transaction(Start start, Connection sqlCon, AppIdentifier appIdentifier,
+                                                        Map<String, String> recipeUserIdToPrimaryUserId)
+            throws SQLException, StorageQueryException {
+        for (Map.Entry<String, String> entry : recipeUserIdToPrimaryUserId.entrySet()) {
+            updatePrimaryUserId_Transaction(start, sqlCon, appIdentifier, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @param tenantIdentifier if null, the lookup is across all tenants of the app.
+     */
+    public static List<String> listPrimaryUserIds(Start start, AppIdentifier appIdentifier,
+                                                  @Nullable TenantIdentifier tenantIdentifier,
+                                                  String identifierType, String identifier)
+            throws SQLException, StorageQueryException {
+        String QUERY = "SELECT DISTINCT primary_user_id FROM " + getConfig(start).getIdentityIndexTable()
+                + " WHERE app_id = ? AND identifier_type = ? AND identifier = ?"
+                + (tenantIdentifier == null ? "" : " AND tenant_id = ?");
+        return execute(start, QUERY, pst -> {
+            pst.setString(1, appIdentifier.getAppId());
+            pst.setString(2, identifierType);
+            pst.setString(3, identifier);
+            if (tenantIdentifier != null) {
+                pst.setString(4, tenantIdentifier.getTenantId());
+            }
+        }, result -> {
+            List<String> primaryUserIds = new ArrayList<>();
+            while (result.next()) {
+                primaryUserIds.add(result.getString("primary_user_id"));
+            }
+            return primaryUserIds;
+        });
+    }
+
+    // webauthn users are matched across all tenants of the app, same as in GeneralQueries.listPrimaryUsersByEmail
+    public static List<String> listPrimaryUserIdsByEmail(Start start, TenantIdentifier tenantIdentifier, String email)
+            throws SQLException, StorageQueryException {
+        String QUERY = "SELECT DISTINCT primary_user_id FROM " + getConfig(start).getIdentityIndexTable()
+                + " WHERE app_id = ? AND identifier_type = ? AND identifier = ?"
+                + " AND (tenant_id = ? OR recipe_id = ?)";
+        return execute(start, QUERY, pst -> {
+            pst.setString(1, tenantIdentifier.getAppId());
+            pst.setString(2, IDENTIFIER_TYPE_EMAIL);
+            pst.setString(3, email);
+            pst.setString(4, tenantIdentifier.getTenantId());
+            pst.setString(5, WEBAUTHN.toString());
+        }, result -> {
+            List<String> primaryUserIds = new ArrayList<>();
+            while (result.next()) {
+                primaryUserIds.add(result.getString("primary_user_id"));
+            }
+            return primaryUserIds;
+        });
+    }
+
+    public static boolean isBackfilled(Start start, AppIdentifier appIdentifier)
+            throws SQLException, StorageQueryException {
+        BackfillState state = BackfillState.getInstance(start);
+        if (state.backfilledAppIds.contains(appIdentifier.getAppId())) {
+            return true;
+        }
+        Long lastChecked = state.notBackfilledCheckedAt.get(appIdentifier.getAppId());
+        if (lastChecked != null && System.currentTimeMillis() - lastChecked < NOT_BACKFILLED_RECHECK_INTERVAL_MS) {
+            return false;
+        }
+        KeyValueInfo info = GeneralQueries.getKeyValue(start, appIdentifier.getAsPublicTenantIdentifier(),
+                BACKFILLED_KEY_NAME);
+        if (info != null && BACKFILLED_VALUE.equals(info.value)) {
+            state.backfilledAppIds.add(appIdentifier.getAppId());
+            state.notBackfilledCheckedAt.remove(appIdentifier.getAppId());
+            return true;
+        }
+        state.notBackfilledCheckedAt.put(appIdentifier.getAppId(), System.currentTimeMillis());
+        return false;
+    }
+
+    // whether the writes to the app have to keep its index in sync: once it was created with the index, or a
+    // backfill of it started. This is read in the write's transaction so that it does not take a second connection.
+    private static boolean isSynced_Transaction(Start start, Connection sqlCon, AppIdentifier appIdentifier)
+            throws SQLException, StorageQueryException {
+        BackfillState state = BackfillState.getInstance(start);
+        if (state.syncedAppIds.contains(appIdentifier.getAppId())) {
+            return true;
+        }
+        Long lastChecked = state.notSyncedCheckedAt.get(appIdentifier.getAppId());
+        if (lastChecked != null && System.currentTimeMillis() - lastChecked < NOT_BACKFILLED_RECHECK_INTERVAL_MS) {
+            return false;
+        }
+        String QUERY = "SELECT value FROM " + getConfig(start).getKeyValueTable()
+                + " WHERE app_id = ? AND tenant_id = ? AND name = ?";
+        boolean synced = execute(sqlCon, QUERY, pst -> {
+            pst.setString(1, appIdentifier.getAppId());
+            pst.setString(2, TenantIdentifier.DEFAULT_TENANT_ID);
+            pst.setString(3, BACKFILLED_KEY_NAME);
+        }, ResultSet::next);
+        if (synced) {
+            state.syncedAppIds.add(appIdentifier.getAppId());
+            state.notSyncedCheckedAt.remove(appIdentifier.getAppId());
+        } else {
+            state.notSyncedCheckedAt.put(appIdentifier.getAppId(), System.currentTimeMillis());
+        }
+        return synced;
+    }
+
+    // called when a new app is created, since it has no users yet that would need to be backfilled
+    static void markAsBackfilled_Transaction(Start start, Connection sqlCon, AppIdentifier appIdentifier)
+            throws SQLException, StorageQueryException {
+        GeneralQueries.setKeyValue_Transaction(start, sqlCon, appIdentifier.getAsPublicTenantIdentifier(),
+                BACKFILLED_KEY_NAME, new KeyValueInfo(BACKFILLED_VALUE, System.currentTimeMillis()));
+    }
+
+    /**
+     * Fills the identity_index for all existing users of the app, batchSize users per transaction, and then marks the
+     * app as backfilled so that lookups start using the index. This is safe to run while the app is serving
+     * requests, and to run again if it was interrupted.
+     * <p>
+     * The writes to the app start keeping the index in sync first. Cores only check for that every
+     * NOT_BACKFILLED_RECHECK_INTERVAL_MS, so the scan starts after waiting for twice that, after which no write that
+     * skipped the sync can still be running (unless its transaction took longer than that).
+     */
+    public static void backfill(Start start, AppIdentifier appIdentifier, int batchSize)
+            throws SQLException, StorageQueryException, StorageTransactionLogicException {
+        KeyValueInfo info = GeneralQueries.getKeyValue(start, appIdentifier.getAsPublicTenantIdentifier(),
+                BACKFILLED_KEY_NAME);
+        if (info == null) {
+            GeneralQueries.setKeyValue(start, appIdentifier.getAsPublicTenantIdentifier(), BACKFILLED_KEY_NAME,
+                    new KeyValueInfo(BACKFILL_STARTED_VALUE, System.currentTimeMillis()));
+        }
+        if (info == null || !BACKFILLED_VALUE.equals(info.value)) {
+            try {
+                Thread.sleep(2 * NOT_BACKFILLED_RECHECK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageQueryException(e);
+            }
+        }
+
+        String lastUserId = "";
+        while (true) {
+            List<String> userIds = getUserIdsAfter(start, appIdentifier, lastUserId, batchSize);
+            if (userIds.isEmpty()) {
+                break;
+            }
+
+            start.startTransaction(con -> {
+                Connection sqlCon = (Connection) con.getConnection();
+                try {
+                    syncUsers_Transaction(start, sqlCon, appIdentifier, userIds);
+                    sqlCon.commit();
+                } catch (SQLException e) {
+                    throw new StorageTransactionLogicException(e);
+                }
+                return null;
+            });
+            lastUserId = userIds.get(userIds.size() - 1);
+        }
+
+        GeneralQueries.setKeyValue(start, appIdentifier.getAsPublicTenantIdentifier(), BACKFILLED_KEY_NAME,
+                new KeyValueInfo(BACKFILLED_VALUE, System.currentTimeMillis()));
+        BackfillState.getInstance(start).backfilledAppIds.add(appIdentifier.getAppId());
+    }
+
+    /**
+     * Rebuilds the identity_index rows of every user of the app whose rows do not match the recipe tables, batchSize
+     * users per transaction, and returns how many users that was. Writes made by a core that does not keep this table
+     * in sync (for example an older core during a rolling upgrade) leave it stale, so this needs to be run once no
+     * such core writes to the database anymore. Like {@link #backfill}, it is safe to run while the app is serving
+     * requests.
+     */
+    public static int reconcile(Start start, AppIdentifier appIdentifier, int batchSize)
+            throws SQLException, StorageQueryException, StorageTransactionLogicException {
+        int numberOfUsersRebuilt = 0;
+        String lastUserId = "";
+        while (true) {
+            List<String> userIds = getUserIdsAfter(start, appIdentifier, lastUserId, batchSize);
+            if (userIds.isEmpty()) {
+                break;
+            }
+
+            Map<String, Set<String>> expectedRows = execute(start,
+                    getQueryToSelectRowsFromRecipeTables(start, userIds.size()),
+                    pst -> setRowsFromRecipeTablesParams(pst, appIdentifier, userIds),
+                    IdentityIndexQueries::getRowsByUserId);
+            String QUERY = "SELECT app_id, tenant_id, identifier_type, identifier, user_id, recipe_id,"
+                    + " primary_user_id FROM " + getConfig(start).getIdentityIndexTable()
+                    + " WHERE app_id = ? AND user_id IN ("
+                    + Utils.generateCommaSeperatedQuestionMarks(userIds.size()) + ")";
+            Map<String, Set<String>> actualRows = execute(start, QUERY, pst -> {
+                pst.setString(1, appIdentifier.getAppId());
+                for (int i = 0; i < userIds.size(); i++) {
+                    pst.setString(i + 2, userIds.get(i));
+                }
+            }, IdentityIndexQueries::getRowsByUserId);
+
+            // a user that changed between the two reads is rebuilt even if it was in sync, which is harmless
+            List<String> staleUserIds = new ArrayList<>();
+            for (String userId : userIds) {
+                if (!expectedRows.getOrDefault(userId, Collections.emptySet())
+                        .equals(actualRows.getOrDefault(userId, Collections.emptySet()))) {
+                    staleUserIds.add(userId);
+                }
+            }
+            if (!staleUserIds.isEmpty()) {
+                start.startTransaction(con -> {
+                    Connection sqlCon = (Connection) con.getConnection();
+                    try {
+                        syncUsers_Transaction(start, sqlCon, appIdentifier, staleUserIds);
+                        sqlCon.commit();
+                    } catch (SQLException e) {
+                        throw new StorageTransactionLogicException(e);
+                    }
+                    return null;
+                });
+                numberOfUsersRebuilt += staleUserIds.size();
+            }
+            lastUserId = userIds.get(userIds.size() - 1);
+        }
+        return numberOfUsersRebuilt;
+    }
+
+    private static List<String> getUserIdsAfter(Start start, AppIdentifier appIdentifier, String fromUserId,
+                                                int limit)
+            throws SQLException, StorageQueryException {
+        String QUERY = "SELECT user_id FROM " + getConfig(start).getAppIdToUserIdTable()
+                + " WHERE app_id = ? AND user_id > ? ORDER BY user_id LIMIT ?";
+        return execute(start, QUERY, pst -> {
+            pst.setString(1, appIdentifier.getAppId());
+            pst.setString(2, fromUserId);
+            pst.setInt(3, limit);
+        }, result -> {
+            List<String> ids = new ArrayList<>();
+            while (result.next()) {
+                ids.add(result.getString("user_id"));
+            }
+            return ids;
+        });
+    }
+
+    // the columns are read by position, since the recipe table query has no column aliases
+    private static Map<String, Set<String>> getRowsByUserId(ResultSet result) throws SQLException {
+        Map<String, Set<String>> rows = new HashMap<>();
+        while (result.next()) {
+            String row = result.getString(2) + "\n" + result.getString(3) + "\n" + result.getString(4) + "\n"
+                    + result.getString(6) + "\n" + result.getString(7);
+            rows.computeIfAbsent(result.getString(5), k -> new HashSet<>()).add(row);
+        }
+        return rows;
+    }
+
+    private static class BackfillState extends ResourceDistributor.SingletonResource {
+        private static final String RESOURCE_KEY = "io.supertokens.storage.mysql.queries.IdentityIndexQueries";
+
+        private final Set<String> backfilledAppIds = ConcurrentHashMap.newKeySet();
+        private final Map<String, Long> notBackfilledCheckedAt = new ConcurrentHashMap<>();
+        private final Set<String> syncedAppIds = ConcurrentHashMap.newKeySet();
+        private final Map<String, Long> notSyncedCheckedAt = new ConcurrentHashMap<>();
+
+        private static BackfillState getInstance(Start start) {
+            ResourceDistributor.SingletonResource instance = start.getResourceDistributor()
+                    .getResource(RESOURCE_KEY);
+            if (instance == null) {
+                instance = start.getResourceDistributor().setResource(RESOURCE_KEY, new BackfillState());
+            }
+            return (BackfillState) instance;
+        }
+    }
+}
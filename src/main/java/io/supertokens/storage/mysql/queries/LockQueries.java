@@ -0,0 +1,113 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.queries;
+
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.storage.mysql.Start;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
+import static io.supertokens.storage.mysql.config.Config.getConfig;
+
+/**
+ * The locks table has one row per (app, lock namespace, key) that a transaction has ever serialized on. Locking a key
+ * upserts its row, which takes an exclusive lock on exactly that primary key record (and no gap), so transactions
+ * that lock the same key run one after the other, and ones that lock different keys never wait on each other.
+ * <p>
+ * This is meant for transactions that read some rows and then write based on what they read. Locking a key first,
+ * instead of reading the rows with FOR UPDATE, means a second transaction waits before it has taken any locks on the
+ * rows, which is what otherwise makes two such transactions deadlock when the rows do not exist yet (both get a lock
+ * on the gap, and then both wait for the other to insert into it). Every writer of the rows that needs to be
+ * serialized with the read has to lock the same key, and it has to be the first lock the transaction takes.
+ * <p>
+ * The rows keyed by a user id are deleted along with the user's data (see deleteKey_Transaction), and all the rows of
+ * an app with the app. A transaction that was waiting for a row that gets deleted inserts it again once the delete is
+ * committed, so it still runs after the deleting transaction.
+ */
+public class LockQueries {
+
+    public static final String NAMESPACE_USER_METADATA = "user_metadata";
+    public static final String NAMESPACE_TOTP_USED_CODES = "totp_used_codes";
+    public static final String NAMESPACE_BULK_IMPORT_USERS_STATUS_COUNT = "bulk_import_users_status_count";
+
+    // MySQL error code for a foreign key that points to a row that does not exist
+    private static final int ER_NO_REFERENCED_ROW_2 = 1452;
+
+    static String getQueryToCreateLocksTable(Start start) {
+        String tableName = getConfig(start).getLocksTable();
+        // @formatter:off
+        return "CREATE TABLE IF NOT EXISTS " + tableName + " ("
+                + "app_id VARCHAR(64) NOT NULL DEFAULT 'public',"
+                + "lock_namespace VARCHAR(64) NOT NULL,"
+                + "lock_key VARCHAR(256) NOT NULL,"
+                + "PRIMARY KEY (app_id, lock_namespace, lock_key),"
+                + "FOREIGN KEY (app_id) REFERENCES " + getConfig(start).getAppsTable() + " (app_id) ON DELETE CASCADE"
+                + ");";
+        // @formatter:on
+    }
+
+    /**
+     * Locks the given key until the transaction ends, waiting for any other transaction that holds it.
+     *
+     * @return false if the app does not exist, in which case nothing is locked.
+     */
+    public static boolean lockKey_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
+                                              String namespace, String key)
+            throws SQLException, StorageQueryException {
+        // a no-op update still locks the existing row, and unlike INSERT IGNORE, does not hide other errors
+        String QUERY = "INSERT INTO " + getConfig(start).getLocksTable()
+                + " (app_id, lock_namespace, lock_key) VALUES (?, ?, ?)"
+                + " ON DUPLICATE KEY UPDATE lock_key = lock_key";
+        try {
+            update(con, QUERY, pst -> {
+                pst.setString(1, appIdentifier.getAppId());
+                pst.setString(2, namespace);
+                pst.setString(3, key);
+            });
+            return true;
+        } catch (SQLException e) {
+            // only the failed statement is rolled back, so the transaction can go on
+            if (e.getErrorCode() == ER_NO_REFERENCED_ROW_2) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the row of the given key. The key is locked first (if the transaction does not hold it yet), so that
+     * the row exists and the delete only locks its record, and not the gap where it would be, which is what deadlocks
+     * with transactions inserting it.
+     */
+    public static void deleteKey_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
+                                             String namespace, String key)
+            throws SQLException, StorageQueryException {
+        if (!lockKey_Transaction(start, con, appIdentifier, namespace, key)) {
+            return;
+        }
+        String QUERY = "DELETE FROM " + getConfig(start).getLocksTable()
+                + " WHERE app_id = ? AND lock_namespace = ? AND lock_key = ?";
+        update(con, QUERY, pst -> {
+            pst.setString(1, appIdentifier.getAppId());
+            pst.setString(2, namespace);
+            pst.setString(3, key);
+        });
+    }
+}
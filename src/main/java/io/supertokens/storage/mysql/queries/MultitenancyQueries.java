@@ -324,6 +324,7 @@ public class MultitenancyQueries {
         }
 
         long currentTime = System.currentTimeMillis();
+        boolean isNewApp;
         {
             // ON CONFLICT DO NOTHING
             String QUERY = "INSERT INTO " + getConfig(start).getAppsTable()
@@ -332,11 +333,12 @@ public class MultitenancyQueries {
                     + " SELECT app_id FROM " + getConfig(start).getAppsTable()
                     + " WHERE app_id = ?"
                     + ")";
-            update(con, QUERY, pst -> {
+            int numRows = update(con, QUERY, pst -> {
                 pst.setString(1, tenantIdentifier.getAppId());
                 pst.setLong(2, currentTime);
                 pst.setString(3, tenantIdentifier.getAppId());
             });
+            isNewApp = numRows > 0;
         }
 
         {
@@ -356,6 +358,11 @@ public class MultitenancyQueries {
                 pst.setString(5, tenantIdentifier.getTenantId());
             });
         }
+
+        if (isNewApp && tenantIdentifier.getTenantId().equals(TenantIdentifier.DEFAULT_TENANT_ID)) {
+            // a new app has no users, so its identity index is complete from the start
+            IdentityIndexQueries.markAsBackfilled_Transaction(start, con, tenantIdentifier.toAppIdentifier());
+        }
     }
 
     public static void deleteTenantIdInTargetStorage(Start start, TenantIdentifier tenantIdentifier)
@@ -47,6 +47,9 @@ import static io.supertokens.storage.mysql.QueryExecutorTemplate.*;
 import static io.supertokens.storage.mysql.config.Config.getConfig;
 
 public class PasswordlessQueries {
+    // bounds both the memory of an expired codes sweep and the number of rows one of its transactions locks
+    private static final int MAX_CODES_PER_EXPIRY_BATCH = 1000;
+
     public static String getQueryToCreateUsersTable(Start start) {
         return "CREATE TABLE IF NOT EXISTS " + getConfig(start).getPasswordlessUsersTable() + " ("
                 + "app_id VARCHAR(64) DEFAULT 'public',"
@@ -235,6 +238,15 @@ public class PasswordlessQueries {
         executeBatch(sqlCon, all_auth_recipe_users_QUERY, allAuthRecipeUsersSetters);
         executeBatch(sqlCon, passwordless_users_QUERY, passwordlessUsersSetters);
         executeBatch(sqlCon, passwordless_user_to_tenant_QUERY, passwordlessUserToTenantSetters);
+
+        Map<AppIdentifier, List<String>> appIdentifierToUserIds = new HashMap<>();
+        for (PasswordlessImportUser user : users) {
+            appIdentifierToUserIds.computeIfAbsent(user.tenantIdentifier.toAppIdentifier(), k -> new ArrayList<>())
+                    .add(user.userId);
+        }
+        for (Map.Entry<AppIdentifier, List<String>> entry : appIdentifierToUserIds.entrySet()) {
+            IdentityIndexQueries.syncUsers_Transaction(start, sqlCon, entry.getKey(), entry.getValue());
+        }
     }
     public static PasswordlessDevice getDevice_Transaction(Start start, Connection con,
                                                            TenantIdentifier tenantIdentifier, String deviceIdHash)
@@ -497,6 +509,8 @@ public class PasswordlessQueries {
                         pst.setString(5, phoneNumber);
                     });
                 }
+                IdentityIndexQueries.syncUser_Transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), id);
+
                 UserInfoPartial userInfo = new UserInfoPartial(id, email, phoneNumber, timeJoined);
                 fillUserInfoWithTenantIds_transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), userInfo);
                 fillUserInfoWithVerified_transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), userInfo);
@@ -601,16 +615,19 @@ public class PasswordlessQueries {
                 pst.setString(3, userId);
             });
         }
+        int numRows;
         {
             String QUERY = "UPDATE " + Config.getConfig(start).getPasswordlessUsersTable()
                     + " SET email = ? WHERE app_id = ? AND user_id = ?";
 
-            return update(con, QUERY, pst -> {
+            numRows = update(con, QUERY, pst -> {
                 pst.setString(1, email);
                 pst.setString(2, appIdentifier.getAppId());
                 pst.setString(3, userId);
             });
         }
+        IdentityIndexQueries.syncUser_Transaction(start, con, appIdentifier, userId);
+        return numRows;
     }
 
     public static int updateUserPhoneNumber_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
@@ -626,16 +643,19 @@ public class PasswordlessQueries {
                 pst.setString(3, userId);
             });
         }
+        int numRows;
         {
             String QUERY = "UPDATE " + Config.getConfig(start).getPasswordlessUsersTable()
                     + " SET phone_number = ? WHERE app_id = ? AND user_id = ?";
 
-            return update(con, QUERY, pst -> {
+            numRows = update(con, QUERY, pst -> {
                 pst.setString(1, phoneNumber);
                 pst.setString(2, appIdentifier.getAppId());
                 pst.setString(3, userId);
             });
         }
+        IdentityIndexQueries.syncUser_Transaction(start, con, appIdentifier, userId);
+        return numRows;
     }
 
     public static PasswordlessDevice getDevice(Start start, TenantIdentifier tenantIdentifier, String deviceIdHash)
@@ -737,6 +757,107 @@ public class PasswordlessQueries {
         });
     }
 
+    /**
+     * Deletes the codes of the tenant created before the given time, along with the devices that are left without
+     * codes, which is what the core does when it removes expired codes one by one. This walks the
+     * passwordless_codes_created_at_index in batches of {@link #MAX_CODES_PER_EXPIRY_BATCH}, each deleted in its own
+     * short transaction, so memory use and lock time do not grow with the number of expired codes.
+     *
+     * @return the number of codes deleted
+     */
+    public static long deleteCodesBefore(Start start, TenantIdentifier tenantIdentifier, long time)
+            throws StorageQueryException, StorageTransactionLogicException, SQLException {
+        String codesTable = getConfig(start).getPasswordlessCodesTable();
+        String devicesTable = getConfig(start).getPasswordlessDevicesTable();
+        // the created_at index has the primary key appended, so this is an ordered range scan of it, resumed after
+        // the last code of the previous batch. Codes that a batch could not delete are not read again.
+        String SELECT_QUERY = "SELECT code_id, device_id_hash, created_at FROM " + codesTable
+                + " WHERE app_id = ? AND tenant_id = ? AND created_at < ?"
+                + " AND (created_at > ? OR (created_at = ? AND code_id > ?))"
+                + " ORDER BY created_at, code_id LIMIT ?";
+
+        long deleted = 0;
+        long lastCreatedAt = -1;
+        String lastCodeId = "";
+        while (true) {
+            long afterCreatedAt = lastCreatedAt;
+            String afterCodeId = lastCodeId;
+            List<String> codeIds = new ArrayList<>();
+            TreeSet<String> deviceIdHashes = new TreeSet<>();
+            long[] lastSeenCreatedAt = {afterCreatedAt};
+            execute(start, SELECT_QUERY, pst -> {
+                pst.setString(1, tenantIdentifier.getAppId());
+                pst.setString(2, tenantIdentifier.getTenantId());
+                pst.setLong(3, time);
+                pst.setLong(4, afterCreatedAt);
+                pst.setLong(5, afterCreatedAt);
+                pst.setString(6, afterCodeId);
+                pst.setInt(7, MAX_CODES_PER_EXPIRY_BATCH);
+            }, result -> {
+                while (result.next()) {
+                    codeIds.add(result.getString("code_id"));
+                    deviceIdHashes.add(result.getString("device_id_hash"));
+                    lastSeenCreatedAt[0] = result.getLong("created_at");
+                }
+                return null;
+            });
+            if (codeIds.isEmpty()) {
+                return deleted;
+            }
+
+            deleted += start.startTransaction(con -> {
+                Connection sqlCon = (Connection) con.getConnection();
+                try {
+                    List<String> hashes = new ArrayList<>(deviceIdHashes);
+                    String hashQuestionMarks = Utils.generateCommaSeperatedQuestionMarks(hashes.size());
+                    // devices before codes, like the core does when it removes or consumes a code, so that the two
+                    // do not deadlock
+                    execute(sqlCon, "SELECT device_id_hash FROM " + devicesTable
+                            + " WHERE app_id = ? AND tenant_id = ? AND device_id_hash IN (" + hashQuestionMarks
+                            + ") FOR UPDATE", pst -> {
+                        pst.setString(1, tenantIdentifier.getAppId());
+                        pst.setString(2, tenantIdentifier.getTenantId());
+                        for (int i = 0; i < hashes.size(); i++) {
+                            pst.setString(3 + i, hashes.get(i));
+                        }
+                    }, result -> null);
+
+                    int numCodes = update(sqlCon, "DELETE FROM " + codesTable
+                            + " WHERE app_id = ? AND tenant_id = ? AND code_id IN ("
+                            + Utils.generateCommaSeperatedQuestionMarks(codeIds.size()) + ")", pst -> {
+                        pst.setString(1, tenantIdentifier.getAppId());
+                        pst.setString(2, tenantIdentifier.getTenantId());
+                        for (int i = 0; i < codeIds.size(); i++) {
+                            pst.setString(3 + i, codeIds.get(i));
+                        }
+                    });
+
+                    update(sqlCon, "DELETE FROM " + devicesTable
+                            + " WHERE app_id = ? AND tenant_id = ? AND device_id_hash IN (" + hashQuestionMarks + ")"
+                            + " AND NOT EXISTS (SELECT 1 FROM " + codesTable + " c WHERE c.app_id = " + devicesTable
+                            + ".app_id AND c.tenant_id = " + devicesTable + ".tenant_id AND c.device_id_hash = "
+                            + devicesTable + ".device_id_hash)", pst -> {
+                        pst.setString(1, tenantIdentifier.getAppId());
+                        pst.setString(2, tenantIdentifier.getTenantId());
+                        for (int i = 0; i < hashes.size(); i++) {
+                            pst.setString(3 + i, hashes.get(i));
+                        }
+                    });
+                    sqlCon.commit();
+                    return (long) numCodes;
+                } catch (SQLException e) {
+                    throw new StorageTransactionLogicException(e);
+                }
+            });
+
+            if (codeIds.size() < MAX_CODES_PER_EXPIRY_BATCH) {
+                return deleted;
+            }
+            lastCreatedAt = lastSeenCreatedAt[0];
+            lastCodeId = codeIds.get(codeIds.size() - 1);
+        }
+    }
+
     public static PasswordlessCode getCode(Start start, TenantIdentifier tenantIdentifier, String codeId)
             throws StorageQueryException, SQLException {
         String QUERY = "SELECT code_id, device_id_hash, link_code_hash, created_at FROM "
@@ -1082,6 +1203,9 @@ public class PasswordlessQueries {
                 pst.setString(8, userInfo.id);
             });
 
+            IdentityIndexQueries.syncUser_Transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(),
+                    userInfo.id);
+
             return numRows > 0;
         }
     }
@@ -17,15 +17,17 @@
 package io.supertokens.storage.mysql.queries;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import io.supertokens.pluginInterface.KeyValueInfo;
 import io.supertokens.pluginInterface.RowMapper;
 import io.supertokens.pluginInterface.exceptions.StorageQueryException;
 import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
 import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
 import io.supertokens.pluginInterface.session.SessionInfo;
+import io.supertokens.storage.mysql.ConnectionPool;
+import io.supertokens.storage.mysql.SessionInfoCache;
 import io.supertokens.storage.mysql.Start;
 import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.queries.utils.JsonUtils;
 import io.supertokens.storage.mysql.utils.Utils;
 
 import javax.annotation.Nullable;
@@ -42,6 +44,11 @@ import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
 import static java.lang.System.currentTimeMillis;
 
 public class SessionQueries {
+    // session_data and jwt_user_payload can be a few KB each, so this keeps a statement well under max_allowed_packet
+    private static final int MAX_SESSIONS_PER_INSERT = 500;
+
+    private static final int MAX_USER_IDS_PER_DELETE = 1000;
+
     static String getQueryToCreateSessionInfoTable(Start start) {
         return "CREATE TABLE IF NOT EXISTS " + Config.getConfig(start).getSessionInfoTable() + " ("
                 + "app_id VARCHAR(64) DEFAULT 'public',"
@@ -75,9 +82,16 @@ public class SessionQueries {
                 + Config.getConfig(start).getSessionInfoTable() + "(expires_at);";
     }
 
+    // covers the lookups and deletes of the sessions of a user (with the tenant id coming from the primary key that
+    // every secondary index has), so they do not need to read the rows.
+    static final String SESSION_USER_ID_INDEX_NAME = "session_info_app_id_user_id_expires_at_index";
+    static final String SESSION_USER_ID_INDEX_COLUMNS = "app_id, user_id, expires_at, session_handle";
+    // the index that the one above replaces on existing installs
+    static final String OLD_SESSION_USER_ID_INDEX_NAME = "session_info_user_id_app_id_index";
+
     static String getQueryToCreateSessionAppIdUserIdIndex(Start start) {
-        return "CREATE INDEX session_info_user_id_app_id_index ON "
-                + Config.getConfig(start).getSessionInfoTable() + "(user_id, app_id);";
+        return "CREATE INDEX " + SESSION_USER_ID_INDEX_NAME + " ON "
+                + Config.getConfig(start).getSessionInfoTable() + "(" + SESSION_USER_ID_INDEX_COLUMNS + ");";
     }
 
 
@@ -104,6 +118,41 @@ public class SessionQueries {
         });
     }
 
+    // inserts the sessions with one multi row INSERT per MAX_SESSIONS_PER_INSERT sessions, all on one connection. Each
+    // statement is committed on its own, so if one fails, the sessions of the statements before it stay created.
+    public static void createNewSessions(Start start, TenantIdentifier tenantIdentifier, List<SessionInfo> sessions)
+            throws SQLException, StorageQueryException {
+        if (sessions.isEmpty()) {
+            return;
+        }
+        try (Connection con = ConnectionPool.getConnection(start)) {
+            for (int from = 0; from < sessions.size(); from += MAX_SESSIONS_PER_INSERT) {
+                List<SessionInfo> batch = sessions.subList(from,
+                        Math.min(sessions.size(), from + MAX_SESSIONS_PER_INSERT));
+                String QUERY = "INSERT INTO " + Config.getConfig(start).getSessionInfoTable()
+                        + "(app_id, tenant_id, session_handle, user_id, refresh_token_hash_2, session_data, expires_at,"
+                        + " jwt_user_payload, created_at_time, use_static_key) VALUES "
+                        + Utils.generateCommaSeperatedQuestionMarkTuples(batch.size(), 10);
+
+                update(con, QUERY, pst -> {
+                    int index = 1;
+                    for (SessionInfo session : batch) {
+                        pst.setString(index++, tenantIdentifier.getAppId());
+                        pst.setString(index++, tenantIdentifier.getTenantId());
+                        pst.setString(index++, session.sessionHandle);
+                        pst.setString(index++, session.recipeUserId);
+                        pst.setString(index++, session.refreshTokenHash2);
+                        pst.setString(index++, session.userDataInDatabase.toString());
+                        pst.setLong(index++, session.expiry);
+                        pst.setString(index++, session.userDataInJWT.toString());
+                        pst.setLong(index++, session.timeCreated);
+                        pst.setBoolean(index++, session.useStaticKey);
+                    }
+                });
+            }
+        }
+    }
+
     public static SessionInfo getSessionInfo_Transaction(Start start, Connection con, TenantIdentifier tenantIdentifier,
                                                          String sessionHandle)
             throws SQLException, StorageQueryException {
@@ -194,6 +243,7 @@ public class SessionQueries {
                 + " SET refresh_token_hash_2 = ?, expires_at = ?, use_static_key= ?"
                 + " WHERE app_id = ? AND tenant_id = ? AND session_handle = ?";
 
+        SessionInfoCache.getInstance(start).invalidate_Transaction(tenantIdentifier, sessionHandle);
         update(con, QUERY, pst -> {
             pst.setString(1, refreshTokenHash2);
             pst.setLong(2, expiry);
@@ -236,13 +286,17 @@ public class SessionQueries {
             }
         }
 
-        return update(start, QUERY.toString(), pst -> {
+        int numRows = update(start, QUERY.toString(), pst -> {
             pst.setString(1, tenantIdentifier.getAppId());
             pst.setString(2, tenantIdentifier.getTenantId());
             for (int i = 0; i < sessionHandles.length; i++) {
                 pst.setString(i + 3, sessionHandles[i]);
             }
         });
+        for (String sessionHandle : sessionHandles) {
+            SessionInfoCache.getInstance(start).invalidate(tenantIdentifier, sessionHandle);
+        }
+        return numRows;
     }
 
     public static void deleteSessionsOfUser(Start start, AppIdentifier appIdentifier, String userId)
@@ -254,6 +308,7 @@ public class SessionQueries {
             pst.setString(1, appIdentifier.getAppId());
             pst.setString(2, userId);
         });
+        SessionInfoCache.getInstance(start).invalidateUser(appIdentifier, userId);
     }
 
     public static void deleteSessionsOfUser_Transaction(Connection sqlCon, Start start, AppIdentifier appIdentifier,
@@ -262,12 +317,40 @@ public class SessionQueries {
         String QUERY = "DELETE FROM " + Config.getConfig(start).getSessionInfoTable()
                 + " WHERE app_id = ? AND user_id = ?";
 
+        SessionInfoCache.getInstance(start).invalidateUser_Transaction(appIdentifier, userId);
         update(sqlCon, QUERY.toString(), pst -> {
             pst.setString(1, appIdentifier.getAppId());
             pst.setString(2, userId);
         });
     }
 
+    // deletes with one DELETE per MAX_USER_IDS_PER_DELETE users, all on one connection, and returns the number of
+    // sessions deleted. Each statement is committed on its own.
+    public static int deleteSessionsOfUsers(Start start, AppIdentifier appIdentifier, List<String> userIds)
+            throws SQLException, StorageQueryException {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        int numRows = 0;
+        try (Connection con = ConnectionPool.getConnection(start)) {
+            for (int from = 0; from < userIds.size(); from += MAX_USER_IDS_PER_DELETE) {
+                List<String> batch = userIds.subList(from, Math.min(userIds.size(), from + MAX_USER_IDS_PER_DELETE));
+                String QUERY = "DELETE FROM " + Config.getConfig(start).getSessionInfoTable()
+                        + " WHERE app_id = ? AND user_id IN (" + Utils.generateCommaSeperatedQuestionMarks(batch.size())
+                        + ")";
+
+                numRows += update(con, QUERY, pst -> {
+                    pst.setString(1, appIdentifier.getAppId());
+                    for (int i = 0; i < batch.size(); i++) {
+                        pst.setString(i + 2, batch.get(i));
+                    }
+                });
+                SessionInfoCache.getInstance(start).invalidateUsers(appIdentifier, batch);
+            }
+        }
+        return numRows;
+    }
+
     public static boolean deleteSessionsOfUser(Start start, TenantIdentifier tenantIdentifier, String userId)
             throws SQLException, StorageQueryException {
         String QUERY = "DELETE FROM " + Config.getConfig(start).getSessionInfoTable()
@@ -278,6 +361,7 @@ public class SessionQueries {
             pst.setString(2, tenantIdentifier.getTenantId());
             pst.setString(3, userId);
         });
+        SessionInfoCache.getInstance(start).invalidateUser(tenantIdentifier.toAppIdentifier(), userId);
         return numRows > 0;
     }
 
@@ -353,7 +437,7 @@ public class SessionQueries {
         }
         QUERY += " WHERE app_id = ? AND tenant_id = ? AND session_handle = ?";
 
-        return update(start, QUERY, pst -> {
+        int numRows = update(start, QUERY, pst -> {
             int currIndex = 1;
             if (sessionData != null) {
                 pst.setString(currIndex, sessionData.toString());
@@ -367,6 +451,8 @@ public class SessionQueries {
             pst.setString(currIndex++, tenantIdentifier.getTenantId());
             pst.setString(currIndex, sessionHandle);
         });
+        SessionInfoCache.getInstance(start).invalidate(tenantIdentifier, sessionHandle);
+        return numRows;
     }
 
     public static SessionInfo getSession(Start start, TenantIdentifier tenantIdentifier, String sessionHandle)
@@ -382,16 +468,17 @@ public class SessionQueries {
                         " as users ON sess.app_id = users.app_id AND sess.user_id = users.user_id WHERE sess.app_id =" +
                         " ? AND " +
                         "sess.tenant_id = ? AND sess.session_handle = ?";
-        return execute(start, QUERY, pst -> {
-            pst.setString(1, tenantIdentifier.getAppId());
-            pst.setString(2, tenantIdentifier.getTenantId());
-            pst.setString(3, sessionHandle);
-        }, result -> {
-            if (result.next()) {
-                return SessionInfoRowMapper.getInstance().mapOrThrow(result, true);
-            }
-            return null;
-        });
+        return SessionInfoCache.getInstance(start).get(tenantIdentifier, sessionHandle,
+                () -> execute(start, QUERY, pst -> {
+                    pst.setString(1, tenantIdentifier.getAppId());
+                    pst.setString(2, tenantIdentifier.getTenantId());
+                    pst.setString(3, sessionHandle);
+                }, result -> {
+                    if (result.next()) {
+                        return SessionInfoRowMapper.getInstance().mapOrThrow(result, true);
+                    }
+                    return null;
+                }));
     }
 
     public static void addAccessTokenSigningKey_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
@@ -479,18 +566,19 @@ public class SessionQueries {
         }
 
         public SessionInfo mapOrThrow(ResultSet result, boolean hasPrimaryOrRecipeUserId) throws StorageQueryException {
-            JsonParser jp = new JsonParser();
             // if result.getString("primary_or_recipe_user_id") is null, it will be handled by SessionInfo
             // constructor
             try {
+                // SessionInfo exposes the payloads as JsonObject fields, and JsonObject is final, so they cannot be
+                // parsed lazily and are decoded here, straight from the row buffer instead of via a String.
                 return new SessionInfo(result.getString("session_handle"),
                         hasPrimaryOrRecipeUserId ? result.getString("primary_or_recipe_user_id") :
                                 result.getString("user_id"),
                         result.getString("user_id"),
                         result.getString("refresh_token_hash_2"),
-                        jp.parse(result.getString("session_data")).getAsJsonObject(),
+                        JsonUtils.resultSetColumnToJsonObject(result, "session_data"),
                         result.getLong("expires_at"),
-                        jp.parse(result.getString("jwt_user_payload")).getAsJsonObject(),
+                        JsonUtils.resultSetColumnToJsonObject(result, "jwt_user_payload"),
                         result.getLong("created_at_time"), result.getBoolean("use_static_key"));
             } catch (Exception e) {
                 throw new StorageQueryException(e);
@@ -69,6 +69,16 @@ public class TOTPQueries {
                 + Config.getConfig(start).getTotpUsedCodesTable() + " (app_id, tenant_id, expiry_time_ms)";
     }
 
+    // finds a user's used codes that can still be reused without reading the rest of the user's history, see
+    // getAllUsedCodesDescOrder_Transaction
+    static final String USED_CODES_VALID_INDEX_NAME = "totp_used_codes_user_id_is_valid_expiry_time_ms_index";
+    static final String USED_CODES_VALID_INDEX_COLUMNS = "app_id, tenant_id, user_id, is_valid, expiry_time_ms";
+
+    static String getQueryToCreateUsedCodesValidIndex(Start start) {
+        return "CREATE INDEX " + USED_CODES_VALID_INDEX_NAME + " ON "
+                + Config.getConfig(start).getTotpUsedCodesTable() + " (" + USED_CODES_VALID_INDEX_COLUMNS + ")";
+    }
+
     private static int insertUser_Transaction(Start start, Connection con, AppIdentifier appIdentifier, String userId)
             throws SQLException, StorageQueryException {
         // Create user if not exists:
@@ -165,6 +175,9 @@ public class TOTPQueries {
             pst.setString(1, appIdentifier.getAppId());
             pst.setString(2, userId);
         });
+        // The user's row in the locks table goes too. Its key is locked after the user's devices (deleted above
+        // along with the user), in the same order as a code verification, which reads the devices FOR UPDATE first.
+        LockQueries.deleteKey_Transaction(start, con, appIdentifier, LockQueries.NAMESPACE_TOTP_USED_CODES, userId);
 
         return removedUsersCount;
     }
@@ -242,7 +255,7 @@ public class TOTPQueries {
                 " (app_id, tenant_id, user_id, code, is_valid, expiry_time_ms, created_time_ms) VALUES (?, ?, ?, ?, " +
                 "?, ?, ?);";
 
-        return update(con, QUERY, pst -> {
+        int numRows = update(con, QUERY, pst -> {
             pst.setString(1, tenantIdentifier.getAppId());
             pst.setString(2, tenantIdentifier.getTenantId());
             pst.setString(3, code.userId);
@@ -251,31 +264,98 @@ public class TOTPQueries {
             pst.setLong(6, code.expiryTime);
             pst.setLong(7, code.createdTime);
         });
+        int codesPerUser = Config.getConfig(start).getTotpUsedCodesPerUser();
+        if (codesPerUser > 0) {
+            trimUsedCodes_Transaction(start, con, tenantIdentifier, code.userId, codesPerUser,
+                    System.currentTimeMillis());
+        }
+        return numRows;
+    }
+
+    // Deletes the user's used codes that are older than their latest codesPerUser ones, except for valid codes that
+    // have not expired yet, since those are needed to stop a code from being used twice. The user is already locked
+    // by getAllUsedCodesDescOrder_Transaction, and the delete only walks the primary key range of this user.
+    private static void trimUsedCodes_Transaction(Start start, Connection con, TenantIdentifier tenantIdentifier,
+                                                  String userId, int codesPerUser, long now)
+            throws SQLException, StorageQueryException {
+        String table = Config.getConfig(start).getTotpUsedCodesTable();
+        // the derived table is needed since MySQL does not allow a subquery on the table a DELETE is on
+        String QUERY = "DELETE FROM " + table
+                + " WHERE app_id = ? AND tenant_id = ? AND user_id = ? AND created_time_ms < ("
+                + "SELECT created_time_ms FROM (SELECT created_time_ms FROM " + table
+                + " WHERE app_id = ? AND tenant_id = ? AND user_id = ?"
+                + " ORDER BY created_time_ms DESC LIMIT 1 OFFSET ?) AS oldest_kept)"
+                + " AND (is_valid = false OR expiry_time_ms < ?)";
+
+        update(con, QUERY, pst -> {
+            pst.setString(1, tenantIdentifier.getAppId());
+            pst.setString(2, tenantIdentifier.getTenantId());
+            pst.setString(3, userId);
+            pst.setString(4, tenantIdentifier.getAppId());
+            pst.setString(5, tenantIdentifier.getTenantId());
+            pst.setString(6, userId);
+            pst.setInt(7, codesPerUser - 1);
+            pst.setLong(8, now);
+        });
     }
 
     /**
-     * Query to get all used codes (expired/non-expired) for a user in descending
-     * order of creation time.
+     * Query to get the latest used codes (expired/non-expired) for a user in descending order of creation time, up to
+     * mysql_totp_used_codes_read_limit of them, along with any older valid codes that have not expired yet. Core only
+     * looks at the latest totp_max_attempts codes (for rate limiting) and at the valid unexpired ones (so that a code
+     * is not used twice), so it never needs the whole history.
      */
     public static TOTPUsedCode[] getAllUsedCodesDescOrder_Transaction(Start start, Connection con,
                                                                       TenantIdentifier tenantIdentifier, String userId)
             throws SQLException, StorageQueryException {
-        // Take a lock based on the user id:
+        // Take a lock based on the user id, instead of locking the user's rows (and the gaps between them)
+        LockQueries.lockKey_Transaction(start, con, tenantIdentifier.toAppIdentifier(),
+                LockQueries.NAMESPACE_TOTP_USED_CODES, userId);
+
+        int readLimit = Config.getConfig(start).getTotpUsedCodesReadLimit();
+        // This is a backward scan of the primary key, which is ordered by created_time_ms within a user, so it reads
+        // at most readLimit rows.
         String QUERY = "SELECT * FROM " +
                 Config.getConfig(start).getTotpUsedCodesTable()
-                + " WHERE app_id = ? AND tenant_id = ? AND user_id = ? ORDER BY created_time_ms DESC FOR UPDATE;";
-        return execute(con, QUERY, pst -> {
+                + " WHERE app_id = ? AND tenant_id = ? AND user_id = ? ORDER BY created_time_ms DESC LIMIT ?;";
+        List<TOTPUsedCode> codes = execute(con, QUERY, pst -> {
             pst.setString(1, tenantIdentifier.getAppId());
             pst.setString(2, tenantIdentifier.getTenantId());
             pst.setString(3, userId);
+            pst.setInt(4, readLimit);
         }, result -> {
-            List<TOTPUsedCode> codes = new ArrayList<>();
+            List<TOTPUsedCode> temp = new ArrayList<>();
             while (result.next()) {
-                codes.add(TOTPUsedCodeRowMapper.getInstance().map(result));
+                temp.add(TOTPUsedCodeRowMapper.getInstance().map(result));
             }
-
-            return codes.toArray(TOTPUsedCode[]::new);
+            return temp;
         });
+
+        if (codes.size() == readLimit) {
+            // there may be older codes that can still be reused, which is unlikely since valid codes expire quickly.
+            // This is a range scan of the user's valid unexpired codes in USED_CODES_VALID_INDEX_NAME, so it does not
+            // read the rest of the user's history.
+            long oldestRead = codes.get(codes.size() - 1).createdTime;
+            QUERY = "SELECT * FROM " + Config.getConfig(start).getTotpUsedCodesTable()
+                    + " WHERE app_id = ? AND tenant_id = ? AND user_id = ? AND created_time_ms < ?"
+                    + " AND is_valid = true AND expiry_time_ms > ? ORDER BY created_time_ms DESC;";
+            long now = System.currentTimeMillis();
+            codes.addAll(execute(con, QUERY, pst -> {
+                pst.setString(1, tenantIdentifier.getAppId());
+                pst.setString(2, tenantIdentifier.getTenantId());
+                pst.setString(3, userId);
+                pst.setLong(4, oldestRead);
+                pst.setLong(5, now);
+            }, result -> {
+                List<TOTPUsedCode> temp = new ArrayList<>();
+                while (result.next()) {
+                    temp.add(TOTPUsedCodeRowMapper.getInstance().map(result));
+                }
+                return temp;
+            }));
+        }
+
+        return codes.toArray(TOTPUsedCode[]::new);
     }
 
     public static int removeExpiredCodes(Start start, TenantIdentifier tenantIdentifier, long expiredBefore)
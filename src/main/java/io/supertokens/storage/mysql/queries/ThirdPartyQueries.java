@@ -151,6 +151,8 @@ public class ThirdPartyQueries {
                     });
                 }
 
+                IdentityIndexQueries.syncUser_Transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), id);
+
                 UserInfoPartial userInfo = new UserInfoPartial(id, email, thirdParty, timeJoined);
                 fillUserInfoWithTenantIds_transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), userInfo);
                 fillUserInfoWithVerified_transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), userInfo);
@@ -462,6 +464,31 @@ public class ThirdPartyQueries {
             pst.setString(3, thirdPartyId);
             pst.setString(4, thirdPartyUserId);
         });
+
+        String userId = getUserIdByThirdPartyInfo_Transaction(start, con, appIdentifier, thirdPartyId,
+                thirdPartyUserId);
+        if (userId != null) {
+            IdentityIndexQueries.syncUser_Transaction(start, con, appIdentifier, userId);
+        }
+    }
+
+    private static String getUserIdByThirdPartyInfo_Transaction(Start start, Connection con,
+                                                                AppIdentifier appIdentifier, String thirdPartyId,
+                                                                String thirdPartyUserId)
+            throws SQLException, StorageQueryException {
+        String QUERY = "SELECT user_id FROM " + Config.getConfig(start).getThirdPartyUsersTable()
+                + " WHERE app_id = ? AND third_party_id = ? AND third_party_user_id = ?";
+
+        return execute(con, QUERY, pst -> {
+            pst.setString(1, appIdentifier.getAppId());
+            pst.setString(2, thirdPartyId);
+            pst.setString(3, thirdPartyUserId);
+        }, result -> {
+            if (result.next()) {
+                return result.getString("user_id");
+            }
+            return null;
+        });
     }
 
     private static UserInfoPartial getUserInfoUsingUserId_Transaction(Start start, Connection con,
@@ -590,6 +617,9 @@ public class ThirdPartyQueries {
                 pst.setString(8, userInfo.id);
             });
 
+            IdentityIndexQueries.syncUser_Transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(),
+                    userInfo.id);
+
             return numRows > 0;
         }
     }
@@ -772,6 +802,15 @@ public class ThirdPartyQueries {
         executeBatch(sqlConnection, thirdparty_users_QUERY, thirdPartyUsersSetters);
         executeBatch(sqlConnection, thirdparty_user_to_tenant_QUERY, thirdPartyUsersToTenantSetters);
 
+        Map<AppIdentifier, List<String>> appIdentifierToUserIds = new HashMap<>();
+        for (ThirdPartyImportUser user : users) {
+            appIdentifierToUserIds.computeIfAbsent(user.tenantIdentifier.toAppIdentifier(), k -> new ArrayList<>())
+                    .add(user.userId);
+        }
+        for (Map.Entry<AppIdentifier, List<String>> entry : appIdentifierToUserIds.entrySet()) {
+            IdentityIndexQueries.syncUsers_Transaction(start, sqlConnection, entry.getKey(), entry.getValue());
+        }
+
     }
 
     private static class UserInfoPartial {
@@ -24,8 +24,10 @@ import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
 import io.supertokens.storage.mysql.PreparedStatementValueSetter;
 import io.supertokens.storage.mysql.Start;
 import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.queries.utils.JsonUtils;
 import io.supertokens.storage.mysql.utils.Utils;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -64,16 +66,21 @@ public class UserMetadataQueries {
         });
     }
 
+    // called when the user is deleted, so the user's row in the locks table goes too. The key is locked before the
+    // metadata row, in the same order as getUserMetadata_Transaction.
     public static int deleteUserMetadata_Transaction(Connection sqlCon, Start start, AppIdentifier appIdentifier,
                                                      String userId)
             throws SQLException, StorageQueryException {
+        LockQueries.lockKey_Transaction(start, sqlCon, appIdentifier, LockQueries.NAMESPACE_USER_METADATA, userId);
         String QUERY = "DELETE FROM " + getConfig(start).getUserMetadataTable()
                 + " WHERE app_id = ? AND user_id = ?";
 
-        return update(sqlCon, QUERY.toString(), pst -> {
+        int deletedRows = update(sqlCon, QUERY.toString(), pst -> {
             pst.setString(1, appIdentifier.getAppId());
             pst.setString(2, userId);
         });
+        LockQueries.deleteKey_Transaction(start, sqlCon, appIdentifier, LockQueries.NAMESPACE_USER_METADATA, userId);
+        return deletedRows;
     }
 
     public static int setUserMetadata_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
@@ -95,15 +102,21 @@ public class UserMetadataQueries {
     public static JsonObject getUserMetadata_Transaction(Start start, Connection con, AppIdentifier appIdentifier,
                                                          String userId)
             throws SQLException, StorageQueryException {
+        // the row is not read with FOR UPDATE, since for a user without metadata, that locks the gap where the row
+        // would go, and two such transactions deadlock when both insert it
+        LockQueries.lockKey_Transaction(start, con, appIdentifier, LockQueries.NAMESPACE_USER_METADATA, userId);
         String QUERY = "SELECT user_metadata FROM " + getConfig(start).getUserMetadataTable()
-                + " WHERE app_id = ? AND user_id = ? FOR UPDATE";
+                + " WHERE app_id = ? AND user_id = ?";
         return execute(con, QUERY, pst -> {
             pst.setString(1, appIdentifier.getAppId());
             pst.setString(2, userId);
         }, result -> {
             if (result.next()) {
-                JsonParser jp = new JsonParser();
-                return jp.parse(result.getString("user_metadata")).getAsJsonObject();
+                try {
+                    return JsonUtils.resultSetColumnToJsonObject(result, "user_metadata");
+                } catch (IOException e) {
+                    throw new StorageQueryException(e);
+                }
             }
             return null;
         });
@@ -118,8 +131,11 @@ public class UserMetadataQueries {
             pst.setString(2, userId);
         }, result -> {
             if (result.next()) {
-                JsonParser jp = new JsonParser();
-                return jp.parse(result.getString("user_metadata")).getAsJsonObject();
+                try {
+                    return JsonUtils.resultSetColumnToJsonObject(result, "user_metadata");
+                } catch (IOException e) {
+                    throw new StorageQueryException(e);
+                }
             }
             return null;
         });
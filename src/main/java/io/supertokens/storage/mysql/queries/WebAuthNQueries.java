@@ -27,7 +27,10 @@ import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
 import io.supertokens.pluginInterface.webauthn.AccountRecoveryTokenInfo;
 import io.supertokens.pluginInterface.webauthn.WebAuthNOptions;
 import io.supertokens.pluginInterface.webauthn.WebAuthNStoredCredential;
+import io.supertokens.storage.mysql.ConnectionPool;
+import io.supertokens.storage.mysql.PreparedStatementValueSetter;
 import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.WebAuthNCredentialCache;
 import io.supertokens.storage.mysql.config.Config;
 import io.supertokens.storage.mysql.utils.Utils;
 import org.jetbrains.annotations.Nullable;
@@ -39,6 +42,7 @@ import java.util.*;
 
 import static io.supertokens.pluginInterface.RECIPE_ID.WEBAUTHN;
 import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.executeBatch;
 import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
 
 public class WebAuthNQueries {
@@ -128,6 +132,17 @@ public class WebAuthNQueries {
                 " (user_id);";
     }
 
+    // the primary key starts with (app_id, rp_id), so without this, looking up a credential by its id alone scans
+    // all the credentials of the app
+    static final String WEBAUTHN_CREDENTIALS_ID_INDEX_NAME = "webauthn_credentials_app_id_id_index";
+    static final String WEBAUTHN_CREDENTIALS_ID_INDEX_COLUMNS = "app_id, id";
+
+    public static String getQueryToCreateWebAuthNCredentialsIdIndex(Start start) {
+        return "CREATE INDEX " + WEBAUTHN_CREDENTIALS_ID_INDEX_NAME + " ON " +
+                Config.getConfig(start).getWebAuthNCredentialsTable() +
+                " (" + WEBAUTHN_CREDENTIALS_ID_INDEX_COLUMNS + ");";
+    }
+
     public static String getQueryToCreateWebAuthNAccountRecoveryTokenTable(Start start) {
         return "CREATE TABLE IF NOT EXISTS " + Config.getConfig(start).getWebAuthNAccountRecoveryTokenTable() + "(" +
                 " app_id VARCHAR(64) DEFAULT 'public' NOT NULL," +
@@ -210,7 +225,8 @@ public class WebAuthNQueries {
             pst.setString(3, recipeUserId);
         }, result -> {
             if(result.next()){
-                return WebAuthnStoredCredentialRowMapper.getInstance().mapOrThrow(result); // we are expecting one or zero results
+                return WebAuthNCredentialCache.getInstance(start).withPendingCounter(
+                        WebAuthnStoredCredentialRowMapper.getInstance().mapOrThrow(result)); // we are expecting one or zero results
             }
             return null;
         });
@@ -218,9 +234,34 @@ public class WebAuthNQueries {
 
     public static WebAuthNStoredCredential loadCredentialById_Transaction(Start start, Connection sqlConnection, TenantIdentifier tenantIdentifier, String credentialId)
             throws SQLException, StorageQueryException {
+        WebAuthNCredentialCache cache = WebAuthNCredentialCache.getInstance(start);
+        WebAuthNStoredCredential cached = cache.get(tenantIdentifier.getAppId(), credentialId);
+        if (cached != null) {
+            // only the counter can have changed since the credential was cached. If the row is gone or is not the
+            // same credential anymore (deleted and created again), we read it in full below.
+            String QUERY = "SELECT rp_id, counter, created_at, updated_at FROM "
+                    + Config.getConfig(start).getWebAuthNCredentialsTable() + " WHERE app_id = ? AND id = ?";
+            WebAuthNStoredCredential credential = execute(sqlConnection, QUERY, pst -> {
+                pst.setString(1, tenantIdentifier.getAppId());
+                pst.setString(2, credentialId);
+            }, result -> {
+                if (result.next() && result.getLong("created_at") == cached.createdAt
+                        && Objects.equals(result.getString("rp_id"), cached.rpId)) {
+                    cached.counter = result.getLong("counter");
+                    cached.updatedAt = result.getLong("updated_at");
+                    return cached;
+                }
+                return null;
+            });
+            if (credential != null) {
+                return cache.withPendingCounter(credential);
+            }
+            cache.remove(tenantIdentifier.getAppId(), credentialId);
+        }
+
         String QUERY = "SELECT * FROM " + Config.getConfig(start).getWebAuthNCredentialsTable()
                 + " WHERE app_id = ? AND id = ?";
-        return execute(sqlConnection, QUERY, pst -> {
+        WebAuthNStoredCredential credential = execute(sqlConnection, QUERY, pst -> {
             pst.setString(1, tenantIdentifier.getAppId());
             pst.setString(2, credentialId);
         }, result -> {
@@ -229,6 +270,10 @@ public class WebAuthNQueries {
             }
             return null;
         });
+        if (credential != null) {
+            cache.put(credential);
+        }
+        return cache.withPendingCounter(credential);
     }
 
     public static WebAuthNStoredCredential saveCredential(Start start, TenantIdentifier tenantIdentifier, WebAuthNStoredCredential credential)
@@ -331,6 +376,8 @@ public class WebAuthNQueries {
                 pst.setLong(5, timeJoined);
             });
 
+            IdentityIndexQueries.syncUser_Transaction(start, sqlCon, tenantIdentifier.toAppIdentifier(), userId);
+
         } catch (SQLException throwables) {
             throw new StorageTransactionLogicException(throwables);
         }
@@ -520,7 +567,7 @@ public class WebAuthNQueries {
                 "all_users.tenant_id as tenant_id " +
                 "FROM " + Config.getConfig(start).getWebAuthNUsersTable() + " as webauthn " +
                 "JOIN " + Config.getConfig(start).getUsersTable() + " as all_users ON webauthn.app_id = all_users.app_id AND webauthn.user_id = all_users.user_id " +
-                "LEFT JOIN " + Config.getConfig(start).getWebAuthNCredentialsTable() + " as credentials ON webauthn.user_id = credentials.user_id " +
+                "LEFT JOIN " + Config.getConfig(start).getWebAuthNCredentialsTable() + " as credentials ON webauthn.app_id = credentials.app_id AND webauthn.user_id = credentials.user_id " +
                 "LEFT JOIN " + Config.getConfig(start).getUserIdMappingTable() + " as user_id_mapping ON webauthn.user_id = user_id_mapping.supertokens_user_id " +
                 "LEFT JOIN " + Config.getConfig(start).getEmailVerificationTable() + " as email_verification ON webauthn.app_id = email_verification.app_id AND (user_id_mapping.external_user_id = email_verification.user_id OR user_id_mapping.supertokens_user_id = email_verification.user_id OR webauthn.user_id = email_verification.user_id)" +
                 " AND email_verification.email = webauthn.email " +
@@ -570,22 +617,59 @@ public class WebAuthNQueries {
 
     public static void updateCounter_Transaction(Start start, Connection sqlCon, TenantIdentifier tenantIdentifier, String credentialId, long counter)
             throws SQLException, StorageQueryException {
+        long now = System.currentTimeMillis();
+        WebAuthNCredentialCache cache = WebAuthNCredentialCache.getInstance(start);
+        if (cache.isCounterWriteDelayed()) {
+            cache.addPendingCounter(tenantIdentifier.getAppId(), credentialId, counter, now);
+            return;
+        }
+
         String UPDATE = "UPDATE " + Config.getConfig(start).getWebAuthNCredentialsTable()
                 + " SET counter = ?, updated_at = ? WHERE app_id = ? AND id = ?";
 
         update(sqlCon, UPDATE, pst -> {
             pst.setLong(1, counter);
-            pst.setLong(2, System.currentTimeMillis());
+            pst.setLong(2, now);
             pst.setString(3, tenantIdentifier.getAppId());
             pst.setString(4, credentialId);
         });
     }
 
+    // writes the counters that were held back by updateCounter_Transaction. GREATEST makes this safe to run after
+    // a newer counter was written (for example by another core instance).
+    public static void writeCounters(Start start, List<WebAuthNCredentialCache.PendingCounter> counters)
+            throws SQLException, StorageQueryException {
+        if (counters.isEmpty()) {
+            return;
+        }
+        String UPDATE = "UPDATE " + Config.getConfig(start).getWebAuthNCredentialsTable()
+                + " SET counter = GREATEST(counter, ?), updated_at = GREATEST(updated_at, ?)"
+                + " WHERE app_id = ? AND id = ?";
+
+        // sorted so that concurrent writers lock the rows in the same order
+        List<WebAuthNCredentialCache.PendingCounter> sorted = new ArrayList<>(counters);
+        sorted.sort(Comparator.comparing((WebAuthNCredentialCache.PendingCounter c) -> c.appId)
+                .thenComparing(c -> c.credentialId));
+        List<PreparedStatementValueSetter> setters = new ArrayList<>();
+        for (WebAuthNCredentialCache.PendingCounter pending : sorted) {
+            setters.add(pst -> {
+                pst.setLong(1, pending.counter);
+                pst.setLong(2, pending.updatedAt);
+                pst.setString(3, pending.appId);
+                pst.setString(4, pending.credentialId);
+            });
+        }
+        try (Connection con = ConnectionPool.getConnection(start)) {
+            executeBatch(con, UPDATE, setters);
+        }
+    }
+
     public static int removeCredential(Start start, TenantIdentifier tenantIdentifier, String userId, String credentialId)
             throws SQLException, StorageQueryException {
         String UPDATE = "DELETE FROM " + Config.getConfig(start).getWebAuthNCredentialsTable()
                 + " WHERE app_id = ? AND id = ? AND user_id = ?";
 
+        WebAuthNCredentialCache.getInstance(start).remove(tenantIdentifier.getAppId(), credentialId);
         return update(start, UPDATE, pst -> {
             pst.setString(1, tenantIdentifier.getAppId());
             pst.setString(2, credentialId);
@@ -614,8 +698,10 @@ public class WebAuthNQueries {
             pst.setString(2, recipeUserId);
         }, result -> {
             List<WebAuthNStoredCredential> credentials = new ArrayList<>();
+            WebAuthNCredentialCache cache = WebAuthNCredentialCache.getInstance(start);
             while (result.next()) {
-                credentials.add(WebAuthnStoredCredentialRowMapper.getInstance().mapOrThrow(result));
+                credentials.add(cache.withPendingCounter(
+                        WebAuthnStoredCredentialRowMapper.getInstance().mapOrThrow(result)));
             }
             return credentials;
         });
@@ -654,6 +740,9 @@ public class WebAuthNQueries {
                 pst.setString(2, tenantIdentifier.getAppId());
                 pst.setString(3, userId);
             });
+
+            IdentityIndexQueries.syncUser_Transaction(start, sqlConnection, tenantIdentifier.toAppIdentifier(),
+                    userId);
         } catch (SQLException e) {
             throw new StorageQueryException(e);
         }
@@ -16,10 +16,24 @@
 
 package io.supertokens.storage.mysql.queries.utils;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
 
 public class JsonUtils {
+    // JsonParser holds no state, so a single instance can be shared across threads
+    private static final JsonParser PARSER = new JsonParser();
+
     public static String jsonObjectToString(JsonObject obj) {
         if (obj == null) {
             return null;
@@ -31,7 +45,49 @@ public class JsonUtils {
         if (json == null) {
             return null;
         }
-        JsonParser jp = new JsonParser();
-        return jp.parse(json).getAsJsonObject();
+        return PARSER.parse(json).getAsJsonObject();
+    }
+
+    public static JsonObject inputStreamToJsonObject(InputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return PARSER.parse(reader).getAsJsonObject();
+        }
+    }
+
+    public static JsonObject resultSetColumnToJsonObject(ResultSet result, String columnName)
+            throws SQLException, IOException {
+        // the mariadb driver returns a stream over the already fetched row buffer here, so the column is decoded
+        // straight from it whatever its size, without building a String of it first
+        return inputStreamToJsonObject(result.getBinaryStream(columnName));
+    }
+
+    // JsonObject.deepCopy is not public in the gson version we build against. Primitives and null are immutable, so
+    // only objects and arrays are copied.
+    public static JsonObject deepCopy(JsonObject obj) {
+        if (obj == null) {
+            return null;
+        }
+        JsonObject result = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+            result.add(entry.getKey(), deepCopy(entry.getValue()));
+        }
+        return result;
+    }
+
+    private static JsonElement deepCopy(JsonElement element) {
+        if (element.isJsonObject()) {
+            return deepCopy(element.getAsJsonObject());
+        }
+        if (element.isJsonArray()) {
+            JsonArray result = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                result.add(deepCopy(item));
+            }
+            return result;
+        }
+        return element;
     }
 }
@@ -0,0 +1,108 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.queries.utils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Encodes rows as UTF-8, tab separated and newline terminated lines, in the default format of LOAD DATA (fields
+ * escaped with a backslash, null written as \N). Rows are encoded one at a time as the stream is read, so only one
+ * row is held in memory on top of the input.
+ */
+public class TabSeparatedRowsInputStream extends InputStream {
+
+    private final Iterator<Object[]> rows;
+    private byte[] current = new byte[0];
+    private int position = 0;
+
+    public TabSeparatedRowsInputStream(Iterator<Object[]> rows) {
+        this.rows = rows;
+    }
+
+    public static String encodeRow(Object[] row) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            if (row[i] == null) {
+                sb.append("\\N");
+                continue;
+            }
+            String value = row[i].toString();
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\0':
+                        sb.append("\\0");
+                        break;
+                    default:
+                        sb.append(c);
+                }
+            }
+        }
+        return sb.append('\n').toString();
+    }
+
+    private boolean fill() {
+        while (position >= current.length) {
+            if (!rows.hasNext()) {
+                return false;
+            }
+            current = encodeRow(rows.next()).getBytes(StandardCharsets.UTF_8);
+            position = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() {
+        if (!fill()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len && fill()) {
+            int n = Math.min(len - read, current.length - position);
+            System.arraycopy(current, position, b, off + read, n);
+            position += n;
+            read += n;
+        }
+        return read == 0 ? -1 : read;
+    }
+}
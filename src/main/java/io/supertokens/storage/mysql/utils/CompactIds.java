@@ -0,0 +1,48 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.utils;
+
+/**
+ * Tells which ids could be stored in 16 bytes, as MySQL's UUID_TO_BIN(id) would, for the compact id report (see
+ * CompactIdQueries). Only ids in the lower case UUID form that the core generates count, since those are the only ones
+ * that BIN_TO_UUID gives back unchanged.
+ */
+public class CompactIds {
+
+    public static final int UUID_LENGTH = 36;
+    public static final int COMPACT_LENGTH = 16;
+
+    private CompactIds() {
+    }
+
+    public static boolean isCompactable(String id) {
+        if (id == null || id.length() != UUID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Bloom filter of strings that also supports removal, using a 4 bit counter per slot (two per byte) instead of a
+ * single bit. A counter that reaches 15 stays there, so removals can never cause a false negative. Sized for a
+ * given number of items and false positive rate; adding more items than that only raises the false positive rate.
+ * This is thread safe.
+ */
+public class CountingBloomFilter {
+
+    private static final int MAX_COUNT = 15;
+
+    private final byte[] counters;
+    private final int slots;
+    private final int hashCount;
+    private final int capacity;
+    private long items = 0;
+
+    public CountingBloomFilter(int capacity, double falsePositiveRate) {
+        if (capacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid bloom filter size");
+        }
+        double ln2 = Math.log(2);
+        long slots = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.slots = (int) Math.min(Math.max(slots, 64), Integer.MAX_VALUE - 8);
+        this.hashCount = Math.max(1, (int) Math.round((double) this.slots / capacity * ln2));
+        this.capacity = capacity;
+        this.counters = new byte[(this.slots + 1) / 2];
+    }
+
+    public synchronized void add(String value) {
+        long hash = hash(value);
+        for (int i = 0; i < hashCount; i++) {
+            int slot = slot(hash, i);
+            int count = get(slot);
+            if (count < MAX_COUNT) {
+                set(slot, count + 1);
+            }
+        }
+        items++;
+    }
+
+    /**
+     * Only call this for a value that was added before (and not removed since), otherwise other values may start
+     * to look absent.
+     */
+    public synchronized void remove(String value) {
+        long hash = hash(value);
+        for (int i = 0; i < hashCount; i++) {
+            int slot = slot(hash, i);
+            int count = get(slot);
+            if (count > 0 && count < MAX_COUNT) {
+                set(slot, count - 1);
+            }
+        }
+        items = Math.max(0, items - 1);
+    }
+
+    /**
+     * @return false if the value was definitely not added (or was removed), true if it may have been.
+     */
+    public synchronized boolean mightContain(String value) {
+        long hash = hash(value);
+        for (int i = 0; i < hashCount; i++) {
+            if (get(slot(hash, i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized long getItemCount() {
+        return items;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getMemoryBytes() {
+        return counters.length;
+    }
+
+    public synchronized double getEstimatedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * items / slots), hashCount);
+    }
+
+    private int slot(long hash, int i) {
+        // double hashing: the i-th slot is h1 + i * h2, which is as good as i independent hashes for a bloom filter
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return Math.floorMod(h1 + i * h2, slots);
+    }
+
+    private int get(int slot) {
+        int b = counters[slot >> 1] & 0xFF;
+        return (slot & 1) == 0 ? b & 0x0F : b >>> 4;
+    }
+
+    private void set(int slot, int count) {
+        int index = slot >> 1;
+        int b = counters[index] & 0xFF;
+        b = (slot & 1) == 0 ? (b & 0xF0) | count : (b & 0x0F) | (count << 4);
+        counters[index] = (byte) b;
+    }
+
+    // 64 bit FNV-1a followed by a murmur3 finaliser, so that both halves are well mixed
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb3fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -42,6 +42,18 @@ public class Utils {
         return builder.toString();
     }
 
+    // for row constructor comparisons, for example (2, 3) gives "(?,?,?),(?,?,?)"
+    public static String generateCommaSeperatedQuestionMarkTuples(int size, int tupleSize) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            builder.append("(").append(generateCommaSeperatedQuestionMarks(tupleSize)).append(")");
+            if (i != size - 1) {
+                builder.append(",");
+            }
+        }
+        return builder.toString();
+    }
+
     public static String maskDBPassword(String log) {
         String regex = "(\\|db_pass\\|)(.*?)(\\|db_pass\\|)";
 
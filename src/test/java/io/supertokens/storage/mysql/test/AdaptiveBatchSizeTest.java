@@ -0,0 +1,80 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import io.supertokens.storage.mysql.AdaptiveBatchSize;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransactionRollbackException;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveBatchSizeTest {
+
+    @Test
+    public void growsAdditivelyAndShrinksByHalf() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 200, 100, 10, 100);
+
+        batchSize.onSuccess(100, 50, true);
+        assertEquals(110, batchSize.get());
+
+        // a partial batch says nothing about whether a bigger one would be ok
+        batchSize.onSuccess(30, 50, false);
+        assertEquals(110, batchSize.get());
+
+        batchSize.onSuccess(110, 500, true);
+        assertEquals(55, batchSize.get());
+
+        batchSize.onContention();
+        assertEquals(27, batchSize.get());
+
+        for (int i = 0; i < 10; i++) {
+            batchSize.onContention();
+        }
+        assertEquals(10, batchSize.get());
+
+        for (int i = 0; i < 100; i++) {
+            batchSize.onSuccess(batchSize.get(), 1, true);
+        }
+        assertEquals(200, batchSize.get());
+
+        assertEquals(12, batchSize.toJson().get("decreases").getAsLong());
+        assertEquals(103, batchSize.toJson().get("totalBatches").getAsLong());
+    }
+
+    @Test
+    public void upperBoundCapsTheSize() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 1000, 1000, 10, 100);
+        assertEquals(300, batchSize.get(300));
+        batchSize.onContention();
+        assertEquals(150, batchSize.get(300));
+        assertEquals(5, batchSize.get(5));
+    }
+
+    @Test
+    public void onlyLockErrorsAreContention() {
+        assertTrue(AdaptiveBatchSize.isContentionError(new SQLTransactionRollbackException("x")));
+        assertTrue(AdaptiveBatchSize.isContentionError(
+                new SQLException("Lock wait timeout exceeded; try restarting transaction")));
+        assertTrue(AdaptiveBatchSize.isContentionError(new RuntimeException(
+                new SQLException("Deadlock found when trying to get lock; try restarting transaction"))));
+        assertFalse(AdaptiveBatchSize.isContentionError(
+                new SQLIntegrityConstraintViolationException("Duplicate entry")));
+    }
+}
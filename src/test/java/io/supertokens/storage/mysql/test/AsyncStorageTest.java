@@ -0,0 +1,185 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.ProcessState;
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.pluginInterface.session.SessionInfo;
+import io.supertokens.storage.mysql.AsyncStorage;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.WorkloadClass;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncStorageTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    @After
+    public void afterEach() {
+        AsyncStorage.closeTimeoutMillis_forTesting = 0;
+    }
+
+    @Test
+    public void callsCompleteLikeTheBlockingOnes() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        TenantIdentifier tenant = TenantIdentifier.BASE_TENANT;
+
+        // only one instance is ever created, however many threads ask for it at once
+        ExecutorService es = Executors.newFixedThreadPool(50);
+        List<Future<AsyncStorage>> instances = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            instances.add(es.submit(start::getAsyncStorage));
+        }
+        AsyncStorage async = start.getAsyncStorage();
+        for (Future<AsyncStorage> instance : instances) {
+            assertSame(async, instance.get());
+        }
+        es.shutdown();
+
+        JsonObject data = new JsonObject();
+        data.addProperty("key", "value");
+        List<CompletableFuture<Void>> creates = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            creates.add(async.createNewSession(tenant, "handle" + i, "user", "hash", data,
+                    System.currentTimeMillis() + 3600000, data, System.currentTimeMillis(), false));
+        }
+        CompletableFuture.allOf(creates.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+
+        SessionInfo session = async.getSession(tenant, "handle42").get();
+        assertEquals("value", session.userDataInDatabase.get("key").getAsString());
+        assertNull(async.getSession(tenant, "unknown").get());
+        assertNull(async.getUserMetadata(tenant.toAppIdentifier(), "user").get());
+
+        try {
+            async.submit(() -> {
+                throw new StorageQueryException(new Exception("failed"));
+            }).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StorageQueryException);
+        }
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+
+        // the executor is shut down along with the storage
+        try {
+            async.getSession(tenant, "handle42").get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void callsRunInTheWorkloadClassOfTheCaller() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_background_connection_pool_size", "2");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AsyncStorage async = start.getAsyncStorage();
+
+        assertEquals(WorkloadClass.REQUEST, async.submit(WorkloadClass::current).get());
+        try (WorkloadClass.Scope ignored = start.enterWorkloadClass(WorkloadClass.BACKGROUND)) {
+            assertEquals(WorkloadClass.BACKGROUND, async.submit(WorkloadClass::current).get());
+        }
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void closingWaitsForRunningCallsBeforeClosingThePool() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        TenantIdentifier tenant = TenantIdentifier.BASE_TENANT;
+
+        CompletableFuture<SessionInfo> running = start.getAsyncStorage().submit(() -> {
+            Thread.sleep(1000);
+            return start.getSession(tenant, "unknown");
+        });
+        Thread.sleep(100);
+
+        process.kill(false);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+        // the call still had its connection pool
+        assertTrue(running.isDone());
+        assertNull(running.get());
+        StorageLayer.close();
+
+        AsyncStorage.closeTimeoutMillis_forTesting = 500;
+        process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start restarted = (Start) StorageLayer.getStorage(process.getProcess());
+
+        CompletableFuture<Integer> stuck = restarted.getAsyncStorage().submit(() -> {
+            Thread.sleep(60000);
+            return 1;
+        });
+        Thread.sleep(100);
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+        try {
+            stuck.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            assertEquals("The storage was closed before this call completed", e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.ProcessState;
+import io.supertokens.pluginInterface.bulkimport.BulkImportStorage.BULK_IMPORT_USER_STATUS;
+import io.supertokens.pluginInterface.bulkimport.BulkImportUser;
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static org.junit.Assert.*;
+
+public class BulkImportLoadDataTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    // more than the minimum number of users for which LOAD DATA is used
+    private static final int NUMBER_OF_USERS = 150;
+
+    @Test
+    public void testLoadedUsersMatchWhatWasAdded() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+
+        List<BulkImportUser> users = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_USERS; i++) {
+            users.add(newUser(UUID.randomUUID().toString(), "tab\there, new line\nhere and a backslash \\ " + i));
+        }
+        start.addBulkImportUsers(app, users);
+
+        assertEquals(NUMBER_OF_USERS, start.getBulkImportUsersCount(app, null));
+        for (BulkImportUser user : users) {
+            assertEquals(user.toRawDataForDbStorage(), getRawData(start, user.id));
+        }
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testTooLongRawDataIsNotTruncated() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+
+        StringBuilder longValue = new StringBuilder();
+        while (longValue.length() <= 65535) {
+            longValue.append("0123456789");
+        }
+        List<BulkImportUser> users = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_USERS; i++) {
+            users.add(newUser(UUID.randomUUID().toString(), i == 42 ? longValue.toString() : "value " + i));
+        }
+        assertNothingIsAdded(start, app, users);
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testTooLongIdIsNotTruncated() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+
+        List<BulkImportUser> users = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_USERS; i++) {
+            String id = UUID.randomUUID().toString();
+            users.add(newUser(i == 42 ? id + "-too-long" : id, "value " + i));
+        }
+        assertNothingIsAdded(start, app, users);
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    private static void assertNothingIsAdded(Start start, AppIdentifier app, List<BulkImportUser> users)
+            throws Exception {
+        try {
+            start.addBulkImportUsers(app, users);
+            fail();
+        } catch (StorageQueryException e) {
+            // the batched insert fails on the value that LOAD DATA would have truncated
+        }
+        assertEquals(0, start.getBulkImportUsersCount(app, null));
+        String QUERY = "SELECT COUNT(*) FROM " + Config.getConfig(start).getBulkImportUsersTable();
+        assertEquals(0L, (long) execute(start, QUERY, pst -> {
+        }, result -> result.next() ? result.getLong(1) : -1L));
+    }
+
+    private static BulkImportUser newUser(String id, String metadataValue) {
+        JsonObject metadata = new JsonObject();
+        metadata.addProperty("key", metadataValue);
+        JsonObject raw = new JsonObject();
+        raw.add("userMetadata", metadata);
+        return BulkImportUser.fromRawDataFromDbStorage(id, raw.toString(), BULK_IMPORT_USER_STATUS.NEW, null, null,
+                0, 0);
+    }
+
+    private static String getRawData(Start start, String id) throws Exception {
+        String QUERY = "SELECT raw_data FROM " + Config.getConfig(start).getBulkImportUsersTable() + " WHERE id = ?";
+        return execute(start, QUERY, pst -> pst.setString(1, id), result -> result.next() ? result.getString(1) : null);
+    }
+}
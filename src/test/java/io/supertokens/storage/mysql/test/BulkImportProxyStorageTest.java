@@ -0,0 +1,279 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.ProcessState;
+import io.supertokens.pluginInterface.bulkimport.exceptions.BulkImportTransactionRolledBackException;
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.exceptions.StorageTransactionLogicException;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.storage.mysql.BulkImportProxyStorage;
+import io.supertokens.storage.mysql.ConnectionPool;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.config.MySQLConfig;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
+import static org.junit.Assert.*;
+
+public class BulkImportProxyStorageTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    @Test
+    public void testFailedInnerTransactionOnlyUndoesItsOwnChanges() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        BulkImportProxyStorage proxy = createProxyStorage(start);
+
+        proxy.startTransaction(con -> {
+            insertKey((Connection) con.getConnection(), start, "a");
+            return null;
+        });
+        try {
+            proxy.startTransaction(con -> {
+                insertKey((Connection) con.getConnection(), start, "b");
+                throw new StorageTransactionLogicException(new Exception("the user could not be imported"));
+            });
+            fail();
+        } catch (StorageTransactionLogicException e) {
+            assertEquals("the user could not be imported", e.actualException.getMessage());
+        }
+        proxy.startTransaction(con -> {
+            insertKey((Connection) con.getConnection(), start, "c");
+            return null;
+        });
+
+        // nothing is visible before the proxy storage commits
+        assertEquals(new HashSet<>(), getKeys(start));
+        proxy.commitTransactionForBulkImportProxyStorage();
+        Set<String> expected = new HashSet<>();
+        expected.add("a");
+        expected.add("c");
+        assertEquals(expected, getKeys(start));
+
+        proxy.closeConnectionForBulkImportProxyStorage();
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testRetryableErrorIsRetriedFromItsSavepoint() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        BulkImportProxyStorage proxy = createProxyStorage(start);
+
+        proxy.startTransaction(con -> {
+            insertKey((Connection) con.getConnection(), start, "a");
+            return null;
+        });
+        AtomicInteger attempts = new AtomicInteger(0);
+        proxy.startTransaction(con -> {
+            // this insert would fail with a duplicate key on the retry if the first attempt was not rolled back
+            insertKey((Connection) con.getConnection(), start, "b");
+            if (attempts.incrementAndGet() < 3) {
+                // an error that is retried, but unlike a real deadlock (see below) leaves the outer transaction alive
+                throw new StorageQueryException(new SQLTransactionRollbackException("the transaction might succeed "
+                        + "if retried"));
+            }
+            return null;
+        });
+        assertEquals(3, attempts.get());
+
+        proxy.commitTransactionForBulkImportProxyStorage();
+        Set<String> expected = new HashSet<>();
+        expected.add("a");
+        expected.add("b");
+        assertEquals(expected, getKeys(start));
+
+        proxy.closeConnectionForBulkImportProxyStorage();
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testDeadlockRollsBackTheWholeBatch() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        BulkImportProxyStorage proxy = createProxyStorage(start);
+
+        proxy.startTransaction(con -> {
+            insertKey((Connection) con.getConnection(), start, "a");
+            return null;
+        });
+
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        try (Connection other = ConnectionPool.getConnection(start)) {
+            other.setAutoCommit(false);
+            // the other transaction changes more rows, so InnoDB picks the batch as the deadlock victim
+            insertKey(other, start, "b");
+            insertKey(other, start, "c");
+            insertKey(other, start, "d");
+
+            // waits for the other transaction's lock on "b"
+            Future<Object> inner = es.submit(() -> proxy.startTransaction(con -> {
+                insertKey((Connection) con.getConnection(), start, "b");
+                return null;
+            }));
+            Thread.sleep(500);
+            // and the other transaction now waits for the batch's lock on "a"
+            insertKey(other, start, "a");
+
+            try {
+                inner.get(30, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof StorageTransactionLogicException);
+                assertTrue(((StorageTransactionLogicException) e.getCause()).actualException
+                        instanceof BulkImportTransactionRolledBackException);
+            }
+            other.commit();
+        } finally {
+            es.shutdownNow();
+        }
+
+        // the first inner transaction of the batch was rolled back as well, so the batch has to be replayed
+        proxy.commitTransactionForBulkImportProxyStorage();
+        Set<String> expected = new HashSet<>();
+        expected.add("a");
+        expected.add("b");
+        expected.add("c");
+        expected.add("d");
+        assertEquals(expected, getKeys(start));
+
+        proxy.closeConnectionForBulkImportProxyStorage();
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testLockWaitTimeoutIsOnlyRetriedTwice() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        BulkImportProxyStorage proxy = createProxyStorage(start);
+
+        AtomicInteger attempts = new AtomicInteger(0);
+        try {
+            proxy.startTransaction(con -> {
+                insertKey((Connection) con.getConnection(), start, "a");
+                attempts.incrementAndGet();
+                throw new StorageQueryException(
+                        new SQLException("Lock wait timeout exceeded; try restarting transaction", "HY000", 1205));
+            });
+            fail();
+        } catch (StorageQueryException e) {
+            assertTrue(e.getMessage().contains("Lock wait timeout"));
+        }
+        assertEquals(3, attempts.get());
+
+        // the outer transaction is still usable
+        proxy.startTransaction(con -> {
+            insertKey((Connection) con.getConnection(), start, "b");
+            return null;
+        });
+        proxy.commitTransactionForBulkImportProxyStorage();
+        Set<String> expected = new HashSet<>();
+        expected.add("b");
+        assertEquals(expected, getKeys(start));
+
+        proxy.closeConnectionForBulkImportProxyStorage();
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    private static BulkImportProxyStorage createProxyStorage(Start start) throws Exception {
+        MySQLConfig config = Config.getConfig(start);
+        JsonObject configJson = new JsonObject();
+        configJson.addProperty("mysql_host", config.getHostName());
+        configJson.addProperty("mysql_port", config.getPort());
+        configJson.addProperty("mysql_user", config.getUser());
+        configJson.addProperty("mysql_password", config.getPassword());
+        configJson.addProperty("mysql_database_name", config.getDatabaseName());
+
+        BulkImportProxyStorage proxy = (BulkImportProxyStorage) start.createBulkImportProxyStorageInstance();
+        proxy.constructor(start.getProcessId(), true, true);
+        proxy.loadConfig(configJson, new HashSet<>(), new TenantIdentifier(null, null, null));
+        proxy.initStorage(false, new ArrayList<>());
+        return proxy;
+    }
+
+    private static final String KEY_PREFIX = "proxy_storage_test_";
+
+    private static void insertKey(Connection con, Start start, String key) throws StorageQueryException {
+        try {
+            update(con, "INSERT INTO " + Config.getConfig(start).getKeyValueTable()
+                    + " (app_id, tenant_id, name, value, created_at_time) VALUES ('public', 'public', ?, '', 0)",
+                    pst -> pst.setString(1, KEY_PREFIX + key));
+        } catch (SQLException e) {
+            throw new StorageQueryException(e);
+        }
+    }
+
+    private static Set<String> getKeys(Start start) throws Exception {
+        String QUERY = "SELECT name FROM " + Config.getConfig(start).getKeyValueTable() + " WHERE name LIKE ?";
+        return execute(start, QUERY, pst -> pst.setString(1, KEY_PREFIX + "%"), result -> {
+            Set<String> keys = new HashSet<>();
+            while (result.next()) {
+                keys.add(result.getString("name").substring(KEY_PREFIX.length()));
+            }
+            return keys;
+        });
+    }
+}
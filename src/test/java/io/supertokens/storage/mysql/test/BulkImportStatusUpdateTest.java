@@ -0,0 +1,360 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.ProcessState;
+import io.supertokens.pluginInterface.bulkimport.BulkImportStorage.BULK_IMPORT_USER_STATUS;
+import io.supertokens.pluginInterface.bulkimport.BulkImportUser;
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.exceptions.StorageTransactionLogicException;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.pluginInterface.sqlStorage.TransactionConnection;
+import io.supertokens.storage.mysql.BulkImportStatusCountReconciler;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storage.mysql.queries.BulkImportQueries;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
+import static org.junit.Assert.*;
+
+public class BulkImportStatusUpdateTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    @After
+    public void afterEach() {
+        BulkImportStatusCountReconciler.intervalMillis_forTesting = 0;
+    }
+
+    // the updates are chunked by 1000 users, so this crosses two chunk boundaries and ends in a partial chunk
+    private static final int NUMBER_OF_USERS = 2500;
+
+    @Test
+    public void testClaimingAndFailingUsersAcrossChunks() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+
+        List<BulkImportUser> users = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_USERS; i++) {
+            users.add(newUser(UUID.randomUUID().toString()));
+        }
+        start.addBulkImportUsers(app, users);
+
+        List<BulkImportUser> claimed = start.getBulkImportUsersAndChangeStatusToProcessing(app, NUMBER_OF_USERS);
+        assertEquals(NUMBER_OF_USERS, claimed.size());
+        Map<String, Row> rows = getRows(start);
+        assertEquals(NUMBER_OF_USERS, rows.size());
+        Set<Long> updatedAts = new HashSet<>();
+        for (Row row : rows.values()) {
+            assertEquals(BULK_IMPORT_USER_STATUS.PROCESSING.toString(), row.status);
+            assertNull(row.errorMessage);
+            updatedAts.add(row.updatedAt);
+        }
+        // all chunks share the same updated_at
+        assertEquals(1, updatedAts.size());
+
+        Map<String, String> errorMessages = new HashMap<>();
+        for (BulkImportUser user : claimed) {
+            errorMessages.put(user.id, "error of " + user.id);
+        }
+        runInTransaction(start, con -> start.updateMultipleBulkImportUsersStatusToError_Transaction(app, con,
+                errorMessages));
+
+        rows = getRows(start);
+        assertEquals(NUMBER_OF_USERS, rows.size());
+        for (Map.Entry<String, Row> entry : rows.entrySet()) {
+            assertEquals(BULK_IMPORT_USER_STATUS.FAILED.toString(), entry.getValue().status);
+            assertEquals("error of " + entry.getKey(), entry.getValue().errorMessage);
+        }
+        assertEquals(NUMBER_OF_USERS, start.getBulkImportUsersCount(app, BULK_IMPORT_USER_STATUS.FAILED));
+        assertEquals(0, start.getBulkImportUsersCount(app, BULK_IMPORT_USER_STATUS.PROCESSING));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testCountsMatchTheTableAfterMixedStatusChanges() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+
+        List<BulkImportUser> users = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            users.add(newUser(UUID.randomUUID().toString()));
+        }
+        start.addBulkImportUsers(app, users);
+        assertCountsMatchTable(start, app);
+
+        List<String> processing = new ArrayList<>();
+        for (BulkImportUser user : start.getBulkImportUsersAndChangeStatusToProcessing(app, 200)) {
+            processing.add(user.id);
+        }
+        List<String> notClaimed = new ArrayList<>();
+        for (BulkImportUser user : users) {
+            if (!processing.contains(user.id)) {
+                notClaimed.add(user.id);
+            }
+        }
+        assertEquals(200, processing.size());
+        assertCountsMatchTable(start, app);
+
+        // single user updates and deletes, of processing users and (through the fallback) of users in other statuses
+        runInTransaction(start, con -> {
+            Connection sqlCon = (Connection) con.getConnection();
+            for (String id : processing.subList(0, 20)) {
+                start.updateBulkImportUserStatus_Transaction(app, con, id, BULK_IMPORT_USER_STATUS.FAILED, "e");
+            }
+            for (String id : notClaimed.subList(0, 10)) {
+                start.updateBulkImportUserStatus_Transaction(app, con, id, BULK_IMPORT_USER_STATUS.FAILED, "e");
+            }
+            start.updateBulkImportUserStatus_Transaction(app, con, processing.get(20),
+                    BULK_IMPORT_USER_STATUS.PROCESSING, "retrying");
+            for (String id : processing.subList(21, 36)) {
+                BulkImportQueries.deleteBulkImportUser_Transaction(start, sqlCon, app, id);
+            }
+            for (String id : notClaimed.subList(10, 15)) {
+                BulkImportQueries.deleteBulkImportUser_Transaction(start, sqlCon, app, id);
+            }
+            for (String id : processing.subList(0, 5)) {
+                BulkImportQueries.deleteBulkImportUser_Transaction(start, sqlCon, app, id);
+            }
+            BulkImportQueries.deleteBulkImportUser_Transaction(start, sqlCon, app, UUID.randomUUID().toString());
+        });
+        assertCountsMatchTable(start, app);
+
+        // multi user updates and deletes, across statuses
+        Map<String, String> errorMessages = new HashMap<>();
+        for (String id : processing.subList(36, 66)) {
+            errorMessages.put(id, "e");
+        }
+        for (String id : notClaimed.subList(15, 35)) {
+            errorMessages.put(id, "e");
+        }
+        runInTransaction(start, con -> start.updateMultipleBulkImportUsersStatusToError_Transaction(app, con,
+                errorMessages));
+        List<String> toDelete = new ArrayList<>(notClaimed.subList(35, 45));
+        toDelete.addAll(processing.subList(5, 15));
+        toDelete.add(UUID.randomUUID().toString());
+        assertEquals(20, start.deleteBulkImportUsers(app, toDelete.toArray(new String[0])).size());
+        assertCountsMatchTable(start, app);
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testCountsOfClaimedAppsAreReconciledInTheBackground() throws Exception {
+        String[] args = {"../"};
+
+        BulkImportStatusCountReconciler.intervalMillis_forTesting = 500;
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+
+        List<BulkImportUser> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(newUser(UUID.randomUUID().toString()));
+        }
+        start.addBulkImportUsers(app, users);
+        Map<String, String> errorMessages = new HashMap<>();
+        for (BulkImportUser user : start.getBulkImportUsersAndChangeStatusToProcessing(app, 10)) {
+            errorMessages.put(user.id, "e");
+        }
+        runInTransaction(start, con -> start.updateMultipleBulkImportUsersStatusToError_Transaction(app, con,
+                errorMessages));
+
+        // what writes that skip the counts (for example from an older core) leave behind
+        update(start, "UPDATE " + Config.getConfig(start).getBulkImportUsersStatusCountTable()
+                + " SET count = count + 7", pst -> {
+        });
+        assertNotEquals(countInTable(start, app, null), start.getBulkImportUsersCount(app, null));
+
+        Thread.sleep(1500);
+        assertCountsMatchTable(start, app);
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testReconcilingDoesNotWaitForOrUndoWritesInProgress() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+
+        List<BulkImportUser> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(newUser(UUID.randomUUID().toString()));
+        }
+        start.addBulkImportUsers(app, users);
+        Map<String, String> errorMessages = new HashMap<>();
+        for (BulkImportUser user : start.getBulkImportUsersAndChangeStatusToProcessing(app, 10)) {
+            errorMessages.put(user.id, "e");
+        }
+        update(start, "UPDATE " + Config.getConfig(start).getBulkImportUsersStatusCountTable()
+                + " SET count = count + 7", pst -> {
+        });
+
+        // a write that holds locks on the users and has changed the counts, but is not committed yet
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        Future<?> writer = es.submit(() -> {
+            runInTransaction(start, con -> {
+                start.updateMultipleBulkImportUsersStatusToError_Transaction(app, con, errorMessages);
+                written.countDown();
+                try {
+                    commit.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            return null;
+        });
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+
+        long reconcileStart = System.currentTimeMillis();
+        start.reconcileBulkImportUsersCount(app);
+        assertTrue(System.currentTimeMillis() - reconcileStart < 1000);
+
+        commit.countDown();
+        writer.get(10, TimeUnit.SECONDS);
+        es.shutdown();
+        // the drift is gone, and the write's own count changes were kept
+        assertCountsMatchTable(start, app);
+        assertEquals(10, start.getBulkImportUsersCount(app, BULK_IMPORT_USER_STATUS.FAILED));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    private static void assertCountsMatchTable(Start start, AppIdentifier app) throws Exception {
+        assertEquals(countInTable(start, app, null), start.getBulkImportUsersCount(app, null));
+        for (BULK_IMPORT_USER_STATUS status : BULK_IMPORT_USER_STATUS.values()) {
+            assertEquals(status.toString(), countInTable(start, app, status),
+                    start.getBulkImportUsersCount(app, status));
+        }
+    }
+
+    private static long countInTable(Start start, AppIdentifier app, BULK_IMPORT_USER_STATUS status)
+            throws Exception {
+        String QUERY = "SELECT COUNT(*) FROM " + Config.getConfig(start).getBulkImportUsersTable()
+                + " WHERE app_id = ?" + (status == null ? "" : " AND status = ?");
+        return execute(start, QUERY, pst -> {
+            pst.setString(1, app.getAppId());
+            if (status != null) {
+                pst.setString(2, status.toString());
+            }
+        }, result -> result.next() ? result.getLong(1) : -1L);
+    }
+
+    private interface TransactionBody {
+        void run(TransactionConnection con) throws StorageQueryException, SQLException;
+    }
+
+    private static void runInTransaction(Start start, TransactionBody body)
+            throws StorageQueryException, StorageTransactionLogicException {
+        start.startTransaction(con -> {
+            try {
+                body.run(con);
+                ((Connection) con.getConnection()).commit();
+            } catch (SQLException e) {
+                throw new StorageTransactionLogicException(e);
+            }
+            return null;
+        });
+    }
+
+    private static BulkImportUser newUser(String id) {
+        JsonObject raw = new JsonObject();
+        raw.add("userMetadata", new JsonObject());
+        return BulkImportUser.fromRawDataFromDbStorage(id, raw.toString(), BULK_IMPORT_USER_STATUS.NEW, null, null,
+                0, 0);
+    }
+
+    private static class Row {
+        final String status;
+        final String errorMessage;
+        final long updatedAt;
+
+        Row(String status, String errorMessage, long updatedAt) {
+            this.status = status;
+            this.errorMessage = errorMessage;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    private static Map<String, Row> getRows(Start start) throws Exception {
+        String QUERY = "SELECT id, status, error_msg, updated_at FROM "
+                + Config.getConfig(start).getBulkImportUsersTable();
+        return execute(start, QUERY, pst -> {
+        }, result -> {
+            Map<String, Row> rows = new HashMap<>();
+            while (result.next()) {
+                rows.put(result.getString("id"), new Row(result.getString("status"), result.getString("error_msg"),
+                        result.getLong("updated_at")));
+            }
+            return rows;
+        });
+    }
+}
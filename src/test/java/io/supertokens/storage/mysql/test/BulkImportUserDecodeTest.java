@@ -0,0 +1,57 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.pluginInterface.bulkimport.BulkImportStorage.BULK_IMPORT_USER_STATUS;
+import io.supertokens.pluginInterface.bulkimport.BulkImportUser;
+import io.supertokens.storage.mysql.queries.BulkImportQueries;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class BulkImportUserDecodeTest {
+
+    @Test
+    public void streamingDecodeMatchesStringDecode() throws Exception {
+        JsonObject metadata = new JsonObject();
+        for (int i = 0; i < 500; i++) {
+            metadata.addProperty("key" + i, "v\u00e4lue-" + i);
+        }
+        JsonObject raw = new JsonObject();
+        raw.addProperty("externalUserId", "external-id");
+        raw.add("userMetadata", metadata);
+        String rawData = raw.toString();
+
+        BulkImportUser fromString = BulkImportUser.fromRawDataFromDbStorage("id", rawData,
+                BULK_IMPORT_USER_STATUS.PROCESSING, "primary", "error", 10, 20);
+        BulkImportUser fromStream = BulkImportQueries.bulkImportUserFromRawDataStream("id",
+                new ByteArrayInputStream(rawData.getBytes(StandardCharsets.UTF_8)),
+                BULK_IMPORT_USER_STATUS.PROCESSING, "primary", "error", 10, 20);
+
+        assertEquals(fromString.toRawDataForDbStorage(), fromStream.toRawDataForDbStorage());
+        assertEquals(fromString.id, fromStream.id);
+        assertEquals(fromString.status, fromStream.status);
+        assertEquals(fromString.primaryUserId, fromStream.primaryUserId);
+        assertEquals(fromString.errorMessage, fromStream.errorMessage);
+        assertEquals(fromString.createdAt, fromStream.createdAt);
+        assertEquals(fromString.updatedAt, fromStream.updatedAt);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.ProcessState;
+import io.supertokens.emailpassword.EmailPassword;
+import io.supertokens.pluginInterface.exceptions.StorageTransactionLogicException;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static io.supertokens.storage.mysql.PreparedStatementValueSetter.NO_OP_SETTER;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
+import static org.junit.Assert.*;
+
+public class CompactIdQueriesTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    @Test
+    public void reportTellsWhichColumnsOnlyHaveUuids() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+
+        for (int i = 0; i < 10; i++) {
+            EmailPassword.signUp(process.getProcess(), "test" + i + "@example.com", "password");
+        }
+        long expiry = System.currentTimeMillis() + 3600000;
+        start.createNewSession(TenantIdentifier.BASE_TENANT, UUID.randomUUID().toString(), "user", "hash",
+                new JsonObject(), expiry, new JsonObject(), System.currentTimeMillis(), false);
+        // what the core uses as the session handle in a non public tenant
+        start.createNewSession(TenantIdentifier.BASE_TENANT, "t1_" + UUID.randomUUID(), "user", "hash",
+                new JsonObject(), expiry, new JsonObject(), System.currentTimeMillis(), false);
+
+        JsonObject columns = start.getCompactIdReport().getAsJsonObject("columns");
+
+        JsonObject userIds = columns.getAsJsonObject(Config.getConfig(start).getUsersTable() + ".user_id");
+        assertEquals(10, userIds.get("rows").getAsLong());
+        assertTrue(userIds.get("canBeConverted").getAsBoolean());
+        // the primary key and all the secondary indexes, 20 bytes per id in each
+        assertTrue(userIds.get("indexesWithColumn").getAsInt() > 1);
+        assertEquals(10 * 20 * userIds.get("indexesWithColumn").getAsInt(),
+                userIds.get("estimatedSavedBytes").getAsLong());
+
+        JsonObject handles = columns.getAsJsonObject(
+                Config.getConfig(start).getSessionInfoTable() + ".session_handle");
+        assertEquals(2, handles.get("rows").getAsLong());
+        assertEquals(1, handles.get("compactableRows").getAsLong());
+        assertFalse(handles.get("canBeConverted").getAsBoolean());
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    private static long[] getSizes(Start start, String table) throws Exception {
+        return start.startTransaction(con -> {
+            try {
+                Connection sqlCon = (Connection) con.getConnection();
+                update(sqlCon, "ANALYZE TABLE " + table, NO_OP_SETTER);
+                return execute(sqlCon, "SELECT data_length, index_length FROM information_schema.tables"
+                        + " WHERE table_schema = DATABASE() AND table_name = '" + table + "'", NO_OP_SETTER,
+                        result -> {
+                            assertTrue(result.next());
+                            return new long[]{result.getLong(1), result.getLong(2)};
+                        });
+            } catch (SQLException e) {
+                throw new StorageTransactionLogicException(e);
+            }
+        });
+    }
+
+    private static long timeLookups(Start start, String QUERY, List<Object> ids) throws Exception {
+        return start.startTransaction(con -> {
+            try (PreparedStatement pst = ((Connection) con.getConnection()).prepareStatement(QUERY)) {
+                long startTime = System.nanoTime();
+                for (Object id : ids) {
+                    pst.setObject(1, id);
+                    try (ResultSet result = pst.executeQuery()) {
+                        assertTrue(result.next());
+                    }
+                }
+                return (System.nanoTime() - startTime) / 1000000;
+            } catch (SQLException e) {
+                throw new StorageTransactionLogicException(e);
+            }
+        });
+    }
+
+    // UUID_TO_BIN(id), without swapping the time fields
+    private static byte[] toBytes(String id) {
+        UUID uuid = UUID.fromString(id);
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    @Test
+    public void indexSizeAndLookupLatencyOfCharAndBinaryIds() throws Exception {
+        // a benchmark that inserts 200k rows, so it only runs along with the other long running tests
+        if (System.getenv("ONE_MILLION_USERS_TEST") == null) {
+            return;
+        }
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+
+        // the same shape as all_auth_recipe_users' primary key and user id index, with each type of id
+        final int ROWS = 200000;
+        start.startTransaction(con -> {
+            try {
+                Connection sqlCon = (Connection) con.getConnection();
+                update(sqlCon, "CREATE TABLE bench_char_ids (app_id VARCHAR(64) NOT NULL, user_id CHAR(36) NOT NULL,"
+                        + " time_joined BIGINT NOT NULL, PRIMARY KEY (app_id, user_id),"
+                        + " INDEX bench_char_ids_time_joined (app_id, time_joined, user_id))", NO_OP_SETTER);
+                update(sqlCon, "CREATE TABLE bench_binary_ids (app_id VARCHAR(64) NOT NULL,"
+                        + " user_id BINARY(16) NOT NULL, time_joined BIGINT NOT NULL, PRIMARY KEY (app_id, user_id),"
+                        + " INDEX bench_binary_ids_time_joined (app_id, time_joined, user_id))", NO_OP_SETTER);
+                sqlCon.commit();
+            } catch (SQLException e) {
+                throw new StorageTransactionLogicException(e);
+            }
+            return null;
+        });
+
+        List<String> ids = new ArrayList<>();
+        for (int from = 0; from < ROWS; from += 1000) {
+            List<String> batch = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                batch.add(UUID.randomUUID().toString());
+            }
+            ids.addAll(batch);
+            long timeJoined = from;
+            start.startTransaction(con -> {
+                try {
+                    Connection sqlCon = (Connection) con.getConnection();
+                    String values = io.supertokens.storage.mysql.utils.Utils
+                            .generateCommaSeperatedQuestionMarkTuples(batch.size(), 3);
+                    for (String table : new String[]{"bench_char_ids", "bench_binary_ids"}) {
+                        boolean binary = table.equals("bench_binary_ids");
+                        update(sqlCon, "INSERT INTO " + table + " VALUES " + values, pst -> {
+                            for (int i = 0; i < batch.size(); i++) {
+                                pst.setString(3 * i + 1, "public");
+                                if (binary) {
+                                    pst.setBytes(3 * i + 2, toBytes(batch.get(i)));
+                                } else {
+                                    pst.setString(3 * i + 2, batch.get(i));
+                                }
+                                pst.setLong(3 * i + 3, timeJoined + i);
+                            }
+                        });
+                    }
+                    sqlCon.commit();
+                } catch (SQLException e) {
+                    throw new StorageTransactionLogicException(e);
+                }
+                return null;
+            });
+        }
+
+        long[] charSizes = getSizes(start, "bench_char_ids");
+        long[] binarySizes = getSizes(start, "bench_binary_ids");
+        assertTrue(binarySizes[0] < charSizes[0]);
+        assertTrue(binarySizes[1] < charSizes[1]);
+
+        List<Object> charLookups = new ArrayList<>();
+        List<Object> binaryLookups = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            String id = ids.get((int) ((i * 7919L) % ROWS));
+            charLookups.add(id);
+            binaryLookups.add(toBytes(id));
+        }
+        long charMillis = timeLookups(start,
+                "SELECT time_joined FROM bench_char_ids WHERE app_id = 'public' AND user_id = ?", charLookups);
+        long binaryMillis = timeLookups(start,
+                "SELECT time_joined FROM bench_binary_ids WHERE app_id = 'public' AND user_id = ?", binaryLookups);
+        // lookups by the smaller key are not slower, with a wide margin for the noise of a shared test db
+        assertTrue(binaryMillis < 2 * charMillis);
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+}
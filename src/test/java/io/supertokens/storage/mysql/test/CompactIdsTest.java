@@ -0,0 +1,50 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import io.supertokens.storage.mysql.utils.CompactIds;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class CompactIdsTest {
+
+    @Test
+    public void generatedUuidsAreCompactable() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(CompactIds.isCompactable(UUID.randomUUID().toString()));
+        }
+    }
+
+    @Test
+    public void idsThatWouldNotComeBackUnchangedAreNotCompactable() {
+        assertTrue(CompactIds.isCompactable("0f8fad5b-d9cb-469f-a165-70867728950e"));
+
+        // upper case, which the bytes cannot tell apart from lower case
+        assertFalse(CompactIds.isCompactable("0F8FAD5B-D9CB-469F-A165-70867728950E"));
+        // session handle of a non public tenant
+        assertFalse(CompactIds.isCompactable("tenant1_0f8fad5b-d9cb-469f-a165-70867728950e"));
+        // external user id
+        assertFalse(CompactIds.isCompactable("user@example.com"));
+        assertFalse(CompactIds.isCompactable("0f8fad5bd9cb469fa16570867728950e"));
+        assertFalse(CompactIds.isCompactable("0f8fad5b-d9cb-469f-a165-70867728950g"));
+        assertFalse(CompactIds.isCompactable("0f8fad5b+d9cb-469f-a165-70867728950e"));
+        assertFalse(CompactIds.isCompactable(null));
+    }
+}
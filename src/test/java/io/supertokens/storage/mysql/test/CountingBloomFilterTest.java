@@ -0,0 +1,89 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import io.supertokens.storage.mysql.utils.CountingBloomFilter;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CountingBloomFilterTest {
+
+    @Test
+    public void addedValuesAreNeverMissedAndFalsePositivesStayNearTheTarget() {
+        CountingBloomFilter filter = new CountingBloomFilter(10000, 0.01);
+
+        for (int i = 0; i < 10000; i++) {
+            filter.add("user" + i + "@example.com");
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("user" + i + "@example.com"));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("other" + i + "@example.com")) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 2000);
+        assertEquals(10000, filter.getItemCount());
+        assertTrue(filter.getEstimatedFalsePositiveRate() < 0.02);
+    }
+
+    @Test
+    public void removeOnlyForgetsTheRemovedValue() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+
+        for (int i = 0; i < 1000; i++) {
+            filter.add("user" + i + "@example.com");
+        }
+        // the same value added twice (two users with the same email) needs two removals
+        filter.add("user0@example.com");
+
+        for (int i = 1; i < 500; i++) {
+            filter.remove("user" + i + "@example.com");
+        }
+        for (int i = 500; i < 1000; i++) {
+            assertTrue(filter.mightContain("user" + i + "@example.com"));
+        }
+        assertTrue(filter.mightContain("user0@example.com"));
+
+        int stillThere = 0;
+        for (int i = 1; i < 500; i++) {
+            if (filter.mightContain("user" + i + "@example.com")) {
+                stillThere++;
+            }
+        }
+        assertTrue("removed values still there: " + stillThere, stillThere < 25);
+        assertEquals(502, filter.getItemCount());
+    }
+
+    @Test
+    public void saturatedCountersAreNeverDecremented() {
+        CountingBloomFilter filter = new CountingBloomFilter(10, 0.01);
+
+        for (int i = 0; i < 20; i++) {
+            filter.add("a@example.com");
+        }
+        for (int i = 0; i < 20; i++) {
+            filter.remove("a@example.com");
+        }
+        // the counters stopped counting at 15, so removing more than that must not take them back to 0
+        assertTrue(filter.mightContain("a@example.com"));
+    }
+}
@@ -27,7 +27,9 @@ import io.supertokens.pluginInterface.Storage;
 import io.supertokens.pluginInterface.exceptions.StorageQueryException;
 import io.supertokens.pluginInterface.multitenancy.*;
 import io.supertokens.pluginInterface.multitenancy.exceptions.TenantOrAppNotFoundException;
+import io.supertokens.storage.mysql.ConnectionPool;
 import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.WorkloadClass;
 import io.supertokens.storageLayer.StorageLayer;
 import io.supertokens.thirdparty.ThirdParty;
 import org.junit.AfterClass;
@@ -36,6 +38,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
 
+import java.sql.Connection;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -394,4 +398,163 @@ public class DbConnectionPoolTest {
         process.kill();
         assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
     }
+
+    @Test
+    public void testBackgroundWorkIsLimitedToItsShareOfThePool() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_connection_pool_size", "8");
+        Utils.setValueInConfig("mysql_background_connection_pool_size", "2");
+        Utils.setValueInConfig("mysql_background_connection_timeout", "500");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        Start start = (Start) StorageLayer.getBaseStorage(process.getProcess());
+
+        try (WorkloadClass.Scope ignored = start.enterWorkloadClass(WorkloadClass.BACKGROUND)) {
+            // nested scopes reuse the slot of the outer one
+            try (WorkloadClass.Scope ignored2 = start.enterWorkloadClass(WorkloadClass.BACKGROUND)) {
+                start.deleteAllExpiredSessions();
+            }
+
+            // another background job takes the other slot
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch holding = new CountDownLatch(1);
+            ExecutorService other = Executors.newSingleThreadExecutor();
+            other.execute(() -> {
+                try (WorkloadClass.Scope ignored2 = start.enterWorkloadClass(WorkloadClass.BACKGROUND)) {
+                    holding.countDown();
+                    release.await();
+                } catch (Exception ignored2) {
+                }
+            });
+            assertTrue(holding.await(10, TimeUnit.SECONDS));
+
+            ExecutorService es = Executors.newSingleThreadExecutor();
+            AtomicInteger timedOut = new AtomicInteger(0);
+            es.execute(() -> {
+                try {
+                    start.deleteAllExpiredSessions();
+                } catch (StorageQueryException e) {
+                    if (e.getMessage().contains("waiting for a background connection")) {
+                        timedOut.incrementAndGet();
+                    }
+                }
+                // requests are not limited by the background share
+                try {
+                    start.getKeyValue(new TenantIdentifier(null, null, null), "test");
+                } catch (StorageQueryException e) {
+                    timedOut.addAndGet(10);
+                }
+            });
+            es.shutdown();
+            assertTrue(es.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(1, timedOut.get());
+
+            release.countDown();
+            other.shutdown();
+            assertTrue(other.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        // the slot is given back once the scope is closed
+        start.deleteAllExpiredSessions();
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testBackgroundAndBulkWorkCannotStarveRequests() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_connection_pool_size", "5");
+        Utils.setValueInConfig("mysql_background_connection_pool_size", "2");
+        Utils.setValueInConfig("mysql_background_connection_timeout", "500");
+        Utils.setValueInConfig("mysql_bulk_connection_pool_size", "1");
+        Utils.setValueInConfig("mysql_bulk_connection_timeout", "500");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        Start start = (Start) StorageLayer.getBaseStorage(process.getProcess());
+
+        // twice as many background and bulk jobs as their shares, each holding on to a connection
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger holding = new AtomicInteger(0);
+        AtomicInteger timedOut = new AtomicInteger(0);
+        ExecutorService es = Executors.newFixedThreadPool(6);
+        for (WorkloadClass workloadClass : new WorkloadClass[]{WorkloadClass.BACKGROUND, WorkloadClass.BACKGROUND,
+                WorkloadClass.BACKGROUND, WorkloadClass.BACKGROUND, WorkloadClass.BULK, WorkloadClass.BULK}) {
+            es.execute(() -> {
+                try (WorkloadClass.Scope ignored = start.enterWorkloadClass(workloadClass);
+                     Connection con = ConnectionPool.getConnection(start)) {
+                    holding.incrementAndGet();
+                    release.await();
+                } catch (StorageQueryException e) {
+                    if (e.getMessage().contains("waiting for a " + workloadClass.name().toLowerCase())) {
+                        timedOut.incrementAndGet();
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+        }
+        while (timedOut.get() < 3) {
+            Thread.sleep(100);
+        }
+        assertEquals(3, holding.get());
+
+        // the rest of the pool is still there for requests, without waiting for the connection timeout
+        long requestStart = System.currentTimeMillis();
+        try (Connection first = ConnectionPool.getConnection(start);
+             Connection second = ConnectionPool.getConnection(start)) {
+            assertTrue(first.isValid(1));
+            assertTrue(second.isValid(1));
+        }
+        start.getKeyValue(new TenantIdentifier(null, null, null), "test");
+        assertTrue(System.currentTimeMillis() - requestStart < 1000);
+
+        release.countDown();
+        es.shutdown();
+        assertTrue(es.awaitTermination(10, TimeUnit.SECONDS));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testSharesThatLeaveNothingForRequestsAreRejected() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_connection_pool_size", "4");
+        Utils.setValueInConfig("mysql_background_connection_pool_size", "2");
+        Utils.setValueInConfig("mysql_bulk_connection_pool_size", "2");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+
+        ProcessState.EventAndException e = process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.INIT_FAILURE);
+        assertNotNull(e);
+        assertEquals("io.supertokens.pluginInterface.exceptions.InvalidConfigException: "
+                        + "'mysql_background_connection_pool_size' plus 'mysql_bulk_connection_pool_size' must be less "
+                        + "than 'mysql_connection_pool_size'", e.exception.getMessage());
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testABackgroundShareOfOneIsRejected() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_background_connection_pool_size", "1");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+
+        ProcessState.EventAndException e = process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.INIT_FAILURE);
+        assertNotNull(e);
+        assertEquals("io.supertokens.pluginInterface.exceptions.InvalidConfigException: "
+                        + "'mysql_background_connection_pool_size' must be >= 2 and less than or equal to "
+                        + "'mysql_connection_pool_size'", e.exception.getMessage());
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
 }
@@ -17,6 +17,7 @@
 
 package io.supertokens.storage.mysql.test;
 
+import com.google.gson.JsonObject;
 import io.supertokens.ProcessState;
 import io.supertokens.authRecipe.AuthRecipe;
 import io.supertokens.emailpassword.EmailPassword;
@@ -39,6 +40,7 @@ import io.supertokens.pluginInterface.totp.exception.UsedCodeAlreadyExistsExcept
 import io.supertokens.pluginInterface.totp.sqlStorage.TOTPSQLStorage;
 import io.supertokens.storage.mysql.Start;
 import io.supertokens.storageLayer.StorageLayer;
+import io.supertokens.usermetadata.UserMetadata;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Rule;
@@ -651,6 +653,68 @@ public class DeadlockTest {
         assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
     }
 
+    @Test
+    public void testListPrimaryUsersByEmailWhileLinkingInParallel() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        FeatureFlagTestContent.getInstance(process.getProcess())
+                .setKeyValue(FeatureFlagTestContent.ENABLED_FEATURES, new EE_FEATURES[]{
+                        EE_FEATURES.ACCOUNT_LINKING, EE_FEATURES.MULTI_TENANCY});
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        Start storage = (Start) StorageLayer.getStorage(process.getProcess());
+        ExecutorService es = Executors.newFixedThreadPool(1000);
+
+        AtomicBoolean pass = new AtomicBoolean(true);
+
+        AuthRecipeUserInfo user1 = EmailPassword.signUp(process.getProcess(), "test1@example.com", "password");
+        AuthRecipeUserInfo user2 = EmailPassword.signUp(process.getProcess(), "test2@example.com", "password");
+
+        AuthRecipe.createPrimaryUser(process.getProcess(), user1.getSupertokensUserId());
+
+        for (int i = 0; i < 3000; i++) {
+            final boolean link = i % 2 == 0;
+            es.execute(() -> {
+                try {
+                    if (link) {
+                        AuthRecipe.linkAccounts(process.getProcess(), user2.getSupertokensUserId(),
+                                user1.getSupertokensUserId());
+                        AuthRecipe.unlinkAccounts(process.getProcess(), user2.getSupertokensUserId());
+                    } else {
+                        AuthRecipeUserInfo[] users = storage.startTransaction(con -> {
+                            AuthRecipeUserInfo[] result = storage.listPrimaryUsersByEmail_Transaction(
+                                    TenantIdentifier.BASE_TENANT.toAppIdentifier(), con, "test1@example.com");
+                            storage.commitTransaction(con);
+                            return result;
+                        });
+                        if (users.length != 1 || !users[0].getSupertokensUserId()
+                                .equals(user1.getSupertokensUserId())) {
+                            pass.set(false);
+                        }
+                    }
+                } catch (Exception e) {
+                    if (e.getMessage().toLowerCase().contains("the transaction might succeed if retried")) {
+                        pass.set(false);
+                    }
+                }
+            });
+        }
+
+        es.shutdown();
+        // all the link / lookup calls are done, none of them stuck behind a lock
+        assertTrue(es.awaitTermination(2, TimeUnit.MINUTES));
+
+        assert (pass.get());
+        assertNull(process
+                .checkOrWaitForEventInPlugin(
+                        io.supertokens.storage.mysql.ProcessState.PROCESS_STATE.DEADLOCK_NOT_RESOLVED));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
     @Test
     public void testCreatePrimaryInParallel() throws Exception {
         String[] args = {"../"};
@@ -694,6 +758,47 @@ public class DeadlockTest {
         process.kill();
         assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
     }
+
+    @Test
+    public void testFirstUserMetadataUpdatesInParallel() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        ExecutorService es = Executors.newFixedThreadPool(100);
+        AtomicBoolean pass = new AtomicBoolean(true);
+
+        // users without metadata, each updated by many transactions at once
+        for (int i = 0; i < 1000; i++) {
+            String userId = "user" + (i % 100);
+            String key = "key" + (i / 100);
+            es.execute(() -> {
+                try {
+                    JsonObject update = new JsonObject();
+                    update.addProperty(key, "value");
+                    UserMetadata.updateUserMetadata(process.getProcess(), userId, update);
+                } catch (Exception e) {
+                    pass.set(false);
+                }
+            });
+        }
+
+        es.shutdown();
+        es.awaitTermination(2, TimeUnit.MINUTES);
+
+        assert (pass.get());
+        // deadlocks are retried, so they do not fail the updates
+        assertNull(process.checkOrWaitForEventInPlugin(
+                io.supertokens.storage.mysql.ProcessState.PROCESS_STATE.DEADLOCK_FOUND, 1000));
+        // no update was lost
+        for (int i = 0; i < 100; i++) {
+            assertEquals(10, UserMetadata.getUserMetadata(process.getProcess(), "user" + i).size());
+        }
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
 }
 
 /*
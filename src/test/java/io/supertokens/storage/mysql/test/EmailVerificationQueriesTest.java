@@ -0,0 +1,117 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import io.supertokens.ProcessState;
+import io.supertokens.emailpassword.EmailPassword;
+import io.supertokens.pluginInterface.authRecipe.AuthRecipeUserInfo;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.queries.EmailVerificationQueries;
+import io.supertokens.storage.mysql.queries.EmailVerificationQueries.UserIdAndEmail;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EmailVerificationQueriesTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    @Test
+    public void testOnlyExactPairsAreVerifiedAndIdMappingIsResolved() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+
+        List<AuthRecipeUserInfo> users = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            users.add(EmailPassword.signUp(process.getProcess(), "test" + i + "@example.com", "password"));
+        }
+        String u0 = users.get(0).getSupertokensUserId();
+        String u1 = users.get(1).getSupertokensUserId();
+        String u2 = users.get(2).getSupertokensUserId();
+        String u3 = users.get(3).getSupertokensUserId();
+
+        start.createUserIdMapping(app, u1, "external1", null);
+        start.createUserIdMapping(app, u3, "external3", null);
+
+        start.startTransaction(con -> {
+            try {
+                // verified directly
+                start.updateIsEmailVerified_Transaction(app, con, u0, "test0@example.com", true);
+                // verified against the external user id
+                start.updateIsEmailVerified_Transaction(app, con, "external1", "test1@example.com", true);
+                // u2 has some other user's email verified, but not its own
+                start.updateIsEmailVerified_Transaction(app, con, u2, "test0@example.com", true);
+                // u3 has a mapping, so a row against its supertokens user id does not count
+                start.updateIsEmailVerified_Transaction(app, con, u3, "test3@example.com", true);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            start.commitTransaction(con);
+            return null;
+        });
+
+        List<UserIdAndEmail> toCheck = Arrays.asList(
+                new UserIdAndEmail(u0, "test0@example.com"),
+                new UserIdAndEmail(u1, "test1@example.com"),
+                new UserIdAndEmail(u2, "test2@example.com"),
+                new UserIdAndEmail(u3, "test3@example.com"));
+
+        assertEquals(new HashSet<>(Arrays.asList(u0, u1)),
+                new HashSet<>(EmailVerificationQueries.isEmailVerified(start, app, toCheck)));
+
+        List<String> inTransaction = start.startTransaction(con -> {
+            try {
+                return EmailVerificationQueries.isEmailVerified_transaction(start,
+                        (Connection) con.getConnection(), app, toCheck);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertEquals(new HashSet<>(Arrays.asList(u0, u1)), new HashSet<>(inTransaction));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import io.supertokens.ProcessState;
+import io.supertokens.authRecipe.AuthRecipe;
+import io.supertokens.emailpassword.EmailPassword;
+import io.supertokens.featureflag.EE_FEATURES;
+import io.supertokens.featureflag.FeatureFlagTestContent;
+import io.supertokens.passwordless.Passwordless;
+import io.supertokens.pluginInterface.authRecipe.AuthRecipeUserInfo;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storageLayer.StorageLayer;
+import io.supertokens.thirdparty.ThirdParty;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
+import static org.junit.Assert.*;
+
+public class IdentityIndexTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    @Test
+    public void testRecipeWritesKeepTheIndexInSync() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = startProcess(args);
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+        TenantIdentifier tenant = new TenantIdentifier(null, null, null);
+        start.backfillIdentityIndex(app);
+
+        // sign ups
+        AuthRecipeUserInfo ep = EmailPassword.signUp(process.getProcess(), "ep@example.com", "password");
+        AuthRecipeUserInfo tp = ThirdParty.signInUp(process.getProcess(), "google", "googleid",
+                "tp@example.com").user;
+        Passwordless.CreateCodeResponse code1 = Passwordless.createCode(process.getProcess(), "pless@example.com",
+                null, null, null);
+        AuthRecipeUserInfo plessEmail = Passwordless.consumeCode(process.getProcess(), code1.deviceId,
+                code1.deviceIdHash, code1.userInputCode, null).user;
+        Passwordless.CreateCodeResponse code2 = Passwordless.createCode(process.getProcess(), null, "+919876543210",
+                null, null);
+        AuthRecipeUserInfo plessPhone = Passwordless.consumeCode(process.getProcess(), code2.deviceId,
+                code2.deviceIdHash, code2.userInputCode, null).user;
+
+        String epId = ep.getSupertokensUserId();
+        String tpId = tp.getSupertokensUserId();
+        Set<String> expected = new HashSet<>();
+        expected.add(row("email", "ep@example.com", epId, "emailpassword", epId));
+        expected.add(row("email", "tp@example.com", tpId, "thirdparty", tpId));
+        expected.add(row("thirdparty:google", "googleid", tpId, "thirdparty", tpId));
+        expected.add(row("email", "pless@example.com", plessEmail.getSupertokensUserId(), "passwordless",
+                plessEmail.getSupertokensUserId()));
+        expected.add(row("phone", "+919876543210", plessPhone.getSupertokensUserId(), "passwordless",
+                plessPhone.getSupertokensUserId()));
+        assertEquals(expected, getIndexRows(start));
+
+        // email updates
+        EmailPassword.updateUsersEmailOrPassword(process.getProcess(), epId, "ep2@example.com", null);
+        ThirdParty.signInUp(process.getProcess(), "google", "googleid", "tp2@example.com");
+        expected.remove(row("email", "ep@example.com", epId, "emailpassword", epId));
+        expected.add(row("email", "ep2@example.com", epId, "emailpassword", epId));
+        expected.remove(row("email", "tp@example.com", tpId, "thirdparty", tpId));
+        expected.add(row("email", "tp2@example.com", tpId, "thirdparty", tpId));
+        assertEquals(expected, getIndexRows(start));
+
+        // linking
+        AuthRecipe.createPrimaryUser(process.getProcess(), epId);
+        AuthRecipe.linkAccounts(process.getProcess(), tpId, epId);
+        expected.remove(row("email", "tp2@example.com", tpId, "thirdparty", tpId));
+        expected.remove(row("thirdparty:google", "googleid", tpId, "thirdparty", tpId));
+        expected.add(row("email", "tp2@example.com", tpId, "thirdparty", epId));
+        expected.add(row("thirdparty:google", "googleid", tpId, "thirdparty", epId));
+        assertEquals(expected, getIndexRows(start));
+
+        // the lookups are served from the index
+        AuthRecipeUserInfo[] byEmail = start.listPrimaryUsersByEmail(tenant, "tp2@example.com");
+        assertEquals(1, byEmail.length);
+        assertEquals(epId, byEmail[0].getSupertokensUserId());
+        AuthRecipeUserInfo[] byThirdParty = start.listPrimaryUsersByThirdPartyInfo(app, "google", "googleid");
+        assertEquals(1, byThirdParty.length);
+        assertEquals(epId, byThirdParty[0].getSupertokensUserId());
+        AuthRecipeUserInfo[] byPhone = start.listPrimaryUsersByPhoneNumber(tenant, "+919876543210");
+        assertEquals(1, byPhone.length);
+        assertEquals(plessPhone.getSupertokensUserId(), byPhone[0].getSupertokensUserId());
+        assertEquals(0, start.listPrimaryUsersByEmail(tenant, "tp@example.com").length);
+
+        // unlinking and deleting
+        AuthRecipe.unlinkAccounts(process.getProcess(), tpId);
+        expected.remove(row("email", "tp2@example.com", tpId, "thirdparty", epId));
+        expected.remove(row("thirdparty:google", "googleid", tpId, "thirdparty", epId));
+        expected.add(row("email", "tp2@example.com", tpId, "thirdparty", tpId));
+        expected.add(row("thirdparty:google", "googleid", tpId, "thirdparty", tpId));
+        AuthRecipe.deleteUser(process.getProcess(), plessEmail.getSupertokensUserId());
+        expected.remove(row("email", "pless@example.com", plessEmail.getSupertokensUserId(), "passwordless",
+                plessEmail.getSupertokensUserId()));
+        assertEquals(expected, getIndexRows(start));
+
+        // everything was kept in sync, so there is nothing to reconcile
+        assertEquals(0, start.reconcileIdentityIndex(app));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testBackfillAndReconcileRepairWritesThatSkippedTheIndex() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = startProcess(args);
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+        TenantIdentifier tenant = new TenantIdentifier(null, null, null);
+
+        AuthRecipeUserInfo user1 = EmailPassword.signUp(process.getProcess(), "test1@example.com", "password");
+        AuthRecipeUserInfo user2 = EmailPassword.signUp(process.getProcess(), "test2@example.com", "password");
+        AuthRecipeUserInfo user3 = ThirdParty.signInUp(process.getProcess(), "google", "googleid",
+                "test3@example.com").user;
+        Set<String> expected = getIndexRows(start);
+        assertEquals(4, expected.size());
+
+        // what an app that existed before the index looks like
+        String table = Config.getConfig(start).getIdentityIndexTable();
+        update(start, "DELETE FROM " + table, pst -> {
+        });
+        start.backfillIdentityIndex(app);
+        assertEquals(expected, getIndexRows(start));
+
+        // what writes by a core that does not know about the index leave behind: a missing row, a primary user id
+        // that was not updated on linking and the row of an email that was changed
+        update(start, "DELETE FROM " + table + " WHERE user_id = ?",
+                pst -> pst.setString(1, user1.getSupertokensUserId()));
+        update(start, "UPDATE " + table + " SET primary_user_id = ? WHERE user_id = ?", pst -> {
+            pst.setString(1, user2.getSupertokensUserId());
+            pst.setString(2, user3.getSupertokensUserId());
+        });
+        update(start, "UPDATE " + table + " SET identifier = ? WHERE user_id = ?", pst -> {
+            pst.setString(1, "old@example.com");
+            pst.setString(2, user2.getSupertokensUserId());
+        });
+        assertEquals(0, start.listPrimaryUsersByEmail(tenant, "test1@example.com").length);
+
+        assertEquals(3, start.reconcileIdentityIndex(app));
+        assertEquals(expected, getIndexRows(start));
+        assertEquals(0, start.reconcileIdentityIndex(app));
+
+        AuthRecipeUserInfo[] byEmail = start.listPrimaryUsersByEmail(tenant, "test1@example.com");
+        assertEquals(1, byEmail.length);
+        assertEquals(user1.getSupertokensUserId(), byEmail[0].getSupertokensUserId());
+        assertEquals(0, start.listPrimaryUsersByEmail(tenant, "old@example.com").length);
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testAppsThatDoNotUseTheIndexSkipTheSync() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = startProcess(args);
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = new AppIdentifier(null, null);
+        TenantIdentifier tenant = new TenantIdentifier(null, null, null);
+
+        // what an app that existed before the index looks like
+        update(start, "DELETE FROM " + Config.getConfig(start).getKeyValueTable() + " WHERE name = ?",
+                pst -> pst.setString(1, "identity_index_backfilled"));
+        process.kill(false);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+        StorageLayer.close();
+        process = startProcess(args);
+        start = (Start) StorageLayer.getStorage(process.getProcess());
+
+        AuthRecipeUserInfo user1 = EmailPassword.signUp(process.getProcess(), "test1@example.com", "password");
+        AuthRecipeUserInfo user2 = ThirdParty.signInUp(process.getProcess(), "google", "googleid",
+                "test2@example.com").user;
+        AuthRecipe.createPrimaryUser(process.getProcess(), user1.getSupertokensUserId());
+        AuthRecipe.linkAccounts(process.getProcess(), user2.getSupertokensUserId(), user1.getSupertokensUserId());
+        assertEquals(new HashSet<>(), getIndexRows(start));
+        // the lookups read the recipe tables
+        assertEquals(1, start.listPrimaryUsersByEmail(tenant, "test2@example.com").length);
+
+        start.backfillIdentityIndex(app);
+        String userId1 = user1.getSupertokensUserId();
+        String userId2 = user2.getSupertokensUserId();
+        Set<String> expected = new HashSet<>();
+        expected.add(row("email", "test1@example.com", userId1, "emailpassword", userId1));
+        expected.add(row("email", "test2@example.com", userId2, "thirdparty", userId1));
+        expected.add(row("thirdparty:google", "googleid", userId2, "thirdparty", userId1));
+        assertEquals(expected, getIndexRows(start));
+
+        // and from now on, the writes keep the index in sync
+        AuthRecipe.unlinkAccounts(process.getProcess(), userId2);
+        expected.remove(row("email", "test2@example.com", userId2, "thirdparty", userId1));
+        expected.remove(row("thirdparty:google", "googleid", userId2, "thirdparty", userId1));
+        expected.add(row("email", "test2@example.com", userId2, "thirdparty", userId2));
+        expected.add(row("thirdparty:google", "googleid", userId2, "thirdparty", userId2));
+        AuthRecipeUserInfo user3 = EmailPassword.signUp(process.getProcess(), "test3@example.com", "password");
+        expected.add(row("email", "test3@example.com", user3.getSupertokensUserId(), "emailpassword",
+                user3.getSupertokensUserId()));
+        assertEquals(expected, getIndexRows(start));
+        assertEquals(0, start.reconcileIdentityIndex(app));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    private static TestingProcessManager.TestingProcess startProcess(String[] args) throws Exception {
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        FeatureFlagTestContent.getInstance(process.getProcess())
+                .setKeyValue(FeatureFlagTestContent.ENABLED_FEATURES, new EE_FEATURES[]{
+                        EE_FEATURES.ACCOUNT_LINKING, EE_FEATURES.MULTI_TENANCY});
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        return process;
+    }
+
+    private static String row(String identifierType, String identifier, String userId, String recipeId,
+                              String primaryUserId) {
+        return "public/" + identifierType + "/" + identifier + "/" + userId + "/" + recipeId + "/" + primaryUserId;
+    }
+
+    private static Set<String> getIndexRows(Start start) throws Exception {
+        String QUERY = "SELECT tenant_id, identifier_type, identifier, user_id, recipe_id, primary_user_id FROM "
+                + Config.getConfig(start).getIdentityIndexTable() + " WHERE app_id = ?";
+        return execute(start, QUERY, pst -> pst.setString(1, "public"), result -> {
+            Set<String> rows = new HashSet<>();
+            while (result.next()) {
+                rows.add(result.getString("tenant_id") + "/" + result.getString("identifier_type") + "/"
+                        + result.getString("identifier") + "/" + result.getString("user_id") + "/"
+                        + result.getString("recipe_id") + "/" + result.getString("primary_user_id"));
+            }
+            return rows;
+        });
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.storage.mysql.queries.utils.JsonUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class JsonUtilsTest {
+
+    private static JsonObject payloadOfSize(int approxBytes) {
+        JsonObject obj = new JsonObject();
+        int i = 0;
+        while (obj.toString().length() < approxBytes) {
+            obj.addProperty("key" + i, "v\u00e4lue-" + i + "-" + "x".repeat(32));
+            i++;
+        }
+        return obj;
+    }
+
+    @Test
+    public void streamingParseMatchesStringParse() throws Exception {
+        for (int size : new int[]{1024, 16 * 1024}) {
+            JsonObject payload = payloadOfSize(size);
+            String raw = payload.toString();
+
+            JsonObject fromString = JsonUtils.stringToJsonObject(raw);
+            JsonObject fromStream = JsonUtils.inputStreamToJsonObject(
+                    new ByteArrayInputStream(raw.getBytes(StandardCharsets.UTF_8)));
+
+            assertEquals(payload, fromString);
+            assertEquals(payload, fromStream);
+        }
+        assertNull(JsonUtils.inputStreamToJsonObject(null));
+    }
+
+    // a result set with a single JSON column that fails if the column is read more than once
+    private static ResultSet resultSetWithColumn(String columnName, String value) {
+        AtomicBoolean read = new AtomicBoolean(false);
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    assertEquals(columnName, args[0]);
+                    assertFalse("column read twice", read.getAndSet(true));
+                    if (method.getName().equals("getBinaryStream")) {
+                        return value == null ? null : new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+                    }
+                    if (method.getName().equals("getString")) {
+                        return value;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    public void resultSetColumnIsDecodedFromASingleRead() throws Exception {
+        for (int size : new int[]{16, 1024, 16 * 1024}) {
+            JsonObject payload = payloadOfSize(size);
+            assertEquals(payload,
+                    JsonUtils.resultSetColumnToJsonObject(resultSetWithColumn("session_data", payload.toString()),
+                            "session_data"));
+        }
+        assertNull(JsonUtils.resultSetColumnToJsonObject(resultSetWithColumn("session_data", null), "session_data"));
+    }
+
+    @Test
+    public void deepCopyDoesNotShareNestedObjects() {
+        JsonObject payload = JsonUtils.stringToJsonObject("{\"a\":{\"b\":[1,{\"c\":\"d\"}]},\"e\":null,\"f\":true}");
+
+        JsonObject copy = JsonUtils.deepCopy(payload);
+        assertEquals(payload, copy);
+
+        copy.getAsJsonObject("a").getAsJsonArray("b").get(1).getAsJsonObject().addProperty("c", "changed");
+        copy.addProperty("g", 1);
+        assertEquals("d", payload.getAsJsonObject("a").getAsJsonArray("b").get(1).getAsJsonObject().get("c")
+                .getAsString());
+        assertFalse(payload.has("g"));
+        assertNull(JsonUtils.deepCopy(null));
+    }
+}
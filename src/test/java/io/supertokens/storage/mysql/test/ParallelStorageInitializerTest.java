@@ -0,0 +1,163 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import io.supertokens.ProcessState;
+import io.supertokens.config.Config;
+import io.supertokens.featureflag.EE_FEATURES;
+import io.supertokens.featureflag.FeatureFlagTestContent;
+import io.supertokens.pluginInterface.exceptions.StorageQueryException;
+import io.supertokens.pluginInterface.multitenancy.EmailPasswordConfig;
+import io.supertokens.pluginInterface.multitenancy.PasswordlessConfig;
+import io.supertokens.pluginInterface.multitenancy.TenantConfig;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.pluginInterface.multitenancy.ThirdPartyConfig;
+import io.supertokens.storage.mysql.ParallelStorageInitializer;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
+import static org.junit.Assert.*;
+
+public class ParallelStorageInitializerTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    @After
+    public void afterEach() {
+        ParallelStorageInitializer.simulatedInitTimeMillis_forTesting = 0;
+    }
+
+    private static TenantConfig newTenantWithItsOwnDb(TenantIdentifier tenantIdentifier, String databaseName) {
+        JsonObject config = new JsonObject();
+        config.add("mysql_database_name", new JsonPrimitive(databaseName));
+        return new TenantConfig(tenantIdentifier, new EmailPasswordConfig(true),
+                new ThirdPartyConfig(true, null), new PasswordlessConfig(true), null, null, config);
+    }
+
+    @Test
+    public void testUserPoolsAreSetUpInParallel() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_init_in_background", "true");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        FeatureFlagTestContent.getInstance(process.getProcess())
+                .setKeyValue(FeatureFlagTestContent.ENABLED_FEATURES, new EE_FEATURES[]{EE_FEATURES.MULTI_TENANCY});
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        TenantConfig[] tenants = new TenantConfig[4];
+        for (int i = 0; i < tenants.length; i++) {
+            tenants[i] = newTenantWithItsOwnDb(new TenantIdentifier(null, null, "t" + i), "st" + (i + 1));
+        }
+        Config.loadAllTenantConfig(process.getProcess(), tenants);
+
+        // each pool takes a second to set up, which the core would otherwise wait for one after the other
+        ParallelStorageInitializer.simulatedInitTimeMillis_forTesting = 1000;
+        long loadStart = System.currentTimeMillis();
+        StorageLayer.loadAllTenantStorage(process.getProcess(), tenants);
+        assertTrue(System.currentTimeMillis() - loadStart < 1000);
+
+        long maxStartedAt = 0;
+        long minFinishedAt = Long.MAX_VALUE;
+        for (TenantConfig tenant : tenants) {
+            Start start = (Start) StorageLayer.getStorage(tenant.tenantIdentifier, process.getProcess());
+            // waits for the set up of the pool
+            assertTrue(execute(start, "SELECT 1", pst -> {
+            }, result -> result.next()));
+
+            JsonObject metrics = start.getInitInBackgroundMetrics();
+            assertEquals("SUCCESS", metrics.get("status").getAsString());
+            assertTrue(metrics.get("finishedAt").getAsLong() - metrics.get("startedAt").getAsLong() >= 1000);
+            maxStartedAt = Math.max(maxStartedAt, metrics.get("startedAt").getAsLong());
+            minFinishedAt = Math.min(minFinishedAt, metrics.get("finishedAt").getAsLong());
+        }
+        // every pool started before any of them was done
+        assertTrue(maxStartedAt < minFinishedAt);
+        assertTrue(System.currentTimeMillis() - loadStart < 3000);
+
+        // the base tenant's storage is still set up by initStorage itself
+        Start base = (Start) StorageLayer.getStorage(TenantIdentifier.BASE_TENANT, process.getProcess());
+        assertEquals(0, base.getInitInBackgroundMetrics().size());
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testAFailedSetUpIsReportedAndRetriedByTheNextQuery() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_init_in_background", "true");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        FeatureFlagTestContent.getInstance(process.getProcess())
+                .setKeyValue(FeatureFlagTestContent.ENABLED_FEATURES, new EE_FEATURES[]{EE_FEATURES.MULTI_TENANCY});
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        TenantConfig[] tenants = new TenantConfig[]{
+                newTenantWithItsOwnDb(new TenantIdentifier(null, null, "t1"), "st6000")};
+        Config.loadAllTenantConfig(process.getProcess(), tenants);
+        StorageLayer.loadAllTenantStorage(process.getProcess(), tenants);
+
+        Start start = (Start) StorageLayer.getStorage(tenants[0].tenantIdentifier, process.getProcess());
+        try {
+            execute(start, "SELECT 1", pst -> {
+            }, result -> result.next());
+            fail();
+        } catch (StorageQueryException e) {
+            assertTrue(e.getMessage().contains("Unknown database 'st6000'"));
+        }
+        JsonObject metrics = start.getInitInBackgroundMetrics();
+        assertEquals("FAILED", metrics.get("status").getAsString());
+        assertTrue(metrics.get("error").getAsString().contains("Unknown database 'st6000'"));
+
+        Start base = (Start) StorageLayer.getStorage(TenantIdentifier.BASE_TENANT, process.getProcess());
+        update(base, "CREATE DATABASE st6000", pst -> {
+        });
+        try {
+            // the next query sets up the pool again
+            assertTrue(execute(start, "SELECT 1", pst -> {
+            }, result -> result.next()));
+        } finally {
+            update(base, "DROP DATABASE st6000", pst -> {
+            });
+        }
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+}
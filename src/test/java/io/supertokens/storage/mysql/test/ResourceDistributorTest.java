@@ -0,0 +1,86 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import io.supertokens.storage.mysql.ResourceDistributor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ResourceDistributorTest {
+
+    private static class TestResource extends ResourceDistributor.SingletonResource {
+    }
+
+    @Test
+    public void handleFollowsSetAndRemove() {
+        ResourceDistributor distributor = new ResourceDistributor();
+        ResourceDistributor.Handle<TestResource> handle = distributor.getHandle("key");
+        assertNull(handle.get());
+
+        TestResource first = new TestResource();
+        assertSame(first, distributor.setResource("key", first));
+        assertSame(first, handle.get());
+        assertSame(first, distributor.getResource("key"));
+
+        // setting again keeps the existing resource
+        assertSame(first, distributor.setResource("key", new TestResource()));
+        assertSame(first, handle.get());
+
+        distributor.removeResource("key");
+        assertNull(handle.get());
+        assertNull(distributor.getResource("key"));
+
+        TestResource second = new TestResource();
+        distributor.setResource("key", second);
+        assertSame(second, handle.get());
+        assertSame(handle, distributor.getHandle("key"));
+    }
+
+    @Test
+    public void concurrentSetResourceAgreesOnOneInstance() throws Exception {
+        ResourceDistributor distributor = new ResourceDistributor();
+        int numThreads = 16;
+        CountDownLatch startLatch = new CountDownLatch(1);
+        Set<ResourceDistributor.SingletonResource> seen = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                seen.add(distributor.setResource("key", new TestResource()));
+            });
+            t.start();
+            threads.add(t);
+        }
+        startLatch.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, seen.size());
+        assertSame(seen.iterator().next(), distributor.getResource("key"));
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.ProcessState;
+import io.supertokens.pluginInterface.exceptions.StorageTransactionLogicException;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.pluginInterface.session.SessionInfo;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.supertokens.storage.mysql.PreparedStatementValueSetter.NO_OP_SETTER;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
+import static org.junit.Assert.*;
+
+public class SessionIndexTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    private static final String NEW_INDEX = "session_info_app_id_user_id_expires_at_index";
+    private static final String OLD_INDEX = "session_info_user_id_app_id_index";
+
+    private static Set<String> getSessionIndexes(Start start) throws Exception {
+        String table = Config.getConfig(start).getSessionInfoTable();
+        return start.startTransaction(con -> {
+            try {
+                return execute((Connection) con.getConnection(), "SELECT DISTINCT index_name FROM "
+                        + "information_schema.statistics WHERE table_schema = DATABASE() AND table_name = '"
+                        + table + "'", NO_OP_SETTER, result -> {
+                    Set<String> indexes = new HashSet<>();
+                    while (result.next()) {
+                        indexes.add(result.getString(1));
+                    }
+                    return indexes;
+                });
+            } catch (SQLException e) {
+                throw new StorageTransactionLogicException(e);
+            }
+        });
+    }
+
+    private static void runQuery(Start start, String query) throws Exception {
+        start.startTransaction(con -> {
+            try {
+                update((Connection) con.getConnection(), query, NO_OP_SETTER);
+            } catch (SQLException e) {
+                throw new StorageTransactionLogicException(e);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void existingInstallsGetTheNewIndexOnline() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        String table = Config.getConfig(start).getSessionInfoTable();
+
+        Set<String> indexes = getSessionIndexes(start);
+        assertTrue(indexes.contains(NEW_INDEX));
+        assertFalse(indexes.contains(OLD_INDEX));
+
+        // go back to the schema of an older version
+        runQuery(start, "ALTER TABLE " + table + " DROP INDEX " + NEW_INDEX + ", ADD INDEX " + OLD_INDEX
+                + " (user_id, app_id)");
+        runQuery(start, "DELETE FROM " + Config.getConfig(start).getSchemaVersionTable());
+
+        process.kill(false);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+
+        StorageLayer.close();
+        process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        assertNotNull(process.checkOrWaitForEventInPlugin(
+                io.supertokens.storage.mysql.ProcessState.PROCESS_STATE.CHANGING_INDEXES));
+        assertNull(process.checkOrWaitForEventInPlugin(
+                io.supertokens.storage.mysql.ProcessState.PROCESS_STATE.CREATING_NEW_TABLE, 1000));
+        start = (Start) StorageLayer.getStorage(process.getProcess());
+
+        indexes = getSessionIndexes(start);
+        assertTrue(indexes.contains(NEW_INDEX));
+        assertFalse(indexes.contains(OLD_INDEX));
+
+        process.kill(false);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+
+        // nothing left to change
+        StorageLayer.close();
+        process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        assertNull(process.checkOrWaitForEventInPlugin(
+                io.supertokens.storage.mysql.ProcessState.PROCESS_STATE.CHANGING_INDEXES, 1000));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void sessionsOfUsersWithHundredsOfSessions() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        TenantIdentifier tenant = TenantIdentifier.BASE_TENANT;
+
+        final int USERS = 200;
+        final int SESSIONS_PER_USER = 300;
+        long now = System.currentTimeMillis();
+        for (int u = 0; u < USERS; u++) {
+            List<SessionInfo> sessions = new ArrayList<>();
+            for (int i = 0; i < SESSIONS_PER_USER; i++) {
+                // a third of them expired
+                long expiry = i % 3 == 0 ? now - 1000 : now + 3600000;
+                sessions.add(new SessionInfo("handle-" + u + "-" + i, "user" + u, "user" + u, "hash", new JsonObject(),
+                        expiry, new JsonObject(), now, false));
+            }
+            start.createNewSessions(tenant, sessions);
+        }
+
+        String explain = "EXPLAIN SELECT session_handle FROM " + Config.getConfig(start).getSessionInfoTable()
+                + " WHERE app_id = 'public' AND tenant_id = 'public' AND user_id = 'user0' AND expires_at >= " + now;
+        String[] plan = start.startTransaction(con -> {
+            try {
+                return execute((Connection) con.getConnection(), explain, NO_OP_SETTER, result -> {
+                    assertTrue(result.next());
+                    return new String[]{result.getString("key"), result.getString("Extra")};
+                });
+            } catch (SQLException e) {
+                throw new StorageTransactionLogicException(e);
+            }
+        });
+        assertEquals(NEW_INDEX, plan[0]);
+        // covering: the rows themselves are not read
+        assertTrue(plan[1], plan[1].contains("Using index"));
+
+        for (int i = 0; i < 1000; i++) {
+            String[] handles = start.getAllNonExpiredSessionHandlesForUser(tenant, "user" + (i % USERS));
+            assertEquals(SESSIONS_PER_USER * 2 / 3, handles.length);
+        }
+
+        String explainDelete = "EXPLAIN DELETE FROM " + Config.getConfig(start).getSessionInfoTable()
+                + " WHERE app_id = 'public' AND user_id = 'user0'";
+        String deleteKey = start.startTransaction(con -> {
+            try {
+                return execute((Connection) con.getConnection(), explainDelete, NO_OP_SETTER, result -> {
+                    assertTrue(result.next());
+                    return result.getString("key");
+                });
+            } catch (SQLException e) {
+                throw new StorageTransactionLogicException(e);
+            }
+        });
+        assertEquals(NEW_INDEX, deleteKey);
+
+        for (int u = 0; u < USERS; u++) {
+            start.deleteSessionsOfUser(tenant.toAppIdentifier(), "user" + u);
+        }
+        assertEquals(0, start.getNumberOfSessions(tenant));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+}
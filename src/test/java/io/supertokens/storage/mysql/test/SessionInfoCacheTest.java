@@ -0,0 +1,135 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.ProcessState;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.pluginInterface.session.SessionInfo;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionInfoCacheTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    @Test
+    public void writesOfThisCoreAreSeenRightAway() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_session_cache_ttl", "60000");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        TenantIdentifier tenant = TenantIdentifier.BASE_TENANT;
+
+        JsonObject data = new JsonObject();
+        data.addProperty("key", "value");
+        long expiry = System.currentTimeMillis() + 3600000;
+        start.createNewSession(tenant, "handle", "user", "hash", data, expiry, data, System.currentTimeMillis(), false);
+
+        SessionInfo first = start.getSession(tenant, "handle");
+        assertEquals("value", first.userDataInDatabase.get("key").getAsString());
+        // what a caller gets is its own copy
+        first.userDataInDatabase.addProperty("key", "changed by the caller");
+        assertEquals("value", start.getSession(tenant, "handle").userDataInDatabase.get("key").getAsString());
+
+        JsonObject newData = new JsonObject();
+        newData.addProperty("key", "updated");
+        start.updateSession(tenant, "handle", newData, null);
+        assertEquals("updated", start.getSession(tenant, "handle").userDataInDatabase.get("key").getAsString());
+
+        start.startTransaction(con -> {
+            start.updateSessionInfo_Transaction(tenant, con, "handle", "newHash", expiry, false);
+            // a read from another thread until the commit gets the old row, and must not cache it
+            start.commitTransaction(con);
+            return null;
+        });
+        assertEquals("newHash", start.getSession(tenant, "handle").refreshTokenHash2);
+
+        start.deleteSessionsOfUser(tenant.toAppIdentifier(), "user");
+        assertNull(start.getSession(tenant, "handle"));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void batchedCreateAndDeleteOfSessions() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_session_cache_ttl", "60000");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        TenantIdentifier tenant = TenantIdentifier.BASE_TENANT;
+
+        // more than one insert / delete statement worth of each
+        List<SessionInfo> sessions = new ArrayList<>();
+        List<String> userIds = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1200; i++) {
+            JsonObject data = new JsonObject();
+            data.addProperty("i", i);
+            String userId = "user" + (i % 1100);
+            sessions.add(new SessionInfo("handle" + i, userId, userId, "hash" + i, data, now + 3600000, data, now,
+                    false));
+            if (i < 1100) {
+                userIds.add(userId);
+            }
+        }
+        start.createNewSessions(tenant, sessions);
+        assertEquals(1200, start.getNumberOfSessions(tenant));
+        assertEquals(5, start.getSession(tenant, "handle5").userDataInDatabase.get("i").getAsInt());
+
+        assertEquals(200, start.deleteSessionsOfUsers(tenant.toAppIdentifier(), userIds.subList(0, 100)));
+        assertEquals(1000, start.getNumberOfSessions(tenant));
+        // it was cached above, and must be gone
+        assertNull(start.getSession(tenant, "handle5"));
+        assertNotNull(start.getSession(tenant, "handle105"));
+
+        assertEquals(1000, start.deleteSessionsOfUsers(tenant.toAppIdentifier(), userIds));
+        assertEquals(0, start.getNumberOfSessions(tenant));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+}
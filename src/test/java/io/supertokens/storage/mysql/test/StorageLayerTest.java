@@ -1,5 +1,6 @@
 package io.supertokens.storage.mysql.test;
 
+import com.google.gson.JsonObject;
 import io.supertokens.ProcessState;
 import io.supertokens.authRecipe.AuthRecipe;
 import io.supertokens.emailpassword.EmailPassword;
@@ -14,19 +15,24 @@ import io.supertokens.pluginInterface.exceptions.StorageTransactionLogicExceptio
 import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
 import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
 import io.supertokens.pluginInterface.multitenancy.exceptions.TenantOrAppNotFoundException;
+import io.supertokens.pluginInterface.passwordless.PasswordlessCode;
 import io.supertokens.pluginInterface.totp.TOTPDevice;
 import io.supertokens.pluginInterface.totp.TOTPUsedCode;
 import io.supertokens.pluginInterface.totp.exception.UnknownTotpUserIdException;
 import io.supertokens.pluginInterface.totp.exception.UsedCodeAlreadyExistsException;
 import io.supertokens.pluginInterface.totp.sqlStorage.TOTPSQLStorage;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.config.Config;
 import io.supertokens.storageLayer.StorageLayer;
 import io.supertokens.thirdparty.ThirdParty;
+import io.supertokens.usermetadata.UserMetadata;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
 
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
 import static org.junit.Assert.*;
 
 public class StorageLayerTest {
@@ -98,6 +104,104 @@ public class StorageLayerTest {
         insertUsedCodeUtil(storage, code);
     }
 
+    @Test
+    public void totpUsedCodesAreBoundedPerUser() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_totp_used_codes_read_limit", "3");
+        Utils.setValueInConfig("mysql_totp_used_codes_per_user", "5");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        TOTPSQLStorage storage = (TOTPSQLStorage) StorageLayer.getStorage(process.getProcess());
+        long now = System.currentTimeMillis();
+        long nextDay = now + 1000 * 60 * 60 * 24;
+
+        TOTPDevice d1 = new TOTPDevice("user", "d1", "secret", 30, 1, false, now);
+        storage.createDevice(TenantIdentifier.BASE_TENANT.toAppIdentifier(), d1);
+
+        // the oldest code can still be reused, so it must be neither trimmed nor skipped by the read limit
+        insertUsedCodeUtil(storage, new TOTPUsedCode("user", "00000000", true, nextDay, now - 100));
+        for (int i = 1; i <= 10; i++) {
+            insertUsedCodeUtil(storage, new TOTPUsedCode("user", "1000000" + (i % 10), false, nextDay,
+                    now - 100 + i));
+        }
+
+        TOTPUsedCode[] codes = storage.startTransaction(con -> {
+            TOTPUsedCode[] result = storage.getAllUsedCodesDescOrder_Transaction(con, TenantIdentifier.BASE_TENANT,
+                    "user");
+            storage.commitTransaction(con);
+            return result;
+        });
+        assertEquals(4, codes.length);
+        assertEquals(now - 90, codes[0].createdTime);
+        assertEquals(now - 91, codes[1].createdTime);
+        assertEquals(now - 92, codes[2].createdTime);
+        assertEquals("00000000", codes[3].code);
+
+        // with a bigger read limit, only the 5 latest codes and the valid one are left
+        Utils.setValueInConfig("mysql_totp_used_codes_read_limit", "1000");
+        process.kill(false);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+
+        StorageLayer.close();
+        process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        TOTPSQLStorage newStorage = (TOTPSQLStorage) StorageLayer.getStorage(process.getProcess());
+        codes = newStorage.startTransaction(con -> {
+            TOTPUsedCode[] result = newStorage.getAllUsedCodesDescOrder_Transaction(con,
+                    TenantIdentifier.BASE_TENANT, "user");
+            newStorage.commitTransaction(con);
+            return result;
+        });
+        assertEquals(6, codes.length);
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void expiredPasswordlessCodesAreDeletedInBatches() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        TenantIdentifier tenant = TenantIdentifier.BASE_TENANT;
+        long now = System.currentTimeMillis();
+
+        // more expired codes than fit in one batch, a third of them on devices that also have a code that is not
+        // expired
+        for (int i = 0; i < 1500; i++) {
+            String deviceIdHash = String.format("%044d", i);
+            start.createDeviceWithCode(tenant, "test" + i + "@example.com", null, "salt",
+                    new PasswordlessCode(String.format("%036d", i), deviceIdHash, String.format("l%043d", i),
+                            now - 100000 + i));
+            if (i % 3 == 0) {
+                start.createCode(tenant, new PasswordlessCode(String.format("n%035d", i), deviceIdHash,
+                        String.format("n%043d", i), now));
+            }
+        }
+
+        assertEquals(1500, start.deleteCodesBefore(tenant, now - 1000));
+        assertEquals(0, start.getCodesBefore(tenant, now - 1000).length);
+        for (int i = 0; i < 1500; i++) {
+            String deviceIdHash = String.format("%044d", i);
+            if (i % 3 == 0) {
+                assertNotNull(start.getDevice(tenant, deviceIdHash));
+                assertEquals(1, start.getCodesOfDevice(tenant, deviceIdHash).length);
+            } else {
+                assertNull(start.getDevice(tenant, deviceIdHash));
+            }
+        }
+        assertEquals(0, start.deleteCodesBefore(tenant, now - 1000));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
     @Test
     public void testLinkedAccountUser() throws Exception {
         String[] args = {"../"};
@@ -151,4 +255,44 @@ public class StorageLayerTest {
         process.kill();
         assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
     }
+
+    @Test
+    public void lockRowsAreDeletedWithTheUser() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        AppIdentifier app = TenantIdentifier.BASE_TENANT.toAppIdentifier();
+        String[] userIds = new String[2];
+        for (int i = 0; i < 2; i++) {
+            String userId = EmailPassword.signUp(process.getProcess(), "test" + i + "@example.com", "password")
+                    .getSupertokensUserId();
+            userIds[i] = userId;
+
+            JsonObject metadata = new JsonObject();
+            metadata.addProperty("key", "value");
+            UserMetadata.updateUserMetadata(process.getProcess(), userId, metadata);
+            start.createDevice(app, new TOTPDevice(userId, "d1", "secret", 30, 1, false, System.currentTimeMillis()));
+            start.startTransaction(con -> {
+                start.getAllUsedCodesDescOrder_Transaction(con, TenantIdentifier.BASE_TENANT, userId);
+                start.commitTransaction(con);
+                return null;
+            });
+            assertEquals(2, countLockRows(start, userId));
+        }
+
+        AuthRecipe.deleteUser(process.getProcess(), userIds[0]);
+        assertEquals(0, countLockRows(start, userIds[0]));
+        assertEquals(2, countLockRows(start, userIds[1]));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    private static long countLockRows(Start start, String key) throws Exception {
+        String QUERY = "SELECT COUNT(*) FROM " + Config.getConfig(start).getLocksTable() + " WHERE lock_key = ?";
+        return execute(start, QUERY, pst -> pst.setString(1, key), result -> result.next() ? result.getLong(1) : -1L);
+    }
 }
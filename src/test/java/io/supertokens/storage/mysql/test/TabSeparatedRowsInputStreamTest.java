@@ -0,0 +1,51 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import io.supertokens.storage.mysql.queries.utils.TabSeparatedRowsInputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TabSeparatedRowsInputStreamTest {
+
+    @Test
+    public void rowsAreEscapedInLoadDataFormat() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{"{\"a\":\"b\\tc\"}\tx\ny\r\0", null, 5L});
+        rows.add(new Object[]{"v\u00e4lue"});
+
+        InputStream in = new TabSeparatedRowsInputStream(rows.iterator());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // small reads, so that rows are split across reads
+        byte[] buf = new byte[3];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) != -1) {
+            out.write(buf, 0, n);
+        }
+
+        assertEquals("{\"a\":\"b\\\\tc\"}\\tx\\ny\\r\\0\t\\N\t5\nv\u00e4lue\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(-1, in.read());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import io.supertokens.ProcessState;
+import io.supertokens.authRecipe.AuthRecipe;
+import io.supertokens.emailpassword.EmailPassword;
+import io.supertokens.featureflag.EE_FEATURES;
+import io.supertokens.featureflag.FeatureFlagTestContent;
+import io.supertokens.pluginInterface.authRecipe.AuthRecipeUserInfo;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.UserCursor;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class UserCursorTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    @Test
+    public void testCursorReturnsEachPrimaryUserOnce() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args, false);
+        FeatureFlagTestContent.getInstance(process.getProcess())
+                .setKeyValue(FeatureFlagTestContent.ENABLED_FEATURES, new EE_FEATURES[]{
+                        EE_FEATURES.ACCOUNT_LINKING, EE_FEATURES.MULTI_TENANCY});
+        process.startProcess();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+
+        List<AuthRecipeUserInfo> users = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            users.add(EmailPassword.signUp(process.getProcess(), "test" + i + "@example.com", "password"));
+        }
+        AuthRecipe.createPrimaryUser(process.getProcess(), users.get(0).getSupertokensUserId());
+        AuthRecipe.linkAccounts(process.getProcess(), users.get(1).getSupertokensUserId(),
+                users.get(0).getSupertokensUserId());
+
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+
+        for (int batchSize : new int[]{1, 2, 100}) {
+            Map<String, AuthRecipeUserInfo> fromAppCursor = new HashMap<>();
+            try (UserCursor cursor = start.openUserCursor(new AppIdentifier(null, null), batchSize)) {
+                List<AuthRecipeUserInfo> batch;
+                while (!(batch = cursor.nextBatch()).isEmpty()) {
+                    assertTrue(batch.size() <= batchSize);
+                    for (AuthRecipeUserInfo user : batch) {
+                        assertNull(fromAppCursor.put(user.getSupertokensUserId(), user));
+                    }
+                }
+            }
+            assertEquals(6, fromAppCursor.size());
+            assertFalse(fromAppCursor.containsKey(users.get(1).getSupertokensUserId()));
+            assertEquals(2, fromAppCursor.get(users.get(0).getSupertokensUserId()).loginMethods.length);
+
+            List<String> fromTenantCursor = new ArrayList<>();
+            try (UserCursor cursor = start.openUserCursor(new TenantIdentifier(null, null, null), batchSize)) {
+                List<AuthRecipeUserInfo> batch;
+                while (!(batch = cursor.nextBatch()).isEmpty()) {
+                    for (AuthRecipeUserInfo user : batch) {
+                        fromTenantCursor.add(user.getSupertokensUserId());
+                    }
+                }
+            }
+            assertEquals(6, fromTenantCursor.size());
+            assertTrue(fromAppCursor.keySet().containsAll(fromTenantCursor));
+        }
+
+        // closing before reading everything must not leave the connection unusable
+        for (int i = 0; i < 20; i++) {
+            try (UserCursor cursor = start.openUserCursor(new AppIdentifier(null, null), 1)) {
+                assertEquals(1, cursor.nextBatch().size());
+            }
+        }
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import com.google.gson.JsonObject;
+import io.supertokens.ProcessState;
+import io.supertokens.pluginInterface.multitenancy.AppIdentifier;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static org.junit.Assert.*;
+
+public class VerifiedEmailFilterTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    private static final AppIdentifier APP = new AppIdentifier(null, null);
+
+    @Test
+    public void testIsEmailVerifiedWithTheFilter() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_verified_email_filter_enabled", "true");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+
+        verifyEmail(start, "user0", "test0@example.com");
+        assertTrue(start.isEmailVerified(APP, "user0", "test0@example.com"));
+        waitForFilter(start);
+
+        // an email that was never verified is answered by the filter
+        long negatives = getAppMetrics(start).get("definiteNegatives").getAsLong();
+        assertFalse(start.isEmailVerified(APP, "user0", "other@example.com"));
+        assertEquals(negatives + 1, getAppMetrics(start).get("definiteNegatives").getAsLong());
+
+        // writes after the filter was built are seen right away
+        verifyEmail(start, "user1", "test1@example.com");
+        assertTrue(start.isEmailVerified(APP, "user1", "test1@example.com"));
+        start.unverifyEmail(APP, "user0", "test0@example.com");
+        assertFalse(start.isEmailVerified(APP, "user0", "test0@example.com"));
+
+        // once there is an email that may be equal to an ASCII one in the column's collation, there are no more
+        // answers from the filter
+        verifyEmail(start, "user2", "jos\u00e9@example.com");
+        assertTrue(getAppMetrics(start).get("hasUnfilterableEmails").getAsBoolean());
+        negatives = getAppMetrics(start).get("definiteNegatives").getAsLong();
+        assertFalse(start.isEmailVerified(APP, "user0", "other@example.com"));
+        assertEquals(isVerifiedInDb(start, "user2", "jose@example.com"),
+                start.isEmailVerified(APP, "user2", "jose@example.com"));
+        assertEquals(negatives, getAppMetrics(start).get("definiteNegatives").getAsLong());
+
+        // the filter is dropped on close, and the next one finds such emails while it is built
+        process.kill(false);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+        StorageLayer.close();
+
+        process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        start = (Start) StorageLayer.getStorage(process.getProcess());
+        assertTrue(start.isEmailVerified(APP, "user1", "test1@example.com"));
+        waitForFilter(start);
+        assertTrue(getAppMetrics(start).get("hasUnfilterableEmails").getAsBoolean());
+        assertEquals(0, getAppMetrics(start).get("definiteNegatives").getAsLong());
+        assertFalse(start.isEmailVerified(APP, "user0", "other@example.com"));
+        assertEquals(0, getAppMetrics(start).get("definiteNegatives").getAsLong());
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    private static void verifyEmail(Start start, String userId, String email) throws Exception {
+        start.startTransaction(con -> {
+            try {
+                start.updateIsEmailVerified_Transaction(APP, con, userId, email, true);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            start.commitTransaction(con);
+            return null;
+        });
+    }
+
+    private static JsonObject getAppMetrics(Start start) {
+        return start.getVerifiedEmailFilterMetrics().getAsJsonObject(APP.getAppId());
+    }
+
+    private static void waitForFilter(Start start) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            // the filter is built on the first check of the app
+            start.isEmailVerified(APP, "user0", "test0@example.com");
+            JsonObject metrics = getAppMetrics(start);
+            if (metrics != null && metrics.get("ready").getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("the filter was not built");
+    }
+
+    private static boolean isVerifiedInDb(Start start, String userId, String email) throws Exception {
+        String QUERY = "SELECT * FROM " + Config.getConfig(start).getEmailVerificationTable()
+                + " WHERE app_id = ? AND user_id = ? AND email = ?";
+        return execute(start, QUERY, pst -> {
+            pst.setString(1, APP.getAppId());
+            pst.setString(2, userId);
+            pst.setString(3, email);
+        }, result -> result.next());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *    Copyright (c) 2026, VRAI Labs and/or its affiliates. All rights reserved.
+ *
+ *    This software is licensed under the Apache License, Version 2.0 (the
+ *    "License") as published by the Apache Software Foundation.
+ *
+ *    You may not use this file except in compliance with the License. You may
+ *    obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+
+package io.supertokens.storage.mysql.test;
+
+import io.supertokens.ProcessState;
+import io.supertokens.pluginInterface.multitenancy.TenantIdentifier;
+import io.supertokens.pluginInterface.webauthn.WebAuthNStoredCredential;
+import io.supertokens.storage.mysql.Start;
+import io.supertokens.storage.mysql.WebAuthNCredentialCache;
+import io.supertokens.storage.mysql.config.Config;
+import io.supertokens.storageLayer.StorageLayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.execute;
+import static io.supertokens.storage.mysql.QueryExecutorTemplate.update;
+import static org.junit.Assert.*;
+
+public class WebAuthNCredentialCacheTest {
+    @Rule
+    public TestRule watchman = Utils.getOnFailure();
+
+    @AfterClass
+    public static void afterTesting() {
+        Utils.afterTesting();
+    }
+
+    @Before
+    public void beforeEach() {
+        Utils.reset();
+    }
+
+    private static final TenantIdentifier TENANT = TenantIdentifier.BASE_TENANT;
+
+    @Test
+    public void testCachedCredentialsAlwaysGetTheCounterFromTheDb() throws Exception {
+        String[] args = {"../"};
+
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        createUserWithCredential(start, "user", "credential", new byte[]{1, 2, 3}, 1000);
+
+        WebAuthNStoredCredential first = loadCredential(start, "credential");
+        assertArrayEquals(new byte[]{1, 2, 3}, first.publicKey);
+        // what a caller gets is its own copy
+        first.counter = 100;
+        assertEquals(0, loadCredential(start, "credential").counter);
+
+        update(start, "UPDATE " + Config.getConfig(start).getWebAuthNCredentialsTable()
+                + " SET counter = 7 WHERE id = ?", pst -> pst.setString(1, "credential"));
+        assertEquals(7, loadCredential(start, "credential").counter);
+
+        // a credential that was deleted and created again with the same id by another core is read in full
+        update(start, "DELETE FROM " + Config.getConfig(start).getWebAuthNCredentialsTable() + " WHERE id = ?",
+                pst -> pst.setString(1, "credential"));
+        start.saveCredentials(TENANT, newCredential("user", "credential", new byte[]{4, 5, 6}, 2000));
+        WebAuthNStoredCredential recreated = loadCredential(start, "credential");
+        assertArrayEquals(new byte[]{4, 5, 6}, recreated.publicKey);
+        assertEquals(2000, recreated.createdAt);
+        assertEquals(0, recreated.counter);
+
+        start.removeCredential(TENANT, "user", "credential");
+        assertNull(loadCredential(start, "credential"));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testDelayedCountersAreReadBackAndWrittenOnClose() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_webauthn_counter_write_interval", "3600000");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        createUserWithCredential(start, "user", "credential", new byte[]{1, 2, 3}, 1000);
+
+        updateCounter(start, "credential", 5);
+        // the highest counter wins
+        updateCounter(start, "credential", 3);
+        assertEquals(0, getCounterInDb(start, "credential"));
+        assertEquals(5, loadCredential(start, "credential").counter);
+        assertEquals(5, start.loadCredentialByIdForUser(TENANT, "credential", "user").counter);
+        assertEquals(5, start.listCredentialsForUser(TENANT, "user").get(0).counter);
+
+        // stopping the core writes what is still pending
+        process.kill(false);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+        StorageLayer.close();
+
+        process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        start = (Start) StorageLayer.getStorage(process.getProcess());
+        assertEquals(5, getCounterInDb(start, "credential"));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    @Test
+    public void testCountersThatFailToBeWrittenAreRetried() throws Exception {
+        String[] args = {"../"};
+
+        Utils.setValueInConfig("mysql_webauthn_counter_write_interval", "500");
+        TestingProcessManager.TestingProcess process = TestingProcessManager.start(args);
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STARTED));
+        Start start = (Start) StorageLayer.getStorage(process.getProcess());
+        createUserWithCredential(start, "user", "credential", new byte[]{1, 2, 3}, 1000);
+        String table = Config.getConfig(start).getWebAuthNCredentialsTable();
+
+        // every write fails while the table is not there
+        update(start, "RENAME TABLE " + table + " TO " + table + "_moved", pst -> {
+        });
+        updateCounter(start, "credential", 5);
+        Thread.sleep(1500);
+
+        WebAuthNStoredCredential credential = newCredential("user", "credential", new byte[]{1, 2, 3}, 1000);
+        assertEquals(5, WebAuthNCredentialCache.getInstance(start).withPendingCounter(credential).counter);
+
+        update(start, "RENAME TABLE " + table + "_moved TO " + table, pst -> {
+        });
+        Thread.sleep(1500);
+        assertEquals(5, getCounterInDb(start, "credential"));
+
+        process.kill();
+        assertNotNull(process.checkOrWaitForEvent(ProcessState.PROCESS_STATE.STOPPED));
+    }
+
+    private static WebAuthNStoredCredential newCredential(String userId, String credentialId, byte[] publicKey,
+                                                          long createdAt) {
+        WebAuthNStoredCredential credential = new WebAuthNStoredCredential();
+        credential.id = credentialId;
+        credential.appId = TENANT.getAppId();
+        credential.rpId = "example.com";
+        credential.userId = userId;
+        credential.counter = 0;
+        credential.publicKey = publicKey;
+        credential.transports = "[\"internal\"]";
+        credential.createdAt = createdAt;
+        credential.updatedAt = createdAt;
+        return credential;
+    }
+
+    private static void createUserWithCredential(Start start, String userId, String credentialId, byte[] publicKey,
+                                                 long createdAt) throws Exception {
+        start.startTransaction(con -> {
+            try {
+                start.signUp_Transaction(TENANT, con, userId, userId + "@example.com", "example.com");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            start.commitTransaction(con);
+            return null;
+        });
+        start.saveCredentials(TENANT, newCredential(userId, credentialId, publicKey, createdAt));
+    }
+
+    private static WebAuthNStoredCredential loadCredential(Start start, String credentialId) throws Exception {
+        return start.startTransaction(con -> {
+            WebAuthNStoredCredential credential = start.loadCredentialById_Transaction(TENANT, con, credentialId);
+            start.commitTransaction(con);
+            return credential;
+        });
+    }
+
+    private static void updateCounter(Start start, String credentialId, long counter) throws Exception {
+        start.startTransaction(con -> {
+            start.updateCounter_Transaction(TENANT, con, credentialId, counter);
+            start.commitTransaction(con);
+            return null;
+        });
+    }
+
+    private static long getCounterInDb(Start start, String credentialId) throws Exception {
+        String QUERY = "SELECT counter FROM " + Config.getConfig(start).getWebAuthNCredentialsTable()
+                + " WHERE id = ?";
+        return execute(start, QUERY, pst -> pst.setString(1, credentialId),
+                result -> result.next() ? result.getLong(1) : -1L);
+    }
+}